@@ -40,6 +40,9 @@ public enum ErrorMessage {
     INVALID_GRID_LAT(400, 5001, "The south coordinate is larger than the north coordinate."),
     INVALID_GRID_LOT(400, 5002, "The west coordinate is larger than the east coordinate."),
     OUTSIDE_GRID(404, 5003, "The requested coordinates are outside the supported grid."),
+    INVALID_TILE(400, 5004, "The tile coordinates are not valid, or the zoom level is not supported."),
+    SLICING_SATURATED(503, 5005, "The server is busy calculating other slices, please try again later."),
+    DEADLINE_EXCEEDED(503, 5006, "The NoGo calculation was cancelled, because it did not complete before the deadline."),
 
 
     UNCAUGHT_EXCEPTION(500, 10000, "Internal server error.")
@@ -0,0 +1,271 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.dmiweather.dto;
+
+import com.google.common.io.ByteStreams;
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.common.dto.JSonWarning;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Binary columnar format for a {@link GridResponse}, where the data is in {@link GridResponse#getData()} instead of points. A large grid in JSON
+ * repeats the coordinate and the field names for every point, and both ends spend most of their time (and garbage) on the text.
+ * <p>
+ * Everything is little endian. Strings are an int byte length followed by UTF-8, a null string has length -1, and a null time is Long.MIN_VALUE.
+ * <pre>
+ * int     magic "GRID", int version
+ * int     nx, ny
+ * double  dx, dy, west longitude, south latitude, east longitude, north latitude
+ * long    forecastDate, queryTime (epoch ms)
+ * int     forecast count, each: string name, long creationDate, int parameter count, string parameter...
+ * byte    1 if there is a warning: int id, string message, string details
+ * int     parameter count, each: string parameter, float[nx * ny] values row major from the south west corner, NaN where undefined
+ * </pre>
+ * A {@link GridSeriesResponse} has its own header, followed by the grids in the order of the requested times. A time without forecast data has
+ * no grid, only the query time and the warning.
+ * <pre>
+ * int     magic "GRDS", int version
+ * int     grid count, each: byte 1 followed by a grid, or byte 0, long queryTime and the warning
+ * </pre>
+ */
+public final class GridBinaryFormat {
+
+    public static final String MEDIA_TYPE_VALUE = "application/vnd.dma.grid";
+    public static final String SERIES_MEDIA_TYPE_VALUE = "application/vnd.dma.grid-series";
+
+    private static final int MAGIC = 0x47524944;
+    private static final int SERIES_MAGIC = 0x47524453;
+    private static final int VERSION = 1;
+
+    public static void write(GridResponse response, OutputStream out) throws IOException {
+        Writer header = new Writer();
+        header.putInt(MAGIC).putInt(VERSION);
+        header.putInt(response.getNx()).putInt(response.getNy());
+        header.putDouble(response.getDx()).putDouble(response.getDy());
+        header.putDouble(response.getNorthWest().getLon()).putDouble(response.getSouthEast().getLat());
+        header.putDouble(response.getSouthEast().getLon()).putDouble(response.getNorthWest().getLat());
+        header.putTime(response.getForecastDate()).putTime(response.getQueryTime());
+
+        List<ForecastInfo> forecasts = response.getForecasts() != null ? response.getForecasts() : Collections.emptyList();
+        header.putInt(forecasts.size());
+        for (ForecastInfo forecast : forecasts) {
+            header.putString(forecast.getName()).putTime(forecast.getCreationDate());
+            Set<GridParameterType> types = forecast.getParameters() != null ? forecast.getParameters().getParamTypes() : Collections.emptySet();
+            header.putInt(types.size());
+            for (GridParameterType type : types) {
+                header.putString(type.name());
+            }
+        }
+
+        header.putWarning(response.getWarning());
+
+        Map<GridParameterType, float[]> data = response.getData();
+        header.putInt(data.size());
+        out.write(header.toByteArray());
+
+        for (Map.Entry<GridParameterType, float[]> entry : data.entrySet()) {
+            float[] values = entry.getValue();
+            out.write(new Writer().putString(entry.getKey().name()).toByteArray());
+            ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asFloatBuffer().put(values);
+            out.write(buffer.array());
+        }
+        out.flush();
+    }
+
+    public static void writeSeries(GridSeriesResponse response, OutputStream out) throws IOException {
+        List<GridResponse> grids = response.getGrids() != null ? response.getGrids() : Collections.emptyList();
+        out.write(new Writer().putInt(SERIES_MAGIC).putInt(VERSION).putInt(grids.size()).toByteArray());
+        for (GridResponse grid : grids) {
+            if (grid.getData() != null) {
+                out.write(1);
+                write(grid, out);
+            } else {
+                out.write(new Writer().putByte(0).putTime(grid.getQueryTime()).putWarning(grid.getWarning()).toByteArray());
+            }
+        }
+        out.flush();
+    }
+
+    public static GridResponse read(InputStream in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(ByteStreams.toByteArray(in)).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            return read(buffer);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Invalid binary grid", e);
+        }
+    }
+
+    public static GridSeriesResponse readSeries(InputStream in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(ByteStreams.toByteArray(in)).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != SERIES_MAGIC) {
+                throw new IOException("Not a binary grid series");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary grid series version " + version);
+            }
+            int count = buffer.getInt();
+            List<GridResponse> grids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (buffer.get() == 1) {
+                    grids.add(read(buffer));
+                } else {
+                    grids.add(new GridResponse().setQueryTime(getTime(buffer)).setWarning(getWarning(buffer)));
+                }
+            }
+            return new GridSeriesResponse().setGrids(grids);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Invalid binary grid series", e);
+        }
+    }
+
+    /**
+     * Reads a grid from the position of the buffer, and leaves the position after it
+     */
+    private static GridResponse read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a binary grid");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary grid version " + version);
+        }
+        GridResponse response = new GridResponse().setNx(buffer.getInt()).setNy(buffer.getInt()).setDx(buffer.getDouble()).setDy(buffer.getDouble());
+        double west = buffer.getDouble();
+        double south = buffer.getDouble();
+        double east = buffer.getDouble();
+        double north = buffer.getDouble();
+        response.setNorthWest(new GeoCoordinate(west, north)).setSouthEast(new GeoCoordinate(east, south));
+        response.setForecastDate(getTime(buffer)).setQueryTime(getTime(buffer));
+
+        int forecastCount = buffer.getInt();
+        List<ForecastInfo> forecasts = new ArrayList<>(forecastCount);
+        for (int i = 0; i < forecastCount; i++) {
+            ForecastInfo forecast = new ForecastInfo().setName(getString(buffer)).setCreationDate(getTime(buffer));
+            int typeCount = buffer.getInt();
+            List<GridParameterType> types = new ArrayList<>(typeCount);
+            for (int t = 0; t < typeCount; t++) {
+                types.add(GridParameterType.valueOf(getString(buffer)));
+            }
+            forecasts.add(forecast.setParameters(GridParameters.parametersFromTypes(types)));
+        }
+        response.setForecasts(forecasts);
+
+        response.setWarning(getWarning(buffer));
+
+        int size = response.getNx() * response.getNy();
+        int parameterCount = buffer.getInt();
+        Map<GridParameterType, float[]> data = new EnumMap<>(GridParameterType.class);
+        for (int i = 0; i < parameterCount; i++) {
+            GridParameterType type = GridParameterType.valueOf(getString(buffer));
+            float[] values = new float[size];
+            buffer.asFloatBuffer().get(values);
+            buffer.position(buffer.position() + size * 4);
+            data.put(type, values);
+        }
+        return response.setData(data);
+    }
+
+    private static JSonWarning getWarning(ByteBuffer buffer) {
+        if (buffer.get() != 1) {
+            return null;
+        }
+        return new JSonWarning().setId(buffer.getInt()).setMessage(getString(buffer)).setDetails(getString(buffer));
+    }
+
+    private static Instant getTime(ByteBuffer buffer) {
+        long millis = buffer.getLong();
+        return millis != Long.MIN_VALUE ? Instant.ofEpochMilli(millis) : null;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final ByteBuffer scratch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+        Writer putByte(int value) {
+            out.write(value);
+            return this;
+        }
+
+        Writer putInt(int value) {
+            scratch.clear();
+            out.write(scratch.putInt(value).array(), 0, 4);
+            return this;
+        }
+
+        Writer putLong(long value) {
+            scratch.clear();
+            out.write(scratch.putLong(value).array(), 0, 8);
+            return this;
+        }
+
+        Writer putDouble(double value) {
+            scratch.clear();
+            out.write(scratch.putDouble(value).array(), 0, 8);
+            return this;
+        }
+
+        Writer putTime(Instant time) {
+            return putLong(time != null ? time.toEpochMilli() : Long.MIN_VALUE);
+        }
+
+        Writer putString(String value) {
+            if (value == null) {
+                return putInt(-1);
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Writer putWarning(JSonWarning warning) {
+            putByte(warning != null ? 1 : 0);
+            if (warning != null) {
+                putInt(warning.getId()).putString(warning.getMessage()).putString(warning.getDetails());
+            }
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    private GridBinaryFormat() {
+    }
+}
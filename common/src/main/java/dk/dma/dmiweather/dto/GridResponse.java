@@ -14,6 +14,7 @@
  */
 package dk.dma.dmiweather.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import dk.dma.common.dto.GeoCoordinate;
 import dk.dma.common.dto.JSonWarning;
@@ -22,6 +23,7 @@ import lombok.experimental.Accessors;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Klaus Groenbaek
@@ -46,5 +48,11 @@ public class GridResponse {
     private Integer Ny;
     private GeoCoordinate northWest;
     private GeoCoordinate southEast;
+    /**
+     * The data as one array per parameter, row major from the south west corner with NaN where undefined, instead of points.
+     * Only used with the binary format, see {@link GridBinaryFormat}
+     */
+    @JsonIgnore
+    private Map<GridParameterType, float[]> data;
 
 }
@@ -0,0 +1,68 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.dmiweather.dto;
+
+import dk.dma.common.dto.GeoCoordinate;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import javax.validation.Valid;
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Request for weather for a grid at several points in time. This is the same as making a GridRequest for each time, but saves the round-trips,
+ * e.g. when NoGo is sliced over time.
+ */
+@Data
+@Accessors(chain = true)
+public class GridSeriesRequest {
+    /**
+     * the most times in a single request
+     */
+    public static final int MAX_TIMES = 48;
+
+    @Valid
+    private GridParameters parameters;
+    @Valid
+    private GeoCoordinate northWest;
+    @Valid
+    private GeoCoordinate southEast;
+    @NotNull
+    @Size(min = 1, max = MAX_TIMES, message = "You must request between 1 and 48 times.")
+    private List<Instant> times;
+
+    private Integer nx = null;
+    private Integer ny = null;
+
+    /**
+     * @return true if both or non of the nx/ny values are set
+     * @see GridRequest#isInValid()
+     */
+    @AssertTrue(message =  "You must either set both nx and ny or none of them.")
+    public boolean isInValid() {
+        return (nx == null && ny == null) || (nx != null && ny != null);
+    }
+
+    /**
+     * @return the request for a single time in the series
+     */
+    public GridRequest toGridRequest(Instant time) {
+        return new GridRequest().setParameters(parameters).setNorthWest(northWest).setSouthEast(southEast).setTime(time).setNx(nx).setNy(ny);
+    }
+}
@@ -20,7 +20,10 @@ import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.health.DiskSpaceHealthIndicator;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
 import java.util.Map;
@@ -59,6 +62,45 @@ public class WeatherController {
         return service.request(request, removeEmpty, gridMetrics);
     }
 
+    /**
+     * The same grid in the binary columnar format, see {@link GridBinaryFormat}. Large grids are much smaller and faster to produce and parse than JSON.
+     * @param request the request with coordinate and parameter information
+     */
+    @PostMapping(value = "/grid", produces = GridBinaryFormat.MEDIA_TYPE_VALUE)
+    @ApiOperation(value = "Get grid weather in the binary format", notes = "Grid metrics and forecast info followed by a little endian float array per parameter, " +
+            "NaN marks undefined values (land).")
+    public ResponseEntity<StreamingResponseBody> getBinaryGrid(@RequestBody @Valid GridRequest request) {
+        GridResponse response = service.requestColumns(request);
+        StreamingResponseBody body = out -> GridBinaryFormat.write(response, out);
+        return ResponseEntity.ok().contentType(MediaType.valueOf(GridBinaryFormat.MEDIA_TYPE_VALUE)).body(body);
+    }
+
+    /**
+     * Same as /grid but for several times, so clients that need a time series (e.g. sliced NoGo) only make a single round-trip
+     * @param request the request with coordinate, parameter and time information
+     * @param removeEmpty remove points that have no data (over land)
+     * @return the coordinates with weather data for each time
+     */
+    @PostMapping("/grid/series")
+    @ApiOperation(value = "Get grid weather for several points in time", notes = "The grids are returned in the same order as the times. If there is no forecast for a time, the grid has a warning and no points.")
+    public GridSeriesResponse getGridSeries(@RequestBody @Valid GridSeriesRequest request, @RequestParam(name = "removeEmpty", required = false) boolean removeEmpty,
+                                            @RequestParam(name = "gridMetrics", required = false) boolean gridMetrics) {
+        return service.requestSeries(request, removeEmpty, gridMetrics);
+    }
+
+    /**
+     * The same grid series in the binary columnar format, see {@link GridBinaryFormat}
+     * @param request the request with coordinate, parameter and time information
+     */
+    @PostMapping(value = "/grid/series", produces = GridBinaryFormat.SERIES_MEDIA_TYPE_VALUE)
+    @ApiOperation(value = "Get grid weather for several points in time in the binary format", notes = "The grids in the binary format, in the same order as " +
+            "the times. If there is no forecast for a time, only the query time and a warning is returned for it.")
+    public ResponseEntity<StreamingResponseBody> getBinaryGridSeries(@RequestBody @Valid GridSeriesRequest request) {
+        GridSeriesResponse response = service.requestSeriesColumns(request);
+        StreamingResponseBody body = out -> GridBinaryFormat.writeSeries(response, out);
+        return ResponseEntity.ok().contentType(MediaType.valueOf(GridBinaryFormat.SERIES_MEDIA_TYPE_VALUE)).body(body);
+    }
+
     @GetMapping("/info")
     @ApiOperation(value = "Provides a list of the areas for which Weather service has information.")
     public WeatherAreaInfos info() {
@@ -51,6 +51,14 @@ class ForecastContainer {
     }
 
     GridResponse getData(GridRequest request, boolean removeEmpty, boolean gridMetrics) {
+        return getData(request, removeEmpty, gridMetrics, false);
+    }
+
+    /**
+     * @param columnar return the data as an array per parameter in {@link GridResponse#getData()} instead of points, the grid metrics are always
+     *                 included and removeEmpty is ignored, since the arrays must cover the grid
+     */
+    GridResponse getData(GridRequest request, boolean removeEmpty, boolean gridMetrics, boolean columnar) {
 
         Map<GridParameterType, GribFileWrapper> sources = findSources(request);
 
@@ -100,6 +108,10 @@ class ForecastContainer {
             }
         }
 
+        if (columnar) {
+            return getColumns(request, sources, Nx, Ny, lonSpacing, latSpacing);
+        }
+
         ArrayList<GridDataPoint> points = new ArrayList<>(Nx * Ny);
         for (int y = 0; y < Ny; y++) {
             for (int x = 0; x < Nx; x++) {
@@ -133,6 +145,57 @@ class ForecastContainer {
             points.removeIf(p -> !p.hasValues());
         }
 
+        GridResponse response = new GridResponse().setPoints(points).setQueryTime(Instant.now());
+        addForecasts(response, request, sources);
+
+        if (gridMetrics) {
+            response.setDx(lonSpacing);
+            response.setDy(latSpacing);
+            response.setNx(Nx);
+            response.setNy(Ny);
+            if (!removeEmpty) {
+                GeoCoordinate first = points.get(0).getCoordinate();
+                GeoCoordinate last = points.get(points.size() - 1).getCoordinate();
+                response.setNorthWest(new GeoCoordinate(first.getLon(), last.getLat()));
+                response.setSouthEast(new GeoCoordinate(last.getLon(), first.getLat()));
+            }
+        }
+        return response;
+    }
+
+    private GridResponse getColumns(GridRequest request, Map<GridParameterType, GribFileWrapper> sources, int Nx, int Ny, double lonSpacing, double latSpacing) {
+        GeoCoordinate northWest = request.getNorthWest();
+        GeoCoordinate southEast = request.getSouthEast();
+        Map<GridParameterType, float[]> columns = new EnumMap<>(GridParameterType.class);
+        for (Map.Entry<GridParameterType, GribFileWrapper> entry : sources.entrySet()) {
+            float[] data = entry.getValue().getDataProviders().get(entry.getKey()).getData(northWest, southEast, Nx, Ny, lonSpacing, latSpacing);
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] == GRIB_NOT_DEFINED) {
+                    data[i] = Float.NaN;
+                }
+            }
+            columns.put(entry.getKey(), data);
+        }
+
+        GridResponse response = new GridResponse().setData(columns).setQueryTime(Instant.now())
+                .setDx(lonSpacing).setDy(latSpacing).setNx(Nx).setNy(Ny)
+                .setNorthWest(coordinate(northWest.getLon(), southEast.getLat() + (Ny - 1) * latSpacing))
+                .setSouthEast(coordinate(northWest.getLon() + (Nx - 1) * lonSpacing, southEast.getLat()));
+        addForecasts(response, request, sources);
+        return response;
+    }
+
+    private GeoCoordinate coordinate(double lon, double lat) {
+        if (coordinateRounding != -1) {
+            return new GeoCoordinate(MathUtil.round(lon, coordinateRounding), MathUtil.round(lat, coordinateRounding));
+        }
+        return new GeoCoordinate(lon, lat);
+    }
+
+    /**
+     * Adds the forecast information, and a warning if there is no data for some of the parameters
+     */
+    private void addForecasts(GridResponse response, GridRequest request, Map<GridParameterType, GribFileWrapper> sources) {
         ArrayList<ForecastInfo> forecasts = new ArrayList<>();
         Set<GridParameterType> missingParameters = request.getParameters().getParamTypes();
 
@@ -146,8 +209,7 @@ class ForecastContainer {
             missingParameters.removeAll(parametersInFile);
         }
 
-        GridResponse response = new GridResponse().setPoints(points).setForecasts(forecasts).setQueryTime(Instant.now());
-
+        response.setForecasts(forecasts);
 
         // set the deprecate time to the first forecast time
         response.setForecastDate(instant);
@@ -157,20 +219,6 @@ class ForecastContainer {
             response.setWarning(new JSonWarning().setId(msg.getId()).setMessage(msg.getMessage()).setDetails("There was no data for the following parameters, " +
                 missingParameters.stream().map(Object::toString).collect(Collectors.joining(","))));
         }
-
-        if (gridMetrics) {
-            response.setDx(lonSpacing);
-            response.setDy(latSpacing);
-            response.setNx(Nx);
-            response.setNy(Ny);
-            if (!removeEmpty) {
-                GeoCoordinate first = points.get(0).getCoordinate();
-                GeoCoordinate last = points.get(points.size() - 1).getCoordinate();
-                response.setNorthWest(new GeoCoordinate(first.getLon(), last.getLat()));
-                response.setSouthEast(new GeoCoordinate(last.getLon(), first.getLat()));
-            }
-        }
-        return response;
     }
 
     /**
@@ -19,6 +19,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.vividsolutions.jts.io.WKTWriter;
 import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.common.dto.JSonWarning;
 import dk.dma.common.exception.APIException;
 import dk.dma.common.exception.ErrorMessage;
 import dk.dma.dmiweather.dto.*;
@@ -27,6 +28,7 @@ import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.GaugeService;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.concurrent.GuardedBy;
@@ -57,6 +59,10 @@ public class WeatherService {
 
     private final int dataRounding;
     private final int coordinateRounding;
+    /**
+     * Spring Boot records metrics with the prefix "timer." in Dropwizard timers, null when there are no metrics
+     */
+    private final GaugeService gaugeService;
 
     @GuardedBy("$lock")
     private NavigableMap<Instant, ForecastContainer> cache = new TreeMap<>();
@@ -65,12 +71,24 @@ public class WeatherService {
     private volatile ErrorMessage errorMessage;
 
     @Autowired
-    public WeatherService(@Value("${rounding.data}") int dataRounding, @Value("${rounding.coordinates}")int coordinateRounding) {
+    public WeatherService(@Value("${rounding.data}") int dataRounding, @Value("${rounding.coordinates}")int coordinateRounding, GaugeService gaugeService) {
         this.dataRounding = dataRounding;
         this.coordinateRounding = coordinateRounding;
+        this.gaugeService = gaugeService;
     }
 
     public GridResponse request(GridRequest request, boolean removeEmpty, boolean gridMetrics) {
+        return request(request, removeEmpty, gridMetrics, false);
+    }
+
+    /**
+     * Same as {@link #request(GridRequest, boolean, boolean)}, but the data is returned as an array per parameter, for the binary format
+     */
+    public GridResponse requestColumns(GridRequest request) {
+        return request(request, false, true, true);
+    }
+
+    private GridResponse request(GridRequest request, boolean removeEmpty, boolean gridMetrics, boolean columnar) {
 
         GeoCoordinate northWest = request.getNorthWest();
         GeoCoordinate southEast = request.getSouthEast();
@@ -84,10 +102,61 @@ public class WeatherService {
 
         Stopwatch stopwatch = Stopwatch.createStarted();
         try {
-            return findForecastData(request.getTime()).getData(request, removeEmpty, gridMetrics);
+            return findForecastData(request.getTime()).getData(request, removeEmpty, gridMetrics, columnar);
 
         } finally {
-            log.info("Completed weather request in {} ms", stopwatch.stop().elapsed(TimeUnit.MILLISECONDS));
+            time("timer.weather.grid", stopwatch);
+        }
+    }
+
+    /**
+     * Makes the same grid request for a list of times. The area is only validated once, and a time without forecast data does not fail the
+     * whole request, instead the grid for that time has no points and a warning with the error.
+     * @param request the area, parameters and times
+     * @param removeEmpty remove points that have no data (over land)
+     * @param gridMetrics include dx, dy, nx, ny in the responses
+     * @return a grid for each time, in the same order as the requested times
+     */
+    public GridSeriesResponse requestSeries(GridSeriesRequest request, boolean removeEmpty, boolean gridMetrics) {
+        return requestSeries(request, removeEmpty, gridMetrics, false);
+    }
+
+    /**
+     * Same as {@link #requestSeries(GridSeriesRequest, boolean, boolean)}, but the data is returned as an array per parameter
+     */
+    public GridSeriesResponse requestSeriesColumns(GridSeriesRequest request) {
+        return requestSeries(request, false, true, true);
+    }
+
+    private GridSeriesResponse requestSeries(GridSeriesRequest request, boolean removeEmpty, boolean gridMetrics, boolean columnar) {
+        GeoCoordinate northWest = request.getNorthWest();
+        GeoCoordinate southEast = request.getSouthEast();
+
+        if (northWest.getLon() > southEast.getLon()) {
+            throw new APIException(ErrorMessage.INVALID_GRID_LOT);
+        }
+        if (northWest.getLat() < southEast.getLat()) {
+            throw new APIException(ErrorMessage.INVALID_GRID_LAT);
+        }
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        List<GridResponse> grids = new ArrayList<>();
+        for (Instant time : request.getTimes()) {
+            try {
+                grids.add(findForecastData(time).getData(request.toGridRequest(time), removeEmpty, gridMetrics, columnar));
+            } catch (APIException e) {
+                ErrorMessage error = e.getError();
+                grids.add(new GridResponse().setQueryTime(time)
+                        .setWarning(new JSonWarning().setId(error.getId()).setMessage(error.getMessage()).setDetails(e.getDetails())));
+            }
+        }
+        time("timer.weather.series", stopwatch);
+        return new GridSeriesResponse().setGrids(grids);
+    }
+
+    private void time(String metric, Stopwatch stopwatch) {
+        if (gaugeService != null) {
+            gaugeService.submit(metric, stopwatch.elapsed(TimeUnit.MILLISECONDS));
         }
     }
 
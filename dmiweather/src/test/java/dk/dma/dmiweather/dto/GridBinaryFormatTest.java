@@ -0,0 +1,89 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.dmiweather.dto;
+
+import com.google.common.collect.Lists;
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.common.dto.JSonWarning;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GridBinaryFormatTest {
+
+    @Test
+    public void roundTrip() throws Exception {
+        Map<GridParameterType, float[]> data = new EnumMap<>(GridParameterType.class);
+        data.put(GridParameterType.SeaLevel, new float[]{0.5f, -1.25f, Float.NaN, 2f, 0f, 3.5f});
+        Instant creation = Instant.parse("2017-04-01T06:00:00Z");
+        GridResponse response = new GridResponse().setNx(3).setNy(2).setDx(0.1).setDy(0.05)
+                .setNorthWest(new GeoCoordinate(12.0, 56.05)).setSouthEast(new GeoCoordinate(12.2, 56.0))
+                .setForecastDate(creation).setQueryTime(Instant.parse("2017-04-01T12:00:00Z"))
+                .setForecasts(Lists.newArrayList(new ForecastInfo().setName("DMI").setCreationDate(creation)
+                        .setParameters(new GridParameters().setSeaLevel(true))))
+                .setWarning(new JSonWarning().setId(7).setMessage("missing").setDetails("æøå"))
+                .setData(data);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GridBinaryFormat.write(response, out);
+        GridResponse read = GridBinaryFormat.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertArrayEquals(data.get(GridParameterType.SeaLevel), read.getData().get(GridParameterType.SeaLevel), 0f);
+        assertEquals(response.getForecasts(), read.getForecasts());
+        assertEquals(response.getWarning(), read.getWarning());
+        assertEquals(response.getNorthWest(), read.getNorthWest());
+        assertEquals(response.getSouthEast(), read.getSouthEast());
+        assertEquals(response.getForecastDate(), read.getForecastDate());
+        assertEquals(response.getQueryTime(), read.getQueryTime());
+        assertEquals(3, (int) read.getNx());
+        assertEquals(0.05, read.getDy(), 0);
+        assertNull(read.getPoints());
+    }
+
+    @Test
+    public void seriesRoundTrip() throws Exception {
+        Map<GridParameterType, float[]> data = new EnumMap<>(GridParameterType.class);
+        data.put(GridParameterType.SeaLevel, new float[]{0.5f, Float.NaN});
+        GridResponse grid = new GridResponse().setNx(2).setNy(1).setDx(0.1).setDy(0.05)
+                .setNorthWest(new GeoCoordinate(12.0, 56.0)).setSouthEast(new GeoCoordinate(12.1, 56.0))
+                .setQueryTime(Instant.parse("2017-04-01T12:00:00Z")).setData(data);
+        GridResponse missing = new GridResponse().setQueryTime(Instant.parse("2017-04-03T12:00:00Z"))
+                .setWarning(new JSonWarning().setId(4).setMessage("out of range"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GridBinaryFormat.writeSeries(new GridSeriesResponse().setGrids(Lists.newArrayList(grid, missing, grid)), out);
+        GridSeriesResponse read = GridBinaryFormat.readSeries(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(3, read.getGrids().size());
+        assertArrayEquals(data.get(GridParameterType.SeaLevel), read.getGrids().get(0).getData().get(GridParameterType.SeaLevel), 0f);
+        assertEquals(missing.getQueryTime(), read.getGrids().get(1).getQueryTime());
+        assertEquals(missing.getWarning(), read.getGrids().get(1).getWarning());
+        assertNull(read.getGrids().get(1).getData());
+        assertEquals("the grid after a missing one", grid.getQueryTime(), read.getGrids().get(2).getQueryTime());
+        assertArrayEquals(data.get(GridParameterType.SeaLevel), read.getGrids().get(2).getData().get(GridParameterType.SeaLevel), 0f);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncated() throws Exception {
+        GridBinaryFormat.read(new ByteArrayInputStream(new byte[]{0x44, 0x49}));
+    }
+}
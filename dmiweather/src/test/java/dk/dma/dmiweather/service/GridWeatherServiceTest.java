@@ -201,7 +201,7 @@ public class GridWeatherServiceTest {
     private GridResponse makeRequest(CoordinateConfigurer configurer, boolean removeEmpty, Instant now) throws IOException {
         ClassPathResource resource1 = new ClassPathResource("DMI_metocean_DK.2017033012.grb", getClass());
         ClassPathResource resource2 = new ClassPathResource("DMI_metocean_DK.2017033013.grb", getClass());
-        WeatherService service = new WeatherService(3, 5);
+        WeatherService service = new WeatherService(3, 5, null);
         Map<File, Instant> map = new HashMap<>();
         map.put(resource1.getFile(), now);
         map.put(resource2.getFile(), now);
@@ -22,4 +22,8 @@ public class ApiProfiles {
     public static final String SECURITY = "security";
     public static final String PRODUCTION = "production";
     public static final String TEST = "test";
+    /**
+     * The weather service runs inside the NoGo service, instead of being called over HTTP
+     */
+    public static final String EMBEDDED_WEATHER = "embedded-weather";
 }
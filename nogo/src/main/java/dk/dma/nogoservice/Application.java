@@ -16,12 +16,18 @@ package dk.dma.nogoservice;
 
 import com.google.common.base.Predicates;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import dk.dma.dmiweather.service.FTPLoader;
+import dk.dma.dmiweather.service.ForecastConfiguration;
 import dk.dma.nogoservice.service.*;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.GaugeService;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 import springfox.documentation.builders.PathSelectors;
@@ -43,6 +49,7 @@ import java.util.concurrent.Executors;
  *         Created 10/03/17.
  */
 @EnableSwagger2
+@EnableScheduling
 @SpringBootApplication
 public class Application extends WebMvcConfigurerAdapter {
 
@@ -52,6 +59,9 @@ public class Application extends WebMvcConfigurerAdapter {
         if (Boolean.getBoolean("disableSecurity")) {
             profiles.remove(ApiProfiles.SECURITY);
         }
+        if (Boolean.getBoolean("embeddedWeather")) {
+            profiles.add(ApiProfiles.EMBEDDED_WEATHER);
+        }
         builder.profiles(profiles.toArray(new String[profiles.size()])).headless(false).run(args);
     }
 
@@ -68,9 +78,23 @@ public class Application extends WebMvcConfigurerAdapter {
         return cm;
     }
 
-    @Bean
-    public ExecutorService slicingExecutor() {
-        return Executors.newFixedThreadPool(2);
+    /**
+     * Executor for the CPU bound part of the /area requests, so the servlet threads are not blocked while NoGo areas are calculated.
+     * Defaults to one thread per core.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService computeExecutor(@Value("${nogo.compute.threads:0}") int threads) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return Executors.newFixedThreadPool(poolSize, new ThreadFactoryBuilder().setNameFormat("nogo-compute-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Executor that sends the slice results to the stream listeners, so a slow client does not hold up the slicing threads. The threads mostly
+     * wait on the network, and there is at most one task per listener.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService streamExecutor() {
+        return Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("slice-stream-%d").setDaemon(true).build());
     }
 
     /**
@@ -78,21 +102,49 @@ public class Application extends WebMvcConfigurerAdapter {
      */
     @Bean
     @Profile(ApiProfiles.PRODUCTION)
-    public List<GridDataQueryArea> fromS3(WeatherService weatherService, NoGoAlgorithmFacade noGoAlgorithm, S3DataLoader dataLoader) throws IOException {
+    public List<GridDataQueryArea> fromS3(WeatherService weatherService, NoGoAlgorithmFacade noGoAlgorithm, S3DataLoader dataLoader, NoGoMetrics metrics,
+                                          @Value("${nogo.tidal.bilinear:false}") boolean bilinearTidal,
+                                          @Value("${nogo.tidal.resolution:0}") double tidalResolution,
+                                          @Value("${nogo.tidal.cache.hours:24}") int tidalCacheHours) throws IOException {
         List<GridDataQueryArea> beans = new ArrayList<>();
 
-//        FileBackedQueryArea area = new FileBackedQueryArea(new File("/Users/kg/work/NoGoService/Flintrannan_50_depth.json"), weatherService, noGoAlgorithm);
+//        FileBackedQueryArea area = new FileBackedQueryArea(new File("/Users/kg/work/NoGoService/Flintrannan_50_depth.json"), weatherService, noGoAlgorithm, metrics);
 //        beans.add(area);
 
         List<String> files = dataLoader.getFiles();
         for (String file : files) {
-            beans.add(new S3FileBackedQueryArea(dataLoader, file, weatherService, noGoAlgorithm));
+            S3FileBackedQueryArea area = new S3FileBackedQueryArea(dataLoader, file, weatherService, noGoAlgorithm, metrics);
+            area.setBilinearTidal(bilinearTidal);
+            area.setTidalResolution(tidalResolution);
+            area.setTidalCacheHours(tidalCacheHours);
+            beans.add(area);
         }
 
         return beans;
     }
 
 
+    /**
+     * The weather service of the dmiweather module, used when it is embedded in the NoGo service.
+     */
+    @Bean
+    @Profile(ApiProfiles.EMBEDDED_WEATHER)
+    public dk.dma.dmiweather.service.WeatherService gridWeatherService(@Value("${rounding.data:2}") int dataRounding,
+                                                                       @Value("${rounding.coordinates:6}") int coordinateRounding,
+                                                                       GaugeService gaugeService) {
+        return new dk.dma.dmiweather.service.WeatherService(dataRounding, coordinateRounding, gaugeService);
+    }
+
+    /**
+     * Loads the forecasts for the embedded weather service from DMI, only the metocean forecasts since they have the sea level.
+     */
+    @Bean
+    @Profile(ApiProfiles.EMBEDDED_WEATHER)
+    public FTPLoader ftpLoader(dk.dma.dmiweather.service.WeatherService gridWeatherService, @Value("${ftploader.tempdir:#{null}}") String tempDir) {
+        return new FTPLoader(gridWeatherService, tempDir, Lists.newArrayList(ForecastConfiguration.DANISH_METOCEAN_SHELF,
+                ForecastConfiguration.BALTIC_METOCEAN_SHELF, ForecastConfiguration.NORTH_SEA_METOCEAN_SHELF));
+    }
+
     @Bean
     public Docket api() {
         return new Docket(DocumentationType.SWAGGER_2)
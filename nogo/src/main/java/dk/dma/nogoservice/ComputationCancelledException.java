@@ -0,0 +1,28 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice;
+
+import dk.dma.common.exception.APIException;
+import dk.dma.common.exception.ErrorMessage;
+
+/**
+ * Thrown by a calculation when its {@link Deadline} has passed, or it has been cancelled because the client is gone
+ */
+public class ComputationCancelledException extends APIException {
+
+    public ComputationCancelledException(String details) {
+        super(ErrorMessage.DEADLINE_EXCEEDED, details);
+    }
+}
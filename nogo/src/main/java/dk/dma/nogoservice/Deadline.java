@@ -0,0 +1,107 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The time a request must be answered by. The calculation stages check the deadline of the current thread at row or figure boundaries, and abort with a
+ * {@link ComputationCancelledException} when it has passed or it has been cancelled, so CPU is not spent on results nobody is waiting for.
+ * <p>
+ * The deadline is made current for the calculation with {@link #call(Supplier)}, and for the tasks of an executor with {@link #bind(Executor)}, so
+ * it follows the calculation across threads without being passed through every method. Without a current deadline the checks do nothing.
+ */
+public final class Deadline {
+
+    private static final ThreadContext<Deadline> CURRENT = new ThreadContext<>();
+
+    private final long timeoutMillis;
+    private final long expiresAt;
+    private volatile boolean cancelled;
+
+    private Deadline(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    public static Deadline after(long timeoutMillis) {
+        return new Deadline(timeoutMillis);
+    }
+
+    /**
+     * @return the deadline of the current thread, or null if there is none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Checks the deadline of the current thread, if there is one
+     * @throws ComputationCancelledException if the deadline has passed, or it has been cancelled
+     */
+    public static void checkCurrent() {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null) {
+            deadline.check();
+        }
+    }
+
+    /**
+     * @return true if the deadline is not null, and it has passed or has been cancelled
+     */
+    public static boolean isExpired(Deadline deadline) {
+        return deadline != null && deadline.isExpired();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isExpired() {
+        return cancelled || System.nanoTime() - expiresAt >= 0;
+    }
+
+    /**
+     * @return the milliseconds until the deadline, 0 if it has passed
+     */
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime()));
+    }
+
+    public void check() {
+        if (cancelled) {
+            throw new ComputationCancelledException("The request was cancelled.");
+        }
+        if (System.nanoTime() - expiresAt >= 0) {
+            throw new ComputationCancelledException(String.format("The deadline of %d ms was exceeded.", timeoutMillis));
+        }
+    }
+
+    /**
+     * Calls the supplier with this as the deadline of the current thread
+     */
+    public <T> T call(Supplier<T> supplier) {
+        return CURRENT.call(this, supplier);
+    }
+
+    /**
+     * @return an executor which runs the tasks on the given executor, with this as the deadline of the thread
+     */
+    public Executor bind(Executor executor) {
+        return CURRENT.bind(this, executor);
+    }
+}
@@ -0,0 +1,139 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice;
+
+import dk.dma.nogoservice.dto.NoGoProfile;
+import dk.dma.nogoservice.dto.NoGoProfile.AreaProfile;
+import dk.dma.nogoservice.dto.NoGoResponse;
+import dk.dma.nogoservice.service.NoGoStage;
+
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Collects the performance breakdown of a single request. The stage metrics are recorded in the profile of the current thread, if there is one,
+ * so a request which is not profiled only pays for a thread local lookup per stage.
+ * <p>
+ * Like the {@link Deadline}, the profile is made current with {@link #call(Supplier)} and {@link #bind(Executor)}, so it follows the calculation
+ * across threads. The sections of a request may be calculated in parallel, so recording is synchronized.
+ */
+public final class RequestProfile {
+
+    private static final ThreadContext<RequestProfile> CURRENT = new ThreadContext<>();
+
+    private final NoGoProfile profile = new NoGoProfile();
+
+    public static RequestProfile start() {
+        return new RequestProfile();
+    }
+
+    /**
+     * @return the profile of the current thread, or null if the request is not profiled
+     */
+    public static RequestProfile current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Calls the supplier with the profile as the profile of the current thread, the profile may be null
+     */
+    public static <T> T call(RequestProfile profile, Supplier<T> supplier) {
+        return profile != null ? profile.call(supplier) : supplier.get();
+    }
+
+    /**
+     * Records a stage of the calculation. The stages without a field of their own are recorded in the stages of the area, by metric name.
+     * @param stage the stage
+     * @param tags the tags of the metric, the last tag is the area for the per area stages
+     * @param value the time in ms or the size
+     */
+    public synchronized void record(NoGoStage stage, String[] tags, long value) {
+        switch (stage) {
+            case MERGE:
+                profile.setMergeMillis(value);
+                return;
+            case REQUEST:
+            case SERIALIZATION:
+                // the tag is the response format, the total time is given to finish
+                return;
+            default:
+                break;
+        }
+        String name = tags[tags.length - 1];
+        switch (stage) {
+            case TIDAL:
+                area(name).setTidalMillis(value);
+                break;
+            case GRID:
+                area(name).setGridMillis(value);
+                break;
+            case CELLS:
+                area(name).setCells(value);
+                break;
+            case GROUPING:
+                area(name).setAlgorithm(tags[0]).setGroupingMillis(value);
+                break;
+            case GEO:
+                area(name).setGeoMillis(value);
+                break;
+            case POLYGONS:
+                area(name).setPolygons(value);
+                break;
+            case VERTICES:
+                area(name).setVertices(value);
+                break;
+            default:
+                area(name).getStages().put(stage.getMetricName(), value);
+                break;
+        }
+    }
+
+    private AreaProfile area(String name) {
+        for (AreaProfile area : profile.getAreas()) {
+            if (area.getName().equals(name)) {
+                return area;
+            }
+        }
+        AreaProfile area = new AreaProfile().setName(name);
+        profile.getAreas().add(area);
+        return area;
+    }
+
+    /**
+     * @return the breakdown, with the total time and the size of the merged response
+     */
+    public synchronized NoGoProfile finish(long totalMillis, NoGoResponse response) {
+        int vertices = response.getPolygons().stream().mapToInt(polygon -> polygon.getPoints().size()).sum();
+        return finish(totalMillis).setPolygons(response.getPolygons().size()).setVertices(vertices);
+    }
+
+    /**
+     * Completes the profile of a request without NoGo polygons, e.g. a route check
+     */
+    public synchronized NoGoProfile finish(long totalMillis) {
+        return profile.setTotalMillis(totalMillis);
+    }
+
+    public <T> T call(Supplier<T> supplier) {
+        return CURRENT.call(this, supplier);
+    }
+
+    /**
+     * @return an executor which runs the tasks on the given executor, with this as the profile of the thread
+     */
+    public Executor bind(Executor executor) {
+        return CURRENT.bind(this, executor);
+    }
+}
@@ -35,6 +35,19 @@ public class RequestUtils {
 
     }
 
+    /**
+     * Identifies the client making the request, the authenticated user if there is one, otherwise the remote address
+     * (when running behind a load balancer, server.use-forward-headers makes this the address of the client)
+     * @param request the request
+     * @return the client id
+     */
+    public static String getClientId(HttpServletRequest request) {
+        if (request.getUserPrincipal() != null) {
+            return request.getUserPrincipal().getName();
+        }
+        return request.getRemoteAddr();
+    }
+
     private static boolean usePort(HttpServletRequest request) {
         return ("https".equals(request.getScheme()) && request.getServerPort() != 443) ||
                 ("http".equals(request.getScheme()) && request.getServerPort() != 80);
@@ -0,0 +1,61 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice;
+
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * A value which is current for a thread while a calculation runs, and follows the calculation to the threads of an executor. Used for the
+ * {@link Deadline} and the {@link RequestProfile} of a request.
+ */
+final class ThreadContext<T> {
+
+    private final ThreadLocal<T> current = new ThreadLocal<>();
+
+    /**
+     * @return the value of the current thread, or null if there is none
+     */
+    T get() {
+        return current.get();
+    }
+
+    /**
+     * Calls the supplier with the value as the value of the current thread, the previous value is restored afterwards
+     */
+    <R> R call(T value, Supplier<R> supplier) {
+        T previous = current.get();
+        current.set(value);
+        try {
+            return supplier.get();
+        } finally {
+            if (previous != null) {
+                current.set(previous);
+            } else {
+                current.remove();
+            }
+        }
+    }
+
+    /**
+     * @return an executor which runs the tasks on the given executor, with the value as the value of the thread
+     */
+    Executor bind(T value, Executor executor) {
+        return task -> executor.execute(() -> call(value, () -> {
+            task.run();
+            return null;
+        }));
+    }
+}
@@ -15,6 +15,7 @@
 package dk.dma.nogoservice.algo;
 
 import com.vividsolutions.jts.geom.Geometry;
+import dk.dma.nogoservice.Deadline;
 import jankovicsandras.imagetracer.ImageTracer;
 import lombok.extern.slf4j.Slf4j;
 
@@ -59,6 +60,7 @@ public class VectorGraphicAreaGroupingAlgorithm<Value> implements AreaGroupingAl
 
         // fill the array. NoGo values use the first color in the pallet
         for (int y = 0; y < grid.size(); y++) {
+            Deadline.checkCurrent();
             List<Value> southKattegats = grid.get(y);
             for (int x = 0; x < southKattegats.size(); x++) {
                 Value southKattegat = southKattegats.get(x);
@@ -76,16 +78,20 @@ public class VectorGraphicAreaGroupingAlgorithm<Value> implements AreaGroupingAl
         ImageTracer.IndexedImage myimage = new ImageTracer.IndexedImage(arr, getPalette());
 
         int[][][] rawlayers = ImageTracer.layering(myimage);
+        Deadline.checkCurrent();
         // 3. Batch pathscan
         ArrayList<ArrayList<ArrayList<Integer[]>>> bps = ImageTracer.batchpathscan(rawlayers, 0);
         // 4. Batch interpollation
         ArrayList<ArrayList<ArrayList<Double[]>>> binternodes = new ArrayList<>();
+        Deadline.checkCurrent();
         for (int k = 0; k < bps.size(); k++) {
             binternodes.add(ImageTracer.internodes(bps.get(k)));
         }
 
         // 5. Batch tracing
+        Deadline.checkCurrent();
         myimage.layers = ImageTracer.batchtracelayers(binternodes, options.get("ltres"), options.get("qtres"));
+        Deadline.checkCurrent();
 
         if (log.isDebugEnabled()) {
             // remember the image looks flipped over the x-axis, because the grid has y=0 as the first row and y=1 as the next (down the array)
@@ -14,18 +14,43 @@
  */
 package dk.dma.nogoservice.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Stopwatch;
+import dk.dma.common.dto.JSonError;
+import dk.dma.common.exception.APIException;
+import dk.dma.nogoservice.ComputationCancelledException;
+import dk.dma.nogoservice.Deadline;
+import dk.dma.nogoservice.RequestProfile;
 import dk.dma.nogoservice.dto.*;
+import dk.dma.nogoservice.service.NoGoMetrics;
 import dk.dma.nogoservice.service.NoGoService;
+import dk.dma.nogoservice.service.NoGoStage;
 import io.swagger.annotations.ApiOperation;
+import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
+ * The NoGo endpoints are asynchronous, the request thread is released while the tidal information is loaded and the NoGo areas are calculated
+ * on the compute executor. The calculation is cancelled if it does not complete before the deadline. Servlet 3 async does not tell us when the
+ * client disconnects, so the calculation for a client that has gone runs until it completes or the deadline passes.
  * @author Klaus Groenbaek
  *         Created 12/03/17.
  */
@@ -33,31 +58,174 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class ApiController {
 
+    /**
+     * Header where the client can give the number of milliseconds it will wait for the response, if it is shorter than the configured deadline
+     */
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+    /**
+     * Request header that asks for a performance breakdown of the request, it is returned as JSON in the response header with the same name
+     */
+    public static final String PROFILE_HEADER = "X-NoGo-Profile";
+
     private final NoGoService noGoService;
+    private final ObjectMapper mapper;
+    private final Executor computeExecutor;
+    private final CounterService counterService;
+    private final NoGoMetrics metrics;
+    private final long deadlineMillis;
 
     @Autowired
-    public ApiController(NoGoService noGoService) {
+    public ApiController(NoGoService noGoService, ObjectMapper mapper, @Qualifier("computeExecutor") Executor computeExecutor, CounterService counterService,
+                         NoGoMetrics metrics, @Value("${nogo.deadline.millis:120000}") long deadlineMillis) {
         this.noGoService = noGoService;
+        this.mapper = mapper;
+        this.computeExecutor = computeExecutor;
+        this.counterService = counterService;
+        this.metrics = metrics;
+        this.deadlineMillis = deadlineMillis;
     }
 
     @PostMapping(value = "/area")
-    @ApiOperation(value = "Get NoGo area", notes = "Returns structured data for all the NoGo polygons. If time is included the tidal information will be included in the NoGo calculation.")
-    public NoGoResponse getNoGoAreas(@Valid @RequestBody NoGoRequest request) {
-        Stopwatch timer = Stopwatch.createStarted();
-        NoGoResponse noGoAreas = noGoService.getNoGoAreas(request);
-        log.info("NoGo request processed in {} ms", timer.stop().elapsed(TimeUnit.MILLISECONDS));
-        return noGoAreas;
+    @ApiOperation(value = "Get NoGo area", notes = "Returns structured data for all the NoGo polygons. If time is included the tidal information will be included in the NoGo calculation. " +
+            "If endTime is also included, the NoGo areas are for the lowest sea level between time and endTime.")
+    public DeferredResult<ResponseEntity<NoGoResponse>> getNoGoAreas(@Valid @RequestBody NoGoRequest request,
+                                                                     @RequestHeader(value = TIMEOUT_HEADER, required = false) Long timeout,
+                                                                     @RequestHeader(value = PROFILE_HEADER, defaultValue = "false") boolean profile) {
+        return calculate(executor -> noGoService.getNoGoAreasAsync(request, executor), timeout, profile, "json", ResponseEntity::ok);
+    }
 
+    @PostMapping(value = "/route")
+    @ApiOperation(value = "Get NoGo area along a route", notes = "Returns structured data for the NoGo polygons in a corridor along the route, the route is the centre " +
+            "line of the corridor and the width is in meters. Time and endTime are used like for /area.")
+    public DeferredResult<ResponseEntity<NoGoResponse>> getRouteNoGoAreas(@Valid @RequestBody NoGoRouteRequest request,
+                                                                          @RequestHeader(value = TIMEOUT_HEADER, required = false) Long timeout,
+                                                                          @RequestHeader(value = PROFILE_HEADER, defaultValue = "false") boolean profile) {
+        return calculate(executor -> noGoService.getNoGoAreasAsync(request, executor), timeout, profile, "route", ResponseEntity::ok);
     }
 
     @PostMapping(value = "/area/wkt")
     @ApiOperation(value = "Get NoGo area as WKT", notes = "Returns a single MultiPolygon with all the nogo areas. If time is included the tidal information will be included in the NoGo calculation.")
-    public MultiPolygon getNoGoAreasAsWKT(@Valid @RequestBody NoGoRequest request) {
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> getNoGoAreasAsWKT(@Valid @RequestBody NoGoRequest request,
+                                                                                   @RequestHeader(value = TIMEOUT_HEADER, required = false) Long timeout,
+                                                                                   @RequestHeader(value = PROFILE_HEADER, defaultValue = "false") boolean profile) {
+        return calculate(executor -> noGoService.getNoGoAreasAsync(request, executor), timeout, profile, "wkt", nogo -> timed(MultiPolygonResponses.json(nogo, mapper), "wkt"));
+    }
+
+    @PostMapping(value = "/area/wkt", produces = MultiPolygonResponses.WKT_VALUE)
+    @ApiOperation(value = "Get NoGo area as plain WKT", notes = "Returns a single MultiPolygon with all the nogo areas as plain text. Warnings are returned in the HTTP Warning header.")
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> getNoGoAreasAsPlainWKT(@Valid @RequestBody NoGoRequest request,
+                                                                                        @RequestHeader(value = TIMEOUT_HEADER, required = false) Long timeout,
+                                                                                        @RequestHeader(value = PROFILE_HEADER, defaultValue = "false") boolean profile) {
+        return calculate(executor -> noGoService.getNoGoAreasAsync(request, executor), timeout, profile, "plainwkt", nogo -> timed(MultiPolygonResponses.wkt(nogo), "plainwkt"));
+    }
+
+    @PostMapping(value = "/area/wkt", produces = MultiPolygonResponses.WKB_VALUE)
+    @ApiOperation(value = "Get NoGo area as WKB", notes = "Returns a single MultiPolygon with all the nogo areas as Well Known Binary. Warnings are returned in the HTTP Warning header.")
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> getNoGoAreasAsWKB(@Valid @RequestBody NoGoRequest request,
+                                                                                   @RequestHeader(value = TIMEOUT_HEADER, required = false) Long timeout,
+                                                                                   @RequestHeader(value = PROFILE_HEADER, defaultValue = "false") boolean profile) {
+        return calculate(executor -> noGoService.getNoGoAreasAsync(request, executor), timeout, profile, "wkb", nogo -> timed(MultiPolygonResponses.wkb(nogo), "wkb"));
+    }
+
+    @PostMapping(value = "/route/check")
+    @ApiOperation(value = "Check a route", notes = "Checks if the route is safe for the draught, and returns the parts of the legs which cross NoGo depth points. " +
+            "No NoGo polygons are calculated, so it is much faster than /route. Time and endTime are used like for /area.")
+    public DeferredResult<ResponseEntity<RouteCheckResponse>> checkRoute(@Valid @RequestBody RouteCheckRequest request,
+                                                                         @RequestHeader(value = TIMEOUT_HEADER, required = false) Long timeout,
+                                                                         @RequestHeader(value = PROFILE_HEADER, defaultValue = "false") boolean profile) {
+        return calculate(executor -> noGoService.checkRouteAsync(request, executor), timeout, profile, "routeCheck", ResponseEntity::ok,
+                (requestProfile, millis, check) -> requestProfile.finish(millis));
+    }
+
+    /**
+     * Calculates the NoGo areas, see {@link #calculate(Function, Long, boolean, String, Function, Profiler)}
+     */
+    private <T> DeferredResult<ResponseEntity<T>> calculate(Function<Executor, CompletableFuture<NoGoResponse>> calculation, Long timeout, boolean profiled,
+                                                            String format, Function<NoGoResponse, ResponseEntity<T>> converter) {
+        return calculate(calculation, timeout, profiled, format, converter, RequestProfile::finish);
+    }
+
+    /**
+     * Calculates the result on the compute executor, with a deadline which is the configured deadline, or the client timeout if it is shorter.
+     * The calculation is cancelled when the deadline passes. It is also cancelled if the container completes the request without a result, e.g.
+     * after an async error, and the abandoned calculation is counted in the metric nogo.abandoned. A client disconnect is not reported before the
+     * async timeout, which is the deadline. The time until the response is ready is recorded in timer.nogo.request.[format].
+     * <p>
+     * If the request is profiled the stages are recorded in a {@link RequestProfile} which follows the calculation like the deadline.
+     */
+    private <R, T> DeferredResult<ResponseEntity<T>> calculate(Function<Executor, CompletableFuture<R>> calculation, Long timeout, boolean profiled,
+                                                               String format, Function<R, ResponseEntity<T>> converter, Profiler<R> profiler) {
+        long millis = timeout != null && timeout > 0 ? Math.min(timeout, deadlineMillis) : deadlineMillis;
+        Deadline deadline = Deadline.after(millis);
+        RequestProfile profile = profiled ? RequestProfile.start() : null;
+        DeferredResult<ResponseEntity<T>> result = new DeferredResult<>(millis);
         Stopwatch timer = Stopwatch.createStarted();
-        NoGoResponse nogo = noGoService.getNoGoAreas(request);
-        log.info("NoGo (wkt) request processed in {} ms", timer.stop().elapsed(TimeUnit.MILLISECONDS));
-        return nogo.toMultiPolygon();
 
+        Executor executor = profile != null ? profile.bind(deadline.bind(computeExecutor)) : deadline.bind(computeExecutor);
+        CompletableFuture<R> future = deadline.call(() -> RequestProfile.call(profile, () -> calculation.apply(executor)));
+        future.whenComplete((calculated, e) -> {
+            if (e == null) {
+                metrics.time(timer, NoGoStage.REQUEST, format);
+                ResponseEntity<T> response = converter.apply(calculated);
+                result.setResult(profile != null ? withProfile(response, profiler.finish(profile, timer.elapsed(TimeUnit.MILLISECONDS), calculated)) : response);
+            } else {
+                result.setErrorResult(e instanceof CompletionException ? e.getCause() : e);
+            }
+        });
+        result.onTimeout(() -> {
+            deadline.cancel();
+            result.setErrorResult(new ComputationCancelledException(String.format("The deadline of %d ms was exceeded.", millis)));
+        });
+        // the container completed the request without a result, the client will never see the calculation
+        result.onCompletion(() -> {
+            if (!future.isDone()) {
+                deadline.cancel();
+                counterService.increment("nogo.abandoned");
+                log.info("NoGo ({}) request abandoned after {} ms", format, timer.elapsed(TimeUnit.MILLISECONDS));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Completes the profile of a request with its result
+     */
+    private interface Profiler<R> {
+        NoGoProfile finish(RequestProfile profile, long totalMillis, R result);
+    }
+
+    @SneakyThrows(JsonProcessingException.class)
+    private <T> ResponseEntity<T> withProfile(ResponseEntity<T> response, NoGoProfile profile) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(response.getHeaders());
+        headers.set(PROFILE_HEADER, mapper.writeValueAsString(profile));
+        return new ResponseEntity<>(response.getBody(), headers, response.getStatusCode());
+    }
+
+    /**
+     * The streamed formats are written after the request method returns, so the serialization is timed when the body is written
+     */
+    private ResponseEntity<StreamingResponseBody> timed(ResponseEntity<StreamingResponseBody> response, String format) {
+        StreamingResponseBody body = response.getBody();
+        StreamingResponseBody timed = out -> {
+            Stopwatch serialization = Stopwatch.createStarted();
+            body.writeTo(out);
+            metrics.time(serialization, NoGoStage.SERIALIZATION, format);
+        };
+        return new ResponseEntity<>(timed, response.getHeaders(), response.getStatusCode());
+    }
+
+    @ExceptionHandler(ComputationCancelledException.class)
+    public ResponseEntity<JSonError> cancelled(ComputationCancelledException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.toJsonError());
+    }
+
+    /**
+     * Errors in the request, e.g. a route outside the areas, which are reported when the async calculation fails
+     */
+    @ExceptionHandler(APIException.class)
+    public ResponseEntity<JSonError> apiError(APIException e) {
+        return ResponseEntity.status(HttpStatus.valueOf(e.getError().getHttpCode())).body(e.toJsonError());
     }
 
     @GetMapping("/info")
@@ -0,0 +1,88 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dma.common.dto.JSonWarning;
+import dk.dma.nogoservice.dto.MultiPolygonWriter;
+import dk.dma.nogoservice.dto.NoGoResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Creates streaming responses for the MultiPolygon (WKT) endpoints. The MultiPolygon is written directly to the response stream, instead of
+ * first building the WKT String and then have Jackson wrap it in JSON.
+ * <ul>
+ *     <li>application/json, the MultiPolygon DTO {"wkt": "...", "warning": {..}}</li>
+ *     <li>text/plain, the raw WKT, a warning is returned in the HTTP Warning header</li>
+ *     <li>application/wkb, OGC Well Known Binary (big endian), a warning is returned in the HTTP Warning header</li>
+ * </ul>
+ */
+public final class MultiPolygonResponses {
+
+    public static final String WKT_VALUE = MediaType.TEXT_PLAIN_VALUE;
+    public static final String WKB_VALUE = "application/wkb";
+    public static final MediaType WKB = MediaType.valueOf(WKB_VALUE);
+
+    /**
+     * The JSON version of the MultiPolygon. WKT only contains letters, digits, spaces, commas, dots and parentheses, so it can be written into the
+     * JSON string without escaping.
+     */
+    static ResponseEntity<StreamingResponseBody> json(NoGoResponse response, ObjectMapper mapper) {
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write("{\"wkt\":\"");
+            MultiPolygonWriter.writeWKT(response.getPolygons(), writer);
+            writer.write("\",\"warning\":");
+            writer.write(mapper.writeValueAsString(response.getWarning()));
+            writer.write('}');
+            writer.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(body);
+    }
+
+    static ResponseEntity<StreamingResponseBody> wkt(NoGoResponse response) {
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            MultiPolygonWriter.writeWKT(response.getPolygons(), writer);
+            writer.flush();
+        };
+        return withWarning(ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN), response.getWarning()).body(body);
+    }
+
+    static ResponseEntity<StreamingResponseBody> wkb(NoGoResponse response) {
+        StreamingResponseBody body = out -> MultiPolygonWriter.writeWKB(response.getPolygons(), out);
+        return withWarning(ResponseEntity.ok().contentType(WKB), response.getWarning()).body(body);
+    }
+
+    /**
+     * Formats the warning as a RFC 7234 warning header, "199 nogo "message"", since the non-JSON formats has nowhere else to put it
+     */
+    private static ResponseEntity.BodyBuilder withWarning(ResponseEntity.BodyBuilder builder, JSonWarning warning) {
+        if (warning != null) {
+            String text = warning.getId() + " " + warning.getMessage() + (warning.getDetails() != null ? " " + warning.getDetails() : "");
+            builder.header(HttpHeaders.WARNING, "199 nogo \"" + text.replace("\"", "'").replace('\n', ' ') + "\"");
+        }
+        return builder;
+    }
+
+    private MultiPolygonResponses() {
+    }
+}
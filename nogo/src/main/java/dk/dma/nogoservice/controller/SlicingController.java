@@ -14,22 +14,31 @@
  */
 package dk.dma.nogoservice.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import dk.dma.common.dto.JSonError;
 import dk.dma.nogoservice.RequestUtils;
 import dk.dma.nogoservice.dto.*;
 import dk.dma.nogoservice.service.ResourceProcessingResult;
 import dk.dma.nogoservice.service.ResourceState;
+import dk.dma.nogoservice.service.SchedulerSaturatedException;
+import dk.dma.nogoservice.service.SliceListener;
 import dk.dma.nogoservice.service.SlicingService;
 import io.swagger.annotations.ApiOperation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Controller for the slicing
@@ -40,17 +49,24 @@ import javax.validation.Valid;
 @RequestMapping("/slices/")
 public class SlicingController {
 
+    /**
+     * The streams are kept as long as the slice resources
+     */
+    private static final long STREAM_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
     private final SlicingService service;
+    private final ObjectMapper mapper;
 
     @Autowired
-    public SlicingController(SlicingService service) {
+    public SlicingController(SlicingService service, ObjectMapper mapper) {
         this.service = service;
+        this.mapper = mapper;
     }
 
     @PostMapping(value = "area/wkt")
     @ApiOperation(value = "Get NoGo area as WKT, sliced over time", notes = "Returns a list of resource URLs where you can get the result for each slice.")
     public NoGoSliceResponse slicesWkt(@Valid @RequestBody NoGoSliceRequest request) {
-        NoGoSliceResponse response = service.request(request);
+        NoGoSliceResponse response = service.request(request, clientId());
         configureURL(response, true);
         return response;
     }
@@ -58,7 +74,7 @@ public class SlicingController {
     @PostMapping(value = "area/")
     @ApiOperation(value = "Get NoGo area as json, sliced over time", notes = "Returns a list of resource URLs where you can get the result for each slice.")
     public NoGoSliceResponse slices(@Valid @RequestBody NoGoSliceRequest request) {
-        NoGoSliceResponse response = service.request(request);
+        NoGoSliceResponse response = service.request(request, clientId());
         configureURL(response, false);
         return response;
     }
@@ -66,13 +82,56 @@ public class SlicingController {
     @GetMapping(value = "resource/wkt/{id}")
     @ApiOperation(value = "Get a slice resource", notes = "URLs for this endpoint is automatically generated by the server, and included in the slice response.")
     public ResponseEntity<?> responseWkt(@PathVariable("id") String id) {
-        return getResponse(id, NoGoResponse::toMultiPolygon);
+        return getResponse(id, response -> MultiPolygonResponses.json(response, mapper));
+    }
+
+    @GetMapping(value = "resource/wkt/{id}", produces = MultiPolygonResponses.WKT_VALUE)
+    @ApiOperation(value = "Get a slice resource as plain WKT", notes = "Warnings are returned in the HTTP Warning header.")
+    public ResponseEntity<?> responsePlainWkt(@PathVariable("id") String id) {
+        return getResponse(id, MultiPolygonResponses::wkt);
+    }
+
+    @GetMapping(value = "resource/wkt/{id}", produces = MultiPolygonResponses.WKB_VALUE)
+    @ApiOperation(value = "Get a slice resource as WKB", notes = "Warnings are returned in the HTTP Warning header.")
+    public ResponseEntity<?> responseWkb(@PathVariable("id") String id) {
+        return getResponse(id, MultiPolygonResponses::wkb);
     }
 
     @GetMapping(value = "resource/{id}")
     @ApiOperation(value = "Get a slice resource", notes = "URLs for this endpoint is automatically generated by the server, and included in the slice response.")
     public ResponseEntity<?> response(@PathVariable("id") String id) {
-        return getResponse(id, response -> response);
+        return getResponse(id, response -> new ResponseEntity<>(response, HttpStatus.OK));
+    }
+
+    @GetMapping(value = "stream/{id}")
+    @ApiOperation(value = "Stream the slice results", notes = "Server-sent events stream, URLs for this endpoint is automatically generated by the server, and " +
+            "included in the slice response. Each slice is pushed in slice order as soon as it is calculated, as a 'slice' event with the NoGo response or a " +
+            "'failed' event with the error. The event id is the slice index. The stream is closed after the last slice. When reconnecting with a Last-Event-ID " +
+            "header the stream continues after that slice, and 204 is returned if there are no more slices.")
+    public SseEmitter stream(@PathVariable("id") String id, @RequestHeader(value = "Last-Event-ID", required = false) Integer lastEventId,
+                             HttpServletResponse response) {
+        return createStream(id, lastEventId, response, nogo -> nogo);
+    }
+
+    @GetMapping(value = "stream/wkt/{id}")
+    @ApiOperation(value = "Stream the slice results as WKT", notes = "Same as the slice stream, but each slice is pushed as a MultiPolygon.")
+    public SseEmitter streamWkt(@PathVariable("id") String id, @RequestHeader(value = "Last-Event-ID", required = false) Integer lastEventId,
+                                HttpServletResponse response) {
+        return createStream(id, lastEventId, response, NoGoResponse::toMultiPolygon);
+    }
+
+    /**
+     * When the scheduler is saturated, we tell the client when to retry
+     */
+    @ExceptionHandler(SchedulerSaturatedException.class)
+    public ResponseEntity<JSonError> saturated(SchedulerSaturatedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(e.toJsonError());
+    }
+
+    private String clientId() {
+        ServletRequestAttributes sra = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
+        return RequestUtils.getClientId(sra.getRequest());
     }
 
     /**
@@ -85,9 +144,57 @@ public class SlicingController {
         for (SliceResource resource : response.getSlices()) {
             resource.setResourceURL( baseURL + resource.getResourceURL());
         }
+        response.setStreamURL(RequestUtils.getContextURL(req) + "/slices/stream/" + (wkt ? "wkt/" : "") + response.getStreamURL());
+    }
+
+    /**
+     * Subscribes an emitter to the slice stream. Slices may be sent before the emitter is returned, Spring buffers them until the response is ready.
+     * If there is nothing to stream, the status is set and null is returned, so Spring writes an empty response.
+     */
+    private SseEmitter createStream(String id, Integer lastEventId, HttpServletResponse response, Function<NoGoResponse, Object> converter) {
+        int fromSlice = lastEventId != null ? lastEventId + 1 : 0;
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT);
+        SliceListener listener = sender(emitter, converter);
+        int slices = service.subscribe(id, fromSlice, listener);
+        if (slices < 0) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return null;
+        }
+        if (fromSlice >= slices) {
+            // 204 tells an EventSource to stop reconnecting
+            service.unsubscribe(id, listener);
+            response.setStatus(HttpStatus.NO_CONTENT.value());
+            return null;
+        }
+        emitter.onCompletion(() -> service.unsubscribe(id, listener));
+        emitter.onTimeout(() -> service.unsubscribe(id, listener));
+        return emitter;
+    }
+
+    /**
+     * Creates the listener which sends the slices to the emitter. If a slice can't be sent, e.g. because the client has disconnected, the emitter
+     * is completed with the error, and the exception is thrown on, so the listener is removed.
+     */
+    static SliceListener sender(SseEmitter emitter, Function<NoGoResponse, Object> converter) {
+        return (slice, result, last) -> {
+            SseEmitter.SseEventBuilder event = SseEmitter.event().id(String.valueOf(slice));
+            try {
+                if (result.getState() == ResourceState.Failed) {
+                    emitter.send(event.name("failed").data(result.getException().toJsonError()));
+                } else {
+                    emitter.send(event.name("slice").data(converter.apply(result.getResponse())));
+                }
+            } catch (IOException e) {
+                emitter.completeWithError(e);
+                throw e;
+            }
+            if (last) {
+                emitter.complete();
+            }
+        };
     }
 
-    private <T> ResponseEntity<?> getResponse(String id, Converter<T> converter) {
+    private ResponseEntity<?> getResponse(String id, Converter converter) {
         ResourceProcessingResult resourceProcessingResult = service.getStateAndData(id);
         if (resourceProcessingResult == null) {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
@@ -101,14 +208,12 @@ public class SlicingController {
             return new ResponseEntity<>(jSonError,HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-        NoGoResponse response = resourceProcessingResult.getResponse();
-        T value = converter.convert(response);
-        return new ResponseEntity<>(value, HttpStatus.OK);
+        return converter.convert(resourceProcessingResult.getResponse());
     }
 
     @FunctionalInterface
-    private interface Converter<T> {
-        T convert(NoGoResponse response);
+    private interface Converter {
+        ResponseEntity<?> convert(NoGoResponse response);
     }
 
 }
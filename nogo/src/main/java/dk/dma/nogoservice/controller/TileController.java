@@ -0,0 +1,71 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.controller;
+
+import com.google.common.base.Stopwatch;
+import dk.dma.common.exception.APIException;
+import dk.dma.nogoservice.service.VectorTileService;
+import io.swagger.annotations.ApiOperation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * XYZ tile endpoint, which returns the NoGo areas as Mapbox Vector Tiles, so they can be shown directly as a layer in a web map.
+ */
+@RestController
+@Slf4j
+public class TileController {
+
+    public static final String MVT_VALUE = "application/vnd.mapbox-vector-tile";
+    private static final MediaType MVT = MediaType.valueOf(MVT_VALUE);
+
+    private final VectorTileService tileService;
+
+    @Autowired
+    public TileController(VectorTileService tileService) {
+        this.tileService = tileService;
+    }
+
+    @GetMapping("/tiles/{z}/{x}/{y}.mvt")
+    @ApiOperation(value = "Get NoGo tile", notes = "Returns the NoGo areas in the tile as a Mapbox Vector Tile with a single layer 'nogo'. If time is included the tidal " +
+            "information will be included in the NoGo calculation. Returns 204 if there are no NoGo areas in the tile.")
+    public ResponseEntity<?> getTile(@PathVariable("z") int z, @PathVariable("x") int x, @PathVariable("y") int y,
+                                     @RequestParam("draught") double draught,
+                                     @RequestParam(value = "time", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant time) {
+        Stopwatch timer = Stopwatch.createStarted();
+        byte[] tile;
+        try {
+            tile = tileService.getTile(z, x, y, draught, time);
+        } catch (APIException e) {
+            return new ResponseEntity<>(e.toJsonError(), HttpStatus.valueOf(e.getError().getHttpCode()));
+        }
+        log.debug("Tile {}/{}/{} processed in {} ms", z, x, y, timer.stop().elapsed(TimeUnit.MILLISECONDS));
+
+        CacheControl cacheControl = CacheControl.maxAge(1, TimeUnit.HOURS).cachePrivate();
+        if (tile.length == 0) {
+            return ResponseEntity.noContent().cacheControl(cacheControl).build();
+        }
+        return ResponseEntity.ok().contentType(MVT).cacheControl(cacheControl).body(tile);
+    }
+}
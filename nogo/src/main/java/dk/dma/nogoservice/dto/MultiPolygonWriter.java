@@ -0,0 +1,158 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.dto;
+
+import dk.dma.common.dto.GeoCoordinate;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Writes a list of NoGo polygons as a single MultiPolygon, either as WKT or as WKB. The output is written directly to the writer/stream, so
+ * the geometry is never held in memory as a String.
+ * Coordinates are written with a fixed number of decimals (trailing zeros are dropped), so we never get the scientific notation that Double.toString()
+ * produces for small values.
+ */
+public final class MultiPolygonWriter {
+
+    public static final int DECIMALS = 6;
+    private static final long SCALE = 1_000_000L;
+
+    private static final byte WKB_BIG_ENDIAN = 0;
+    private static final int WKB_POLYGON = 3;
+    private static final int WKB_MULTI_POLYGON = 6;
+
+    /**
+     * Writes the polygons as a WKT MULTIPOLYGON
+     * @param polygons the polygons, each polygon is a single closed ring
+     * @param writer the destination, the writer is not flushed or closed
+     */
+    public static void writeWKT(List<NoGoPolygon> polygons, Writer writer) throws IOException {
+        if (polygons.isEmpty()) {
+            writer.write("MULTIPOLYGON EMPTY");
+            return;
+        }
+        char[] buffer = new char[24];
+        writer.write("MULTIPOLYGON (");
+        for (int i = 0; i < polygons.size(); i++) {
+            if (i != 0) {
+                writer.write(',');
+            }
+            writeRing(polygons.get(i).getPoints(), writer, buffer);
+        }
+        writer.write(')');
+    }
+
+    public static String toWKT(List<NoGoPolygon> polygons) {
+        StringWriter writer = new StringWriter();
+        try {
+            writeWKT(polygons, writer);
+        } catch (IOException e) {
+            throw new IllegalStateException("StringWriter does not throw IOException", e);
+        }
+        return writer.toString();
+    }
+
+    static String toWKT(NoGoPolygon polygon) {
+        StringWriter writer = new StringWriter();
+        try {
+            writer.write("POLYGON ");
+            writeRing(polygon.getPoints(), writer, new char[24]);
+        } catch (IOException e) {
+            throw new IllegalStateException("StringWriter does not throw IOException", e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes the polygons as an OGC WKB MultiPolygon (big endian). Coordinates are rounded to the same precision as the WKT output.
+     * @param polygons the polygons, each polygon is a single closed ring
+     * @param out the destination, the stream is flushed but not closed
+     */
+    public static void writeWKB(List<NoGoPolygon> polygons, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeByte(WKB_BIG_ENDIAN);
+        data.writeInt(WKB_MULTI_POLYGON);
+        data.writeInt(polygons.size());
+        for (NoGoPolygon polygon : polygons) {
+            List<GeoCoordinate> points = polygon.getPoints();
+            data.writeByte(WKB_BIG_ENDIAN);
+            data.writeInt(WKB_POLYGON);
+            data.writeInt(1);   // nogo polygons never have holes
+            data.writeInt(points.size());
+            for (GeoCoordinate point : points) {
+                data.writeDouble(round(point.getLon()));
+                data.writeDouble(round(point.getLat()));
+            }
+        }
+        data.flush();
+    }
+
+    private static void writeRing(List<GeoCoordinate> points, Writer writer, char[] buffer) throws IOException {
+        writer.write("((");
+        for (int i = 0; i < points.size(); i++) {
+            if (i != 0) {
+                writer.write(", ");
+            }
+            GeoCoordinate point = points.get(i);
+            writeNumber(point.getLon(), writer, buffer);
+            writer.write(' ');
+            writeNumber(point.getLat(), writer, buffer);
+        }
+        writer.write("))");
+    }
+
+    /**
+     * Writes the number with DECIMALS decimals, without going through a String. Digits are written right to left into the buffer.
+     */
+    private static void writeNumber(double value, Writer writer, char[] buffer) throws IOException {
+        long scaled = Math.round(value * SCALE);
+        boolean negative = scaled < 0;
+        if (negative) {
+            scaled = -scaled;
+        }
+        long integer = scaled / SCALE;
+        long fraction = scaled % SCALE;
+
+        int pos = buffer.length;
+        if (fraction != 0) {
+            int digits = DECIMALS;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            for (int i = 0; i < digits; i++) {
+                buffer[--pos] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            buffer[--pos] = '.';
+        }
+        do {
+            buffer[--pos] = (char) ('0' + integer % 10);
+            integer /= 10;
+        } while (integer != 0);
+        if (negative) {
+            buffer[--pos] = '-';
+        }
+        writer.write(buffer, pos, buffer.length - pos);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * SCALE) / (double) SCALE;
+    }
+
+    private MultiPolygonWriter() {
+    }
+}
@@ -19,7 +19,6 @@ import lombok.Data;
 import lombok.experimental.Accessors;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * @author Klaus Groenbaek
@@ -31,6 +30,6 @@ public class NoGoPolygon {
     private List<GeoCoordinate> points;
 
     public String toWKT() {
-        return "POLYGON ((" + getPoints().stream().map(GeoCoordinate::toWKT).collect(Collectors.joining(", ")) + "))";
+        return MultiPolygonWriter.toWKT(this);
     }
 }
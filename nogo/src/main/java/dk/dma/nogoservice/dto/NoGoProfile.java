@@ -0,0 +1,60 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Performance breakdown of a single NoGo request, returned when the client asks for it with the X-NoGo-Profile header.
+ */
+@Data
+@Accessors(chain = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class NoGoProfile {
+
+    private Long totalMillis;
+    private Long mergeMillis;
+    private Integer polygons;
+    private Integer vertices;
+    private List<AreaProfile> areas = new ArrayList<>();
+
+    /**
+     * The stages of the calculation for one of the matched areas. Stages that did not run are null, e.g. the tidal fetch if the request has no time.
+     * The stages which are only used by some requests, e.g. the corridor of a route, are in stages by metric name.
+     */
+    @Data
+    @Accessors(chain = true)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class AreaProfile {
+        private String name;
+        private String algorithm;
+        private Long tidalMillis;
+        private Long gridMillis;
+        private Long cells;
+        private Long groupingMillis;
+        private Long geoMillis;
+        private Long polygons;
+        private Long vertices;
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        private Map<String, Long> stages = new LinkedHashMap<>();
+    }
+}
@@ -5,7 +5,9 @@ import lombok.Data;
 import lombok.experimental.Accessors;
 
 import javax.validation.Valid;
+import javax.validation.constraints.AssertTrue;
 import javax.validation.constraints.NotNull;
+import java.time.Duration;
 import java.time.Instant;
 
 @Data
@@ -25,6 +27,23 @@ public class NoGoRequest {
      * Optional, when included we must include tidal information
      */
     private Instant time;
+    /**
+     * Optional, the end of a time window starting at time. The NoGo areas are calculated for the lowest sea level in the window,
+     * so they are NoGo for the whole window.
+     */
+    private Instant endTime;
+
+    /**
+     * @return true if there is no time window, or it is a valid window of at most 24 hours
+     */
+    @AssertTrue(message = "endTime requires a time, must not be before it, and the time window can be at most 24 hours.")
+    public boolean isValidTimeWindow() {
+        return isValidTimeWindow(time, endTime);
+    }
+
+    static boolean isValidTimeWindow(Instant time, Instant endTime) {
+        return endTime == null || (time != null && !endTime.isBefore(time) && Duration.between(time, endTime).compareTo(Duration.ofHours(24)) <= 0);
+    }
 
     public String toWKT() {
         return "POLYGON((" + northWest.toWKT() + ", " + southEast.getLon() + " " + northWest.getLat() + ", " +
@@ -19,7 +19,6 @@ import lombok.Data;
 import lombok.experimental.Accessors;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * @author Klaus Groenbaek
@@ -32,7 +31,6 @@ public class NoGoResponse {
     private JSonWarning warning;
 
     public MultiPolygon toMultiPolygon() {
-        String wkt = "MULTIPOLYGON (" + getPolygons().stream().map(p->p.toWKT().replace("POLYGON ", "")).collect(Collectors.joining(",")) + ")";
-        return new MultiPolygon().setWkt(wkt).setWarning(getWarning());
+        return new MultiPolygon().setWkt(MultiPolygonWriter.toWKT(getPolygons())).setWarning(getWarning());
     }
 }
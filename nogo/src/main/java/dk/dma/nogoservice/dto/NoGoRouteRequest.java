@@ -0,0 +1,70 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.dto;
+
+import dk.dma.common.dto.GeoCoordinate;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import javax.validation.Valid;
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Request for the NoGo areas in a corridor along a planned route, instead of the bounding box of the route
+ */
+@Data
+@Accessors(chain = true)
+public class NoGoRouteRequest {
+
+    /**
+     * The waypoints of the route, the route is the centre line of the corridor
+     */
+    @NotNull
+    @Size(message = "The route must have at least 2 waypoints.", min = 2)
+    @Valid
+    private List<GeoCoordinate> route;
+    /**
+     * The width of the corridor in meters
+     */
+    @NotNull
+    @DecimalMin(message = "The corridor width must be between 1-100000 (meters).", value = "1")
+    @DecimalMax(message = "The corridor width must be between 1-100000 (meters).", value = "100000")
+    private Double corridorWidth;
+    @NotNull
+    @Valid
+    private Double draught;
+    /**
+     * Optional, when included we must include tidal information
+     */
+    private Instant time;
+    /**
+     * Optional, the end of a time window starting at time, see {@link NoGoRequest#getEndTime()}
+     */
+    private Instant endTime;
+
+    /**
+     * @return true if there is no time window, or it is a valid window of at most 24 hours
+     */
+    @AssertTrue(message = "endTime requires a time, must not be before it, and the time window can be at most 24 hours.")
+    public boolean isValidTimeWindow() {
+        return NoGoRequest.isValidTimeWindow(time, endTime);
+    }
+}
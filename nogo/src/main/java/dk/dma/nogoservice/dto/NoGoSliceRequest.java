@@ -37,6 +37,12 @@ public class NoGoSliceRequest {
     @Max(message = "The interval between slices must be 1-5 (hours).", value = 5)
     private Integer interval = 1;
 
+    /**
+     * Optional, when true each slice is calculated from the cells that changed since the previous slice, instead of tracing the entire area.
+     * The slices are then calculated one after the other.
+     */
+    private boolean incremental;
+
     public String toWKT() {
         return "POLYGON((" + northWest.toWKT() + ", " + southEast.getLon() + " " + northWest.getLat() + ", " +
                 southEast.toWKT() + ", " + northWest.getLon() + " " + southEast.getLat() + ", " + northWest.toWKT() + "))";
@@ -28,5 +28,9 @@ import java.util.List;
 public class NoGoSliceResponse {
 
     private List<SliceResource> slices;
+    /**
+     * Server-sent events stream, which pushes the result of each slice in slice order as soon as it is calculated
+     */
+    private String streamURL;
 
 }
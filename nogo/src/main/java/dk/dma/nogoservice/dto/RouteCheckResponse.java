@@ -0,0 +1,35 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.dto;
+
+import dk.dma.common.dto.JSonWarning;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.List;
+
+@Data
+@Accessors(chain = true)
+public class RouteCheckResponse {
+    /**
+     * true if no part of the route crosses NoGo depth points
+     */
+    private boolean safe;
+    /**
+     * the parts of the route crossing NoGo depth points, in the order of the route
+     */
+    private List<RouteViolation> violations;
+    private JSonWarning warning;
+}
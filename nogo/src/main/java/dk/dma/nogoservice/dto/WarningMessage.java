@@ -25,7 +25,9 @@ import lombok.Getter;
 @Getter
 public enum  WarningMessage {
 
-    MISSING_TIDAL_INFO(70000, "Weather service was unable to provide tidal information.")
+    MISSING_TIDAL_INFO(70000, "Weather service was unable to provide tidal information."),
+    STALE_TIDAL_INFO(70001, "Weather service is unavailable, the tidal information is from an earlier forecast."),
+    ROUTE_NOT_COVERED(70002, "Part of the route is outside the areas with depth data, and was not checked.")
             ;
     private final int id;
     private final String message;
@@ -0,0 +1,40 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * An immutable depth point in a grid, so a grid can be shared between threads.
+ * When the depth is NULL the point is over land
+ */
+@Getter
+@AllArgsConstructor
+public final class DepthPoint implements GeoCoordinateProvider {
+
+    private final double lat;
+    private final double lon;
+    private final Double depth;
+    /**
+     * the column of the point in its depth grid
+     */
+    private final int x;
+    /**
+     * the row of the point in its depth grid
+     */
+    private final int y;
+
+}
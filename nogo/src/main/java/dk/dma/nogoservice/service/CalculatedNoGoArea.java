@@ -38,6 +38,17 @@ class CalculatedNoGoArea {
     private List<Geometry> nogoAreas;
     private JSonWarning warning;
 
+    /**
+     * A copy which shares the geometries, so the area can be set without affecting the original. The geometries are never modified.
+     */
+    CalculatedNoGoArea copy() {
+        CalculatedNoGoArea copy = new CalculatedNoGoArea();
+        copy.area = area;
+        copy.nogoAreas = nogoAreas;
+        copy.warning = warning;
+        return copy;
+    }
+
     /**
      * Converts the internal JTS representation to the JSon response DTO
      */
@@ -0,0 +1,142 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.nogoservice.dto.GridData;
+
+/**
+ * Classifies the cells of the grid data as NoGo or Go for a draught and a sea level, straight from the depth data, so no depth points are
+ * created to classify a cell, or to look at its neighbours. Cells are given by their column and row in the grid data.
+ */
+final class CellClassifier {
+
+    /**
+     * A set of cells, e.g. the cells of a corridor
+     */
+    interface Cells {
+        boolean contains(int x, int y);
+    }
+
+    static final Cells ALL = (x, y) -> true;
+
+    private final float[] data;
+    private final int nx;
+    private final GridWindow window;
+    private final double draught;
+    private final double alwaysNoGo;
+    private final double alwaysGo;
+    private final TidalQueryObject.Sampler tidal;
+
+    /**
+     * @param window the cells which may be classified, the sea level is sampled for them
+     */
+    CellClassifier(GridData gridData, GridWindow window, double draught, TidalInfo tidalInfo, TidalQueryObject.Interpolation interpolation) {
+        this.data = gridData.getData();
+        this.nx = gridData.getNx();
+        this.window = window;
+        this.draught = draught;
+        if (tidalInfo.getTidal().isPresent()) {
+            TidalQueryObject field = tidalInfo.getTidal().get();
+            double[] lons = new double[window.getNx()];
+            for (int x = 0; x < lons.length; x++) {
+                lons[x] = gridData.getLo1() + (window.getStartX() + x) * gridData.getDx();
+            }
+            double[] lats = new double[window.getNy()];
+            for (int y = 0; y < lats.length; y++) {
+                lats[y] = gridData.getLa1() + (window.getStartY() + y) * gridData.getDy();
+            }
+            tidal = field.sampler(lons, lats, interpolation);
+            // the band of water depths where the tide decides
+            alwaysNoGo = draught - field.getMaximum();
+            alwaysGo = draught - field.getMinimum();
+        } else {
+            tidal = null;
+            alwaysNoGo = draught;
+            alwaysGo = draught;
+        }
+    }
+
+    GridWindow getWindow() {
+        return window;
+    }
+
+    /**
+     * @return water at least this deep is Go at any sea level of the field
+     */
+    double getGoDepth() {
+        return alwaysGo;
+    }
+
+    boolean isLand(int x, int y) {
+        return data[y * nx + x] == GridData.NO_DATA;
+    }
+
+    boolean isNoGo(int x, int y) {
+        float datum = data[y * nx + x];
+        if (datum == GridData.NO_DATA) {
+            return true;
+        }
+        double depth = -datum; // DB has altitude values so depth is negative
+        if (depth < alwaysNoGo) {
+            return true;
+        }
+        if (depth >= alwaysGo) {
+            return false;
+        }
+        return depth + tidal.getTidalHeight(x - window.getStartX(), y - window.getStartY()) < draught;
+    }
+
+    /**
+     * Classifies the NoGo water of the cells, and the land bordering it. The land is taken from the land polygons, but the bordering land is
+     * traced with the water, so NoGo water along the coast is joined to the land, without a gap between the buffered outlines.
+     * @param cells the cells to classify, inside the window
+     * @param water the water cells which may be NoGo, e.g. the cells of a corridor
+     * @return for each row of the cells, from the south, if the cell is matched
+     */
+    boolean[][] water(GridWindow cells, Cells water) {
+        // the NoGo water of the cells and their neighbours inside the window
+        int x0 = Math.max(window.getStartX(), cells.getStartX() - 1);
+        int y0 = Math.max(window.getStartY(), cells.getStartY() - 1);
+        int x1 = Math.min(window.getStartX() + window.getNx(), cells.getStartX() + cells.getNx() + 1) - 1;
+        int y1 = Math.min(window.getStartY() + window.getNy(), cells.getStartY() + cells.getNy() + 1) - 1;
+        boolean[][] noGoWater = new boolean[y1 - y0 + 1][x1 - x0 + 1];
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                noGoWater[y - y0][x - x0] = !isLand(x, y) && water.contains(x, y) && isNoGo(x, y);
+            }
+        }
+
+        boolean[][] matched = new boolean[cells.getNy()][cells.getNx()];
+        for (int row = 0; row < cells.getNy(); row++) {
+            int y = cells.getStartY() + row;
+            for (int col = 0; col < cells.getNx(); col++) {
+                int x = cells.getStartX() + col;
+                if (!isLand(x, y)) {
+                    matched[row][col] = noGoWater[y - y0][x - x0];
+                    continue;
+                }
+                for (int neighbourY = Math.max(y0, y - 1); neighbourY <= Math.min(y1, y + 1) && !matched[row][col]; neighbourY++) {
+                    for (int neighbourX = Math.max(x0, x - 1); neighbourX <= Math.min(x1, x + 1); neighbourX++) {
+                        if (noGoWater[neighbourY - y0][neighbourX - x0]) {
+                            matched[row][col] = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return matched;
+    }
+}
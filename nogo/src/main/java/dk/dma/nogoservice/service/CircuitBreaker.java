@@ -0,0 +1,96 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Makes calls to a remote service fail fast when the service is down, so threads don't wait for timeouts on every call.
+ * <p>
+ * The circuit opens after a number of consecutive failures, and while it is open calls are rejected without calling the service. When the
+ * open period has passed, a single trial call is let through. If it succeeds the circuit closes, otherwise it opens again.
+ */
+@Slf4j
+class CircuitBreaker {
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoTime;
+
+    // guarded by this
+    private int failures;
+    private boolean open;
+    private boolean trial;
+    private long openedAt;
+
+    /**
+     * @param name the name of the service, for logging
+     * @param failureThreshold the number of consecutive failures that opens the circuit
+     * @param openMillis how long the circuit stays open before a trial call is let through
+     */
+    CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this(name, failureThreshold, openMillis, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, int failureThreshold, long openMillis, LongSupplier nanoTime) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * @return true if the call may be made, the result must be reported with {@link #success()} or {@link #failure()}
+     */
+    synchronized boolean allowRequest() {
+        if (!open) {
+            return true;
+        }
+        if (!trial && nanoTime.getAsLong() - openedAt >= openNanos) {
+            trial = true;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void success() {
+        if (open) {
+            log.info("Circuit for {} closed", name);
+        }
+        failures = 0;
+        open = false;
+        trial = false;
+    }
+
+    synchronized void failure() {
+        failures++;
+        if (trial || (!open && failures >= failureThreshold)) {
+            if (!trial) {
+                log.warn("Circuit for {} opened after {} consecutive failures", name, failures);
+            }
+            open = true;
+            trial = false;
+            openedAt = nanoTime.getAsLong();
+        }
+    }
+
+    synchronized boolean isOpen() {
+        return open;
+    }
+}
@@ -0,0 +1,181 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.vividsolutions.jts.geom.*;
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.nogoservice.dto.GridData;
+import dk.dma.nogoservice.dto.NoGoRequest;
+import dk.dma.nogoservice.dto.NoGoRouteRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A corridor of a given width along a route. The route is buffered in a local equirectangular projection, where a degree of longitude is
+ * scaled by the cosine of the mean latitude of the route, so the width is the same in all directions. That is precise enough for routes
+ * within the extent of a depth area.
+ */
+final class Corridor {
+
+    private static final double METERS_PER_DEGREE = 60 * 1852;
+
+    /**
+     * the corridor in the local projection, x is the scaled longitude and y is the latitude
+     */
+    private final Geometry projected;
+    private final double lonScale;
+    private final Geometry geometry;
+
+    private Corridor(Geometry projected, double lonScale) {
+        this.projected = projected;
+        this.lonScale = lonScale;
+        geometry = unproject(projected);
+    }
+
+    /**
+     * @param route the waypoints of the route
+     * @param width the width of the corridor in meters
+     */
+    static Corridor of(List<GeoCoordinate> route, double width) {
+        double meanLat = route.stream().mapToDouble(GeoCoordinate::getLat).average().orElse(0);
+        double lonScale = Math.cos(Math.toRadians(meanLat));
+        GeometryFactory factory = new GeometryFactory();
+        Coordinate[] coordinates = route.stream().map(p -> new Coordinate(p.getLon() * lonScale, p.getLat())).toArray(Coordinate[]::new);
+        return new Corridor(factory.createLineString(coordinates).buffer(width / 2 / METERS_PER_DEGREE), lonScale);
+    }
+
+    /**
+     * @return the corridor in longitude and latitude
+     */
+    Geometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * @return a request for the bounding box of the corridor, with the draught and time of the route request
+     */
+    NoGoRequest boundingBox(NoGoRouteRequest request) {
+        Envelope envelope = geometry.getEnvelopeInternal();
+        return new NoGoRequest().setNorthWest(new GeoCoordinate(envelope.getMinX(), envelope.getMaxY()))
+                .setSouthEast(new GeoCoordinate(envelope.getMaxX(), envelope.getMinY()))
+                .setDraught(request.getDraught()).setTime(request.getTime()).setEndTime(request.getEndTime());
+    }
+
+    /**
+     * Rasterizes the corridor into spans of cells in each row of the window, with a scanline at the latitude of the row. The corridor is first
+     * widened by the diagonal of a cell, so a cell is included if any part of it is inside the corridor.
+     * @param window cells of the grid data
+     * @return for each row of the window, the first and last column of each span, relative to the window, in increasing order
+     */
+    int[][] rowSpans(GridWindow window, GridData gridData) {
+        double dx = gridData.getDx();
+        double dy = gridData.getDy();
+        Geometry widened = projected.buffer(Math.hypot(dx * lonScale, dy));
+        List<double[]> rings = new ArrayList<>();
+        for (int i = 0; i < widened.getNumGeometries(); i++) {
+            Polygon polygon = (Polygon) widened.getGeometryN(i);
+            rings.add(ordinates(polygon.getExteriorRing()));
+            for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+                rings.add(ordinates(polygon.getInteriorRingN(j)));
+            }
+        }
+
+        int[][] spans = new int[window.getNy()][];
+        double[] crossings = new double[16];
+        for (int row = 0; row < window.getNy(); row++) {
+            double lat = (window.getStartY() + row) * dy + gridData.getLa1();
+            int count = 0;
+            for (double[] ring : rings) {
+                for (int i = 0; i + 3 < ring.length; i += 2) {
+                    double y1 = ring[i + 1];
+                    double y2 = ring[i + 3];
+                    if ((y1 <= lat) != (y2 <= lat)) {
+                        if (count == crossings.length) {
+                            crossings = Arrays.copyOf(crossings, count * 2);
+                        }
+                        double x1 = ring[i];
+                        double x2 = ring[i + 2];
+                        crossings[count++] = (x1 + (lat - y1) * (x2 - x1) / (y2 - y1)) / lonScale;
+                    }
+                }
+            }
+            Arrays.sort(crossings, 0, count);
+
+            // even-odd rule, the crossings pair up into spans of longitude, which are converted to the cell centres inside them
+            int[] rowSpans = new int[count];
+            int size = 0;
+            for (int i = 0; i + 1 < count; i += 2) {
+                int first = Math.max(0, (int) Math.ceil((crossings[i] - gridData.getLo1()) / dx) - window.getStartX());
+                int last = Math.min(window.getNx() - 1, (int) Math.floor((crossings[i + 1] - gridData.getLo1()) / dx) - window.getStartX());
+                if (first > last) {
+                    continue;
+                }
+                if (size > 0 && first <= rowSpans[size - 1] + 1) {
+                    rowSpans[size - 1] = Math.max(rowSpans[size - 1], last);
+                } else {
+                    rowSpans[size++] = first;
+                    rowSpans[size++] = last;
+                }
+            }
+            spans[row] = Arrays.copyOf(rowSpans, size);
+        }
+        return spans;
+    }
+
+    /**
+     * @return true if the column is inside one of the spans of a row
+     */
+    static boolean contains(int[] rowSpans, int column) {
+        for (int i = 0; i < rowSpans.length; i += 2) {
+            if (column < rowSpans[i]) {
+                return false;
+            }
+            if (column <= rowSpans[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of cells in the spans of a row
+     */
+    static int cells(int[] rowSpans) {
+        int cells = 0;
+        for (int i = 0; i < rowSpans.length; i += 2) {
+            cells += rowSpans[i + 1] - rowSpans[i] + 1;
+        }
+        return cells;
+    }
+
+    private static double[] ordinates(LineString ring) {
+        Coordinate[] coordinates = ring.getCoordinates();
+        double[] ordinates = new double[coordinates.length * 2];
+        for (int i = 0; i < coordinates.length; i++) {
+            ordinates[2 * i] = coordinates[i].x;
+            ordinates[2 * i + 1] = coordinates[i].y;
+        }
+        return ordinates;
+    }
+
+    private Geometry unproject(Geometry geometry) {
+        Geometry copy = (Geometry) geometry.clone();
+        copy.apply((CoordinateFilter) coordinate -> coordinate.x /= lonScale);
+        copy.geometryChanged();
+        return copy;
+    }
+}
@@ -0,0 +1,95 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import dk.dma.nogoservice.dto.GridData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Traces the NoGo water in a corridor. The corridor is rasterized into spans of cells in each row, and the spans are traced in bands of
+ * {@link #BAND} rows, so only the cells close to the corridor are classified and traced, and the work depends on the area of the corridor
+ * rather than its bounding box. Like the incremental slices, each band is traced with a margin and clipped to its rows.
+ */
+final class CorridorTrace {
+
+    /**
+     * number of rows in the bands a corridor is traced in
+     */
+    static final int BAND = 16;
+
+    /**
+     * Traces the NoGo water of the cells, see {@link GridDataQueryArea#traceWater(CellClassifier, GridWindow, CellClassifier.Cells)}
+     */
+    interface Tracer {
+        List<Geometry> trace(GridWindow cells, CellClassifier.Cells water);
+    }
+
+    private final GridData gridData;
+    private final CellClassifier classifier;
+
+    /**
+     * @param classifier classifies the cells of the bounding box of the corridor
+     */
+    CorridorTrace(GridData gridData, CellClassifier classifier) {
+        this.gridData = gridData;
+        this.classifier = classifier;
+    }
+
+    /**
+     * @param spans the spans of the corridor in each row of the window of the classifier, see {@link Corridor#rowSpans(GridWindow, GridData)}
+     * @return the NoGo water of the bands, which is not clipped to the corridor
+     */
+    List<Geometry> trace(int[][] spans, Tracer tracer) {
+        GridWindow window = classifier.getWindow();
+        CellClassifier.Cells inCorridor = (x, y) -> Corridor.contains(spans[y - window.getStartY()], x - window.getStartX());
+        Envelope envelope = GridDataQueryArea.envelope(gridData, window);
+        // at the edges of the window the polygons are buffered outside the cells
+        envelope.expandBy(2 * gridData.getDx(), 2 * gridData.getDy());
+        GeometryFactory factory = new GeometryFactory();
+        List<Geometry> polygons = new ArrayList<>();
+        for (int bandStart = 0; bandStart < window.getNy(); bandStart += BAND) {
+            int bandEnd = Math.min(window.getNy(), bandStart + BAND) - 1;
+            int minX = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE;
+            for (int row = bandStart; row <= bandEnd; row++) {
+                if (spans[row].length > 0) {
+                    minX = Math.min(minX, spans[row][0]);
+                    maxX = Math.max(maxX, spans[row][spans[row].length - 1]);
+                }
+            }
+            if (minX > maxX) {
+                continue;
+            }
+            int startY = Math.max(0, bandStart - GridDataQueryArea.TRACE_MARGIN);
+            int startX = Math.max(0, minX - GridDataQueryArea.TRACE_MARGIN);
+            GridWindow band = new GridWindow(window.getStartX() + startX, window.getStartY() + startY,
+                    Math.min(window.getNx() - 1, maxX + GridDataQueryArea.TRACE_MARGIN) - startX + 1,
+                    Math.min(window.getNy() - 1, bandEnd + GridDataQueryArea.TRACE_MARGIN) - startY + 1);
+
+            double south = bandStart == 0 ? envelope.getMinY() : gridData.getLa1() + (window.getStartY() + bandStart - 0.5) * gridData.getDy();
+            double north = bandEnd == window.getNy() - 1 ? envelope.getMaxY() : gridData.getLa1() + (window.getStartY() + bandEnd + 0.5) * gridData.getDy();
+            Geometry clip = factory.toGeometry(new Envelope(envelope.getMinX(), envelope.getMaxX(), south, north));
+            for (Geometry traced : tracer.trace(band, inCorridor)) {
+                polygons.addAll(GridDataQueryArea.polygons(clip.intersection(traced)));
+            }
+        }
+        return polygons;
+    }
+}
@@ -15,21 +15,35 @@
 package dk.dma.nogoservice.service;
 
 import com.google.common.base.Preconditions;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
 import dk.dma.common.dto.GeoCoordinate;
 import dk.dma.common.exception.APIException;
 import dk.dma.common.exception.ErrorMessage;
+import dk.dma.nogoservice.ComputationCancelledException;
+import dk.dma.nogoservice.Deadline;
+import dk.dma.nogoservice.RequestProfile;
 import dk.dma.nogoservice.dto.*;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.SneakyThrows;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
 import javax.validation.Valid;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static dk.dma.nogoservice.ApiProfiles.PRODUCTION;
@@ -42,20 +56,166 @@ import static dk.dma.nogoservice.ApiProfiles.PRODUCTION;
 @Profile(PRODUCTION)
 public class DefaultNoGoService implements NoGoService {
 
+    /**
+     * margin in degrees around the envelope of a route, when it is matched with the query areas
+     */
+    private static final double ROUTE_ENVELOPE_MARGIN = 1e-6;
+
     private final List<GridDataQueryArea> queryAreas;
     private final NoGoResponseMerger noGoResponseMerger;
+    private final NoGoMetrics metrics;
+    /**
+     * When a new forecast hour starts many vessels ask for the same area at the same time, so identical section calculations are coalesced
+     */
+    private final SingleFlight<SectionKey, CalculatedNoGoArea> inFlight = new SingleFlight<>();
 
     @Autowired
-    public DefaultNoGoService(List<GridDataQueryArea> queryAreas, NoGoResponseMerger noGoResponseMerger) {
+    public DefaultNoGoService(List<GridDataQueryArea> queryAreas, NoGoResponseMerger noGoResponseMerger, NoGoMetrics metrics) {
         this.noGoResponseMerger = noGoResponseMerger;
+        this.metrics = metrics;
         Preconditions.checkArgument(!queryAreas.isEmpty(), "");
         this.queryAreas = queryAreas;
     }
 
     @Override
-    @SneakyThrows(ParseException.class)
     public NoGoResponse getNoGoAreas(@Valid NoGoRequest request) {
+        List<CalculatedNoGoArea> areas = new ArrayList<>();
+        for (MatchedArea matched : match(request)) {
+            NoGoRequest sectionRequest = matched.sectionRequest(request.getTime()).setEndTime(request.getEndTime());
+            CalculatedNoGoArea nogoAreas = coalesce(matched.key(sectionRequest), () -> matched.queryArea.getNogoAreas(sectionRequest)).copy();
+            nogoAreas.setArea(matched.match.getIntersection());
+            areas.add(nogoAreas);
+        }
+        // find a way to join the nogo area polygons
+        return merge(areas);
+    }
+
+    /**
+     * The request is validated and matched with the query areas on the calling thread, so invalid requests fail right away. The tidal information
+     * for each section is then loaded without blocking, and the sections are calculated and merged by the compute executor.
+     */
+    @Override
+    public CompletableFuture<NoGoResponse> getNoGoAreasAsync(@Valid NoGoRequest request, Executor computeExecutor) {
+        List<CompletableFuture<CalculatedNoGoArea>> sections = new ArrayList<>();
+        for (MatchedArea matched : match(request)) {
+            NoGoRequest sectionRequest = matched.sectionRequest(request.getTime()).setEndTime(request.getEndTime());
+            sections.add(coalesceAsync(matched.key(sectionRequest), () -> matched.queryArea.getNogoAreasAsync(sectionRequest, computeExecutor))
+                    .thenApply(nogoAreas -> nogoAreas.copy().setArea(matched.match.getIntersection())));
+        }
+        return mergeAsync(sections, computeExecutor);
+    }
+
+    /**
+     * The corridor is matched with the query areas by its bounding box, and each area only calculates the part of the corridor inside it,
+     * which is also the area used when the sections are merged. Corridors are rarely identical, so they are not coalesced.
+     */
+    @Override
+    public CompletableFuture<NoGoResponse> getNoGoAreasAsync(@Valid NoGoRouteRequest request, Executor computeExecutor) {
+        Corridor corridor = Corridor.of(request.getRoute(), request.getCorridorWidth());
+        List<CompletableFuture<CalculatedNoGoArea>> sections = new ArrayList<>();
+        for (MatchedArea matched : match(corridor.boundingBox(request))) {
+            Geometry section = matched.match.getIntersection().intersection(corridor.getGeometry());
+            if (section.isEmpty()) {
+                continue;
+            }
+            NoGoRequest sectionRequest = matched.sectionRequest(request.getTime()).setEndTime(request.getEndTime());
+            sections.add(matched.queryArea.getNogoAreasAsync(sectionRequest, corridor, computeExecutor).thenApply(nogoAreas -> nogoAreas.setArea(section)));
+        }
+        if (sections.isEmpty()) {
+            throw new APIException(ErrorMessage.OUTSIDE_GRID, "The route corridor is outside the supported areas " +
+                    queryAreas.stream().map(QueryArea::getName).collect(Collectors.joining(",")));
+        }
+        return mergeAsync(sections, computeExecutor);
+    }
+
+    /**
+     * The route is matched with the query areas by its envelope, and each matching area walks the legs over its own grid. The results are
+     * combined as intervals along the legs, so no geometry is created.
+     */
+    @Override
+    public CompletableFuture<RouteCheckResponse> checkRouteAsync(@Valid RouteCheckRequest request, Executor computeExecutor) {
+        Envelope envelope = new Envelope();
+        request.getRoute().forEach(point -> envelope.expandToInclude(point.getLon(), point.getLat()));
+        // a route along a parallel or a meridian has a flat envelope, and the match must be a polygon
+        envelope.expandBy(ROUTE_ENVELOPE_MARGIN);
+        Geometry route = new GeometryFactory().toGeometry(envelope);
+        List<CompletableFuture<RouteCheck>> areaChecks = queryAreas.stream().filter(queryArea -> queryArea.matches(route).matches())
+                .map(queryArea -> queryArea.checkRouteAsync(request, computeExecutor)).collect(Collectors.toList());
+        return CompletableFuture.allOf(areaChecks.toArray(new CompletableFuture<?>[0])).thenApply(all -> {
+            List<RouteCheck> checks = areaChecks.stream().map(CompletableFuture::join).filter(RouteCheck::isCovered).collect(Collectors.toList());
+            if (checks.isEmpty()) {
+                throw new APIException(ErrorMessage.OUTSIDE_GRID, "The route is outside the supported areas " +
+                        queryAreas.stream().map(QueryArea::getName).collect(Collectors.joining(",")));
+            }
+            return RouteCheck.combine(request.getRoute(), checks);
+        });
+    }
+
+    private CompletableFuture<NoGoResponse> mergeAsync(List<CompletableFuture<CalculatedNoGoArea>> sections, Executor computeExecutor) {
+        return CompletableFuture.allOf(sections.toArray(new CompletableFuture<?>[0])).thenApplyAsync(
+                all -> merge(sections.stream().map(CompletableFuture::join).collect(Collectors.toList())), computeExecutor);
+    }
+
+    /**
+     * The area matching, the depth grid and the tidal information for all slices are created once, by the first slice that is calculated,
+     * so the request returns right away, and errors are reported for each slice like a normal request. The slices then only differ in the
+     * tidal classification and tracing, and with incremental slicing only the cells that changed since the previous slice are traced.
+     */
+    @Override
+    public SliceCalculation prepareSlices(NoGoRequest request, List<Instant> times, boolean incremental) {
+        Supplier<List<SlicedArea>> prepared = memoize(() -> {
+            List<SlicedArea> sliced = new ArrayList<>();
+            for (MatchedArea matched : match(request)) {
+                NoGoRequest sectionRequest = matched.sectionRequest(null);
+                DepthGrid grid = matched.queryArea.createGrid(sectionRequest);
+                IncrementalSlicer slicer = incremental ? matched.queryArea.incrementalSlicer(grid) : null;
+                sliced.add(new SlicedArea(matched, grid, slicer, matched.queryArea.getTidalInfo(sectionRequest, times)));
+            }
+            return sliced;
+        });
+
+        return slice -> {
+            List<CalculatedNoGoArea> areas = new ArrayList<>();
+            for (SlicedArea sliced : prepared.get()) {
+                MatchedArea matched = sliced.matched;
+                NoGoRequest sectionRequest = matched.sectionRequest(times.get(slice));
+                CalculatedNoGoArea nogoAreas = sliced.slicer != null ? sliced.slicer.next(slice, sectionRequest, sliced.tidal.get(slice)) :
+                        coalesce(matched.key(sectionRequest),
+                                () -> matched.queryArea.getNogoAreas(sectionRequest, sliced.grid, sliced.tidal.get(slice))).copy();
+                nogoAreas.setArea(matched.match.getIntersection());
+                areas.add(nogoAreas);
+            }
+            return merge(areas);
+        };
+    }
+
+    /**
+     * @return a supplier which calls the given supplier once, and then returns the same value. If the supplier fails the next call tries again.
+     */
+    private static <T> Supplier<T> memoize(Supplier<T> supplier) {
+        return new Supplier<T>() {
+            private T value;
+
+            @Override
+            public synchronized T get() {
+                if (value == null) {
+                    value = supplier.get();
+                }
+                return value;
+            }
+        };
+    }
 
+    private NoGoResponse merge(List<CalculatedNoGoArea> areas) {
+        return metrics.time(() -> noGoResponseMerger.merge(areas).toResponse(), NoGoStage.MERGE);
+    }
+
+    /**
+     * Finds the query areas which overlap the request
+     * @throws APIException if the request is not valid, or outside all the query areas
+     */
+    @SneakyThrows(ParseException.class)
+    private List<MatchedArea> match(NoGoRequest request) {
         GeoCoordinate northWest = request.getNorthWest();
         GeoCoordinate southEast = request.getSouthEast();
 
@@ -69,28 +229,20 @@ public class DefaultNoGoService implements NoGoService {
         String wkt = request.toWKT();
         WKTReader reader = new WKTReader();
         Geometry area = reader.read(wkt);
-        List<CalculatedNoGoArea> areas = new ArrayList<>();
+        List<MatchedArea> matches = new ArrayList<>();
         for (GridDataQueryArea queryArea : queryAreas) {
             AreaMatch match = queryArea.matches(area);
             if (match.matches()) {
-                NoGoRequest sectionRequest = new NoGoRequest().setDraught(request.getDraught()).setTime(request.getTime())
-                        .setNorthWest(match.getNorthWest()).setSouthEast(match.getSouthEast());
-                CalculatedNoGoArea nogoAreas = queryArea.getNogoAreas(sectionRequest);
-                nogoAreas.setArea(match.getIntersection());
-                areas.add( nogoAreas);
+                matches.add(new MatchedArea(queryArea, match, request.getDraught()));
             }
         }
 
         // todo: we should probably add a warning if there is no data for part of the requested area.
-
-        // find a way to join the nogo area polygons
-        if (areas.size() > 0) {
-            return noGoResponseMerger.merge(areas).toResponse();
+        if (matches.isEmpty()) {
+            throw new APIException(ErrorMessage.OUTSIDE_GRID, "Depth service does not support the give area, supported areas are " +
+                    queryAreas.stream().map(QueryArea::getName).collect(Collectors.joining(",")));
         }
-
-
-        throw new APIException(ErrorMessage.OUTSIDE_GRID, "Depth service does not support the give area, supported areas are " +
-                queryAreas.stream().map(QueryArea::getName).collect(Collectors.joining(",")));
+        return matches;
     }
 
     @Override
@@ -104,5 +256,98 @@ public class DefaultNoGoService implements NoGoService {
         return response;
     }
 
+    /**
+     * Runs the calculation, or waits for an identical calculation which is already in flight. If the calculation we waited for was cancelled
+     * because the deadline of its caller passed, we calculate it ourselves, unless our own deadline has also passed.
+     * A profiled request is not coalesced, so its profile measures its own calculation.
+     */
+    private CalculatedNoGoArea coalesce(SectionKey key, Supplier<CalculatedNoGoArea> calculation) {
+        if (RequestProfile.current() != null) {
+            return calculation.get();
+        }
+        Deadline deadline = Deadline.current();
+        try {
+            return inFlight.execute(key, calculation);
+        } catch (ComputationCancelledException e) {
+            if (Deadline.isExpired(deadline)) {
+                throw e;
+            }
+            return calculation.get();
+        }
+    }
 
+    private CompletableFuture<CalculatedNoGoArea> coalesceAsync(SectionKey key, Supplier<CompletableFuture<CalculatedNoGoArea>> calculation) {
+        if (RequestProfile.current() != null) {
+            return calculation.get();
+        }
+        Deadline deadline = Deadline.current();
+        return inFlight.executeAsync(key, calculation).handle((nogoAreas, e) -> {
+            if (e == null) {
+                return CompletableFuture.completedFuture(nogoAreas);
+            }
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof ComputationCancelledException && !Deadline.isExpired(deadline)) {
+                return calculation.get();
+            }
+            CompletableFuture<CalculatedNoGoArea> failed = new CompletableFuture<>();
+            failed.completeExceptionally(cause);
+            return failed;
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * @return the number of section calculations that were shared with a concurrent identical calculation
+     */
+    long getCoalesced() {
+        return inFlight.getCoalesced();
+    }
+
+    /**
+     * The weather service uses the forecast nearest to the requested time, if two are equally near it uses the earlier.
+     * Forecasts are hourly, so all times that resolve to the same hour give the same tidal information.
+     */
+    static Instant forecastHour(Instant time) {
+        if (time == null) {
+            return null;
+        }
+        Instant hour = time.truncatedTo(ChronoUnit.HOURS);
+        return Duration.between(hour, time).compareTo(Duration.ofMinutes(30)) > 0 ? hour.plus(1, ChronoUnit.HOURS) : hour;
+    }
+
+    @AllArgsConstructor
+    private static class MatchedArea {
+        private final GridDataQueryArea queryArea;
+        private final AreaMatch match;
+        private final Double draught;
+
+        NoGoRequest sectionRequest(Instant time) {
+            return new NoGoRequest().setDraught(draught).setTime(time).setNorthWest(match.getNorthWest()).setSouthEast(match.getSouthEast());
+        }
+
+        /**
+         * Requests which snap to the same depth cells, and resolve to the same forecast (or forecasts for a time window), give the same NoGo areas
+         */
+        SectionKey key(NoGoRequest sectionRequest) {
+            return new SectionKey(queryArea, queryArea.window(sectionRequest), draught, forecastHour(sectionRequest.getTime()),
+                    forecastHour(sectionRequest.getEndTime()));
+        }
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static final class SectionKey {
+        private final GridDataQueryArea queryArea;
+        private final GridWindow window;
+        private final Double draught;
+        private final Instant forecastHour;
+        private final Instant endForecastHour;
+    }
+
+    @AllArgsConstructor
+    private static class SlicedArea {
+        private final MatchedArea matched;
+        private final DepthGrid grid;
+        private final IncrementalSlicer slicer;
+        private final List<TidalInfo> tidal;
+    }
 }
@@ -0,0 +1,152 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.collect.ImmutableList;
+import dk.dma.nogoservice.dto.GridData;
+import dk.dma.nogoservice.entity.DepthPoint;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The depth points extracted from the grid data for a request area. The grid is immutable, so it can be created once and shared by
+ * all slices of a slicing request, which only differ in the tidal information.
+ * <p>
+ * A grid of grid data creates its points when they are read, so creating it costs nothing. The NoGo calculations classify the cells with a
+ * {@link CellClassifier}, and only create the points of the part they trace, once, with {@link #points(GridData, GridWindow)}.
+ */
+final class DepthGrid {
+
+    private final List<List<DepthPoint>> rows;
+    private final GridWindow window;
+
+    DepthGrid(List<List<DepthPoint>> rows) {
+        this(rows, null);
+    }
+
+    /**
+     * @param window the cells of the grid data the rows were created from
+     */
+    DepthGrid(List<List<DepthPoint>> rows, GridWindow window) {
+        this.window = window;
+        ImmutableList.Builder<List<DepthPoint>> builder = ImmutableList.builder();
+        for (List<DepthPoint> row : rows) {
+            builder.add(ImmutableList.copyOf(row));
+        }
+        this.rows = builder.build();
+    }
+
+    /**
+     * @param window the cells of the grid data the rows are created from
+     */
+    DepthGrid(GridData gridData, GridWindow window) {
+        this.window = window;
+        this.rows = new Rows(gridData, window);
+    }
+
+    /**
+     * @return the rows, from south to north
+     */
+    List<List<DepthPoint>> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the cells of the grid data the rows were created from, or null if the rows were not created from grid data
+     */
+    GridWindow getWindow() {
+        return window;
+    }
+
+    /**
+     * Creates the points of a window of the grid data once, for a trace which reads the points more than once. The x and y of a point are its
+     * column and row in the window.
+     * @return the rows, from south to north
+     */
+    static List<List<DepthPoint>> points(GridData gridData, GridWindow window) {
+        List<List<DepthPoint>> points = new ArrayList<>();
+        for (List<DepthPoint> row : new Rows(gridData, window)) {
+            points.add(new ArrayList<>(row));
+        }
+        return points;
+    }
+
+    int getNx() {
+        return rows.get(0).size();
+    }
+
+    int getNy() {
+        return rows.size();
+    }
+
+    /**
+     * The rows of a window of the grid data, with the points created on access
+     */
+    private static final class Rows extends AbstractList<List<DepthPoint>> implements RandomAccess {
+        private final GridData gridData;
+        private final GridWindow window;
+        private final Row[] rows;
+
+        private Rows(GridData gridData, GridWindow window) {
+            this.gridData = gridData;
+            this.window = window;
+            rows = new Row[window.getNy()];
+            for (int row = 0; row < rows.length; row++) {
+                rows[row] = new Row(row);
+            }
+        }
+
+        @Override
+        public List<DepthPoint> get(int row) {
+            if (row < 0 || row >= window.getNy()) {
+                throw new IndexOutOfBoundsException("row " + row);
+            }
+            return rows[row];
+        }
+
+        @Override
+        public int size() {
+            return window.getNy();
+        }
+
+        private final class Row extends AbstractList<DepthPoint> implements RandomAccess {
+            private final int row;
+
+            private Row(int row) {
+                this.row = row;
+            }
+
+            @Override
+            public DepthPoint get(int col) {
+                if (col < 0 || col >= window.getNx()) {
+                    throw new IndexOutOfBoundsException("column " + col);
+                }
+                int x = window.getStartX() + col;
+                int y = window.getStartY() + row;
+                float datum = gridData.getData()[y * gridData.getNx() + x];
+                Double depth = datum != GridData.NO_DATA ? (double) datum : null;
+                return new DepthPoint(y * gridData.getDy() + gridData.getLa1(), x * gridData.getDx() + gridData.getLo1(), depth, col, row);
+            }
+
+            @Override
+            public int size() {
+                return window.getNx();
+            }
+        }
+    }
+}
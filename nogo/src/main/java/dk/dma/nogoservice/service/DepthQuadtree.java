@@ -0,0 +1,186 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.nogoservice.dto.GridData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A quadtree with the shallowest water depth of blocks of the grid data, built once per area. It finds the part of a request window with water
+ * which may be NoGo, without looking at the cells of blocks which are deep enough everywhere. Since the {@link DepthGrid} creates its points
+ * when they are read, only the cells of that part (and a margin around it) are created and classified.
+ * <p>
+ * The leaves are blocks of {@link #LEAF} x {@link #LEAF} cells, and each level above combines 2 x 2 blocks of the level below, up to a single
+ * block covering the grid. Land (NO_DATA) is not water, it has depth +infinity, since it is handled by the {@link LandPolygons}.
+ */
+final class DepthQuadtree {
+
+    static final int LEAF = 16;
+
+    private final float[] data;
+    private final int nx;
+    private final int ny;
+    /**
+     * the shallowest depth of each block, row major from the south, level 0 is the leaves
+     */
+    private final List<float[]> levels = new ArrayList<>();
+    private final List<Integer> widths = new ArrayList<>();
+    private final List<Integer> heights = new ArrayList<>();
+
+    DepthQuadtree(GridData gridData) {
+        data = gridData.getData();
+        nx = gridData.getNx();
+        ny = gridData.getNy();
+
+        int width = (nx + LEAF - 1) / LEAF;
+        int height = (ny + LEAF - 1) / LEAF;
+        float[] blocks = new float[width * height];
+        Arrays.fill(blocks, Float.POSITIVE_INFINITY);
+        for (int y = 0; y < ny; y++) {
+            for (int x = 0; x < nx; x++) {
+                int block = (y / LEAF) * width + x / LEAF;
+                blocks[block] = Math.min(blocks[block], depth(y * nx + x));
+            }
+        }
+        add(blocks, width, height);
+
+        while (width > 1 || height > 1) {
+            float[] below = blocks;
+            int belowWidth = width;
+            int belowHeight = height;
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+            blocks = new float[width * height];
+            Arrays.fill(blocks, Float.POSITIVE_INFINITY);
+            for (int y = 0; y < belowHeight; y++) {
+                for (int x = 0; x < belowWidth; x++) {
+                    int block = (y / 2) * width + x / 2;
+                    blocks[block] = Math.min(blocks[block], below[y * belowWidth + x]);
+                }
+            }
+            add(blocks, width, height);
+        }
+    }
+
+    private void add(float[] level, int width, int height) {
+        levels.add(level);
+        widths.add(width);
+        heights.add(height);
+    }
+
+    /**
+     * @return the water depth of the cell, +infinity for land
+     */
+    private float depth(int index) {
+        float datum = data[index];
+        // DB has altitude values so depth is negative
+        return datum != GridData.NO_DATA ? -datum : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Finds the smallest part of the window which contains all the water cells that are shallower than the depth
+     * @param window cells of the grid data
+     * @param goDepth cells at least this deep are Go
+     * @return the part of the window, or null if all the cells in the window are deep enough
+     */
+    GridWindow shallowPart(GridWindow window, double goDepth) {
+        // min x, min y, max x, max y
+        int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        int top = levels.size() - 1;
+        collect(top, 0, 0, window, goDepth, bounds);
+        if (bounds[0] == Integer.MAX_VALUE) {
+            return null;
+        }
+        return new GridWindow(bounds[0], bounds[1], bounds[2] - bounds[0] + 1, bounds[3] - bounds[1] + 1);
+    }
+
+    /**
+     * Finds the leaf blocks of the window with water cells that are shallower than the depth, e.g. the only blocks where cells can flip between
+     * NoGo and Go when the sea level changes
+     * @param window cells of the grid data
+     * @param goDepth cells at least this deep are Go
+     * @return the cells of each leaf inside the window
+     */
+    List<GridWindow> shallowLeaves(GridWindow window, double goDepth) {
+        List<GridWindow> leaves = new ArrayList<>();
+        collectLeaves(levels.size() - 1, 0, 0, window, goDepth, leaves);
+        return leaves;
+    }
+
+    private void collectLeaves(int level, int blockX, int blockY, GridWindow window, double goDepth, List<GridWindow> leaves) {
+        if (blockX >= widths.get(level) || blockY >= heights.get(level)) {
+            return;
+        }
+        int size = LEAF << level;
+        int x0 = Math.max(blockX * size, window.getStartX());
+        int y0 = Math.max(blockY * size, window.getStartY());
+        int x1 = Math.min(Math.min((blockX + 1) * size, nx), window.getStartX() + window.getNx()) - 1;
+        int y1 = Math.min(Math.min((blockY + 1) * size, ny), window.getStartY() + window.getNy()) - 1;
+        if (x0 > x1 || y0 > y1 || levels.get(level)[blockY * widths.get(level) + blockX] >= goDepth) {
+            return;
+        }
+        if (level == 0) {
+            leaves.add(new GridWindow(x0, y0, x1 - x0 + 1, y1 - y0 + 1));
+            return;
+        }
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 2; x++) {
+                collectLeaves(level - 1, blockX * 2 + x, blockY * 2 + y, window, goDepth, leaves);
+            }
+        }
+    }
+
+    private void collect(int level, int blockX, int blockY, GridWindow window, double goDepth, int[] bounds) {
+        if (blockX >= widths.get(level) || blockY >= heights.get(level)) {
+            return;
+        }
+        int size = LEAF << level;
+        int x0 = Math.max(blockX * size, window.getStartX());
+        int y0 = Math.max(blockY * size, window.getStartY());
+        int x1 = Math.min(Math.min((blockX + 1) * size, nx), window.getStartX() + window.getNx()) - 1;
+        int y1 = Math.min(Math.min((blockY + 1) * size, ny), window.getStartY() + window.getNy()) - 1;
+        if (x0 > x1 || y0 > y1) {
+            return;
+        }
+        if (levels.get(level)[blockY * widths.get(level) + blockX] >= goDepth) {
+            return;
+        }
+        // skip blocks that can't extend the bounds
+        if (x0 >= bounds[0] && x1 <= bounds[2] && y0 >= bounds[1] && y1 <= bounds[3]) {
+            return;
+        }
+        if (level == 0) {
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    if (depth(y * nx + x) < goDepth) {
+                        bounds[0] = Math.min(bounds[0], x);
+                        bounds[1] = Math.min(bounds[1], y);
+                        bounds[2] = Math.max(bounds[2], x);
+                        bounds[3] = Math.max(bounds[3], y);
+                    }
+                }
+            }
+            return;
+        }
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 2; x++) {
+                collect(level - 1, blockX * 2 + x, blockY * 2 + y, window, goDepth, bounds);
+            }
+        }
+    }
+}
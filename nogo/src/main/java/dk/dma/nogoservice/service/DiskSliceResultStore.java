@@ -0,0 +1,247 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the most recently used slice results in memory, bounded by the total number of vertices like the {@link MemorySliceResultStore}, but
+ * instead of discarding the least recently used results they are written to a segment file on the local disk, in the compact encoding of
+ * {@link SliceResultCodec}.
+ * <p>
+ * Results are appended to the current segment, a new segment is started every {@link #SEGMENT_MINUTES}, and a segment is deleted when
+ * all the results in it are older than {@link #EXPIRY_MINUTES}. Expired segments are deleted when the next result is spilled, and by a scheduled
+ * cleanup, so an idle service does not keep them on disk. Results read from disk are not moved back into memory, since they are
+ * normally only fetched once.
+ */
+@Component
+@ConditionalOnProperty(name = "nogo.slicing.store.type", havingValue = "disk")
+@Slf4j
+public class DiskSliceResultStore implements SliceResultStore {
+
+    static final long SEGMENT_MINUTES = EXPIRY_MINUTES / 2;
+    private static final String SEGMENT_PREFIX = "slices-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File directory;
+    private final Cache<String, ResourceProcessingResult> cache;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    /**
+     * The segments, oldest first, the last is the one being written
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    @Autowired
+    public DiskSliceResultStore(@Value("${nogo.slicing.store.maxVertices:2000000}") long maxVertices,
+                                @Value("${nogo.slicing.store.directory:#{null}}") String directory) {
+        this.directory = directory != null ? new File(directory) : new File(System.getProperty("java.io.tmpdir"), "nogo-slices");
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create slice store directory " + this.directory.getAbsolutePath());
+        }
+        // segments left behind if the application was killed
+        File[] stale = this.directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (stale != null) {
+            for (File file : stale) {
+                delete(file);
+            }
+        }
+
+        // a single segment, so the whole bound is available to one result, see MemorySliceResultStore
+        cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maxVertices)
+                .weigher((String id, ResourceProcessingResult result) -> SliceResultStore.weight(result))
+                .expireAfterAccess(EXPIRY_MINUTES, TimeUnit.MINUTES)
+                .removalListener((RemovalNotification<String, ResourceProcessingResult> notification) -> {
+                    if (notification.getCause() == RemovalCause.SIZE) {
+                        spill(notification.getKey(), notification.getValue());
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public void put(String id, ResourceProcessingResult result) {
+        index.remove(id);
+        cache.put(id, result);
+    }
+
+    @Override
+    public ResourceProcessingResult get(String id) {
+        ResourceProcessingResult result = cache.getIfPresent(id);
+        if (result != null) {
+            return result;
+        }
+        Location location = index.get(id);
+        if (location == null || location.segment.isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+        try {
+            return SliceResultCodec.decode(location.segment.read(location.offset, location.length));
+        } catch (IOException e) {
+            // the segment was deleted while we were reading it
+            log.debug("Unable to read slice result {}, {}", id, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        cache.invalidate(id);
+        index.remove(id);
+    }
+
+    /**
+     * @return the number of results which have been written to disk, and not yet expired
+     */
+    int getSpilled() {
+        return index.size();
+    }
+
+    private synchronized void spill(String id, ResourceProcessingResult result) {
+        try {
+            byte[] data = SliceResultCodec.encode(result);
+            Segment segment = currentSegment();
+            long offset = segment.append(data);
+            index.put(id, new Location(segment, offset, data.length));
+        } catch (IOException e) {
+            log.warn("Unable to write slice result {} to disk, it is discarded", id, e);
+        }
+    }
+
+    @Scheduled(initialDelay = 60 * 1000, fixedDelayString = "${nogo.slicing.store.cleanupMillis:60000}")
+    public void deleteExpired() {
+        deleteExpired(System.currentTimeMillis());
+    }
+
+    synchronized void deleteExpired(long now) {
+        while (!segments.isEmpty() && segments.peekFirst().isExpired(now)) {
+            Segment expired = segments.removeFirst();
+            index.values().removeIf(location -> location.segment == expired);
+            expired.delete();
+        }
+    }
+
+    /**
+     * Deletes the expired segments, and returns the segment to write to, starting a new one if needed
+     */
+    private Segment currentSegment() throws IOException {
+        long now = System.currentTimeMillis();
+        deleteExpired(now);
+        Segment current = segments.peekLast();
+        if (current == null || now >= current.closesAt) {
+            current = new Segment(File.createTempFile(SEGMENT_PREFIX, SEGMENT_SUFFIX, directory), now);
+            segments.addLast(current);
+        }
+        return current;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        index.clear();
+        segments.forEach(Segment::delete);
+        segments.clear();
+    }
+
+    private static void delete(File file) {
+        if (!file.delete()) {
+            log.warn("Unable to delete slice segment {}", file.getAbsolutePath());
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+
+        Location(Segment segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Segment {
+        private final File file;
+        private final FileChannel channel;
+        /**
+         * No more results are written to the segment after this time
+         */
+        private final long closesAt;
+        private long size;
+
+        Segment(File file, long created) throws IOException {
+            this.file = file;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            closesAt = created + TimeUnit.MINUTES.toMillis(SEGMENT_MINUTES);
+        }
+
+        boolean isExpired(long now) {
+            return now >= closesAt + TimeUnit.MINUTES.toMillis(EXPIRY_MINUTES);
+        }
+
+        /**
+         * @return the offset the data was written at
+         */
+        long append(byte[] data) throws IOException {
+            long offset = size;
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer, size);
+            }
+            return offset;
+        }
+
+        byte[] read(long offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of segment " + file.getName());
+                }
+            }
+            return buffer.array();
+        }
+
+        void delete() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Unable to close slice segment {}", file.getName(), e);
+            }
+            DiskSliceResultStore.delete(file);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.common.dto.JsonErrorException;
+import dk.dma.common.exception.APIException;
+import dk.dma.dmiweather.dto.GridRequest;
+import dk.dma.dmiweather.dto.GridResponse;
+import dk.dma.dmiweather.dto.GridSeriesRequest;
+import dk.dma.dmiweather.dto.GridSeriesResponse;
+import dk.dma.nogoservice.ApiProfiles;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Weather service for co-located deployments, where the dmiweather service runs inside the NoGo service. The sea level is read from the GRIB data
+ * as an array per parameter, so there is no HTTP call and no serialization of the grid.
+ * <p>
+ * Errors from the weather service are thrown as {@link JsonErrorException}, the same as {@link RemoteWeatherService} does when the remote
+ * service returns an error.
+ */
+@Component
+@Profile(ApiProfiles.EMBEDDED_WEATHER)
+public class EmbeddedWeatherService implements WeatherService {
+
+    private final dk.dma.dmiweather.service.WeatherService gridWeatherService;
+
+    @Autowired
+    public EmbeddedWeatherService(dk.dma.dmiweather.service.WeatherService gridWeatherService) {
+        this.gridWeatherService = gridWeatherService;
+    }
+
+    @Override
+    public GridResponse getWeather(GridRequest request) {
+        try {
+            return gridWeatherService.requestColumns(request);
+        } catch (APIException e) {
+            throw new JsonErrorException(e.toJsonError());
+        }
+    }
+
+    @Override
+    public GridSeriesResponse getWeatherSeries(GridSeriesRequest request) {
+        try {
+            return gridWeatherService.requestSeriesColumns(request);
+        } catch (APIException e) {
+            throw new JsonErrorException(e.toJsonError());
+        }
+    }
+}
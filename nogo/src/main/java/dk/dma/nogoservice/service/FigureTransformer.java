@@ -15,6 +15,7 @@
 package dk.dma.nogoservice.service;
 
 import com.vividsolutions.jts.geom.*;
+import dk.dma.nogoservice.Deadline;
 import dk.dma.nogoservice.dto.GridData;
 import dk.dma.nogoservice.entity.GeoCoordinateProvider;
 import lombok.extern.slf4j.Slf4j;
@@ -42,6 +43,7 @@ public class FigureTransformer {
         // convert from x,y grid to long/lat, and add buffering
         List<Geometry> collect = new ArrayList<>();
         for (Geometry geometry : figures) {
+            Deadline.checkCurrent();
             if (geometry instanceof Polygon) {
                 Polygon polygon = (Polygon) geometry;
                 // since this is used with nogo areas we know there are no holes
@@ -16,8 +16,8 @@ import java.io.IOException;
 @Slf4j
 public class FileBackedQueryArea extends GridDataQueryArea {
 
-    public FileBackedQueryArea(File file, WeatherService weatherService, NoGoAlgorithmFacade noGoAlgorithm) throws IOException {
-        super(weatherService, noGoAlgorithm, new ObjectMapper().readValue(file, GridData.class));
+    public FileBackedQueryArea(File file, WeatherService weatherService, NoGoAlgorithmFacade noGoAlgorithm, NoGoMetrics metrics) throws IOException {
+        super(weatherService, noGoAlgorithm, new ObjectMapper().readValue(file, GridData.class), metrics);
     }
 
 }
@@ -0,0 +1,50 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.dmiweather.dto.GridBinaryFormat;
+import dk.dma.dmiweather.dto.GridResponse;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+
+import java.io.IOException;
+
+/**
+ * Reads a {@link GridResponse} in the binary columnar format of the weather service. When the converter is registered before the JSON converter,
+ * the binary format is preferred in the Accept header, and a weather service without the binary format still answers with JSON.
+ */
+class GridBinaryMessageConverter extends AbstractHttpMessageConverter<GridResponse> {
+
+    GridBinaryMessageConverter() {
+        super(MediaType.valueOf(GridBinaryFormat.MEDIA_TYPE_VALUE));
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return GridResponse.class.equals(clazz);
+    }
+
+    @Override
+    protected GridResponse readInternal(Class<? extends GridResponse> clazz, HttpInputMessage inputMessage) throws IOException {
+        return GridBinaryFormat.read(inputMessage.getBody());
+    }
+
+    @Override
+    protected void writeInternal(GridResponse response, HttpOutputMessage outputMessage) throws IOException {
+        GridBinaryFormat.write(response, outputMessage.getBody());
+    }
+}
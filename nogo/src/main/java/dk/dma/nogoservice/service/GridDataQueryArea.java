@@ -1,18 +1,26 @@
 package dk.dma.nogoservice.service;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
 import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jts.index.strtree.STRtree;
 import com.vividsolutions.jts.io.WKTWriter;
 import dk.dma.common.dto.*;
 import dk.dma.dmiweather.dto.*;
+import dk.dma.nogoservice.Deadline;
+import dk.dma.nogoservice.RequestProfile;
 import dk.dma.nogoservice.algo.NoGoMatcher;
 import dk.dma.nogoservice.dto.*;
-import dk.dma.nogoservice.entity.SouthKattegat;
+import dk.dma.nogoservice.entity.DepthPoint;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.client.ResourceAccessException;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -26,23 +34,108 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Slf4j
 public abstract class GridDataQueryArea implements QueryArea {
 
+    /**
+     * Go cells kept around the part of a grid which is traced
+     */
+    static final int TRACE_MARGIN = 2;
+    /**
+     * size (in cells) of the tiles the land is traced in when the area is loaded, so the whole grid is never created at once
+     */
+    private static final int LAND_TILE = 512;
+
     private final AtomicInteger nextRequestId = new AtomicInteger(0);
     private final WeatherService weatherService;
     private final NoGoAlgorithmFacade noGoAlgorithm;
     private final GridData gridData;
+    private final NoGoMetrics metrics;
     private final Geometry supports;
+    private final DepthQuadtree depthIndex;
+    private final LandPolygons land;
+    private TidalQueryObject.Interpolation interpolation = TidalQueryObject.Interpolation.NEAREST;
+    private double tidalResolution;
+    private SeaLevelCache tidalCache;
+    private final LastGoodSeaLevel lastGood = new LastGoodSeaLevel();
 
     /**
      * @param weatherService service that can provide weather info
      * @param noGoAlgorithm facade that provides an algo that can create polygons from a grid
+     * @param metrics records the time of the tidal and grid stages, and the size of the grid and the result
      */
-    GridDataQueryArea(WeatherService weatherService, NoGoAlgorithmFacade noGoAlgorithm, GridData gridData) {
+    GridDataQueryArea(WeatherService weatherService, NoGoAlgorithmFacade noGoAlgorithm, GridData gridData, NoGoMetrics metrics) {
         this.weatherService = weatherService;
         this.noGoAlgorithm = noGoAlgorithm;
         this.gridData = gridData;
+        this.metrics = metrics;
         supports = fromGridData(gridData);
+        depthIndex = new DepthQuadtree(gridData);
+        land = metrics.time(this::traceLand, NoGoStage.LAND, gridData.getName());
+    }
+
+
+    /**
+     * @param bilinear if the sea level is interpolated bilinearly to the depth points, otherwise the nearest weather point is used, which is the
+     *                 default. The weather grid is usually much coarser than the depth grid.
+     */
+    public void setBilinearTidal(boolean bilinear) {
+        this.interpolation = bilinear ? TidalQueryObject.Interpolation.BILINEAR : TidalQueryObject.Interpolation.NEAREST;
+    }
+
+    /**
+     * Tide varies slowly compared to the depth, so the sea level can be loaded at a coarser resolution than the forecast, and interpolated locally.
+     * @param resolution the spacing in degrees of the sea level grid requested from the weather service, 0 for the native resolution of the forecast.
+     *                   The weather service never returns a finer grid than the forecast.
+     */
+    public void setTidalResolution(double resolution) {
+        this.tidalResolution = resolution;
     }
 
+    /**
+     * Keeps the sea level of the whole area for the upcoming hours, so requests for those hours don't call the weather service.
+     * The cache is filled by {@link #refreshTidalCache(Instant)}
+     * @param hours the number of forecast hours to keep, 0 disables the cache
+     */
+    public void setTidalCacheHours(int hours) {
+        this.tidalCache = hours > 0 ? new SeaLevelCache(this::loadAreaTidal, hours) : null;
+    }
+
+    /**
+     * Loads the missing hours of the sea level cache, or reloads all hours if there is a new forecast
+     * @param now the current time
+     */
+    void refreshTidalCache(Instant now) {
+        if (tidalCache != null) {
+            Stopwatch refresh = Stopwatch.createStarted();
+            tidalCache.refresh(now);
+            metrics.time(refresh, NoGoStage.TIDAL_CACHE, getName());
+        }
+    }
+
+    /**
+     * Loads the sea level for the whole area at the given times
+     */
+    private GridSeriesResponse loadAreaTidal(List<Instant> times) {
+        GeoCoordinate northWest = new GeoCoordinate(gridData.getLo1(), gridData.getLa2());
+        GeoCoordinate southEast = new GeoCoordinate(gridData.getLo2(), gridData.getLa1());
+        return weatherService.getWeatherSeries(new GridSeriesRequest().setNorthWest(northWest).setSouthEast(southEast).setTimes(times)
+                .setParameters(new GridParameters().setSeaLevel(true))
+                .setNx(tidalPoints(gridData.getLo2() - gridData.getLo1())).setNy(tidalPoints(gridData.getLa2() - gridData.getLa1())));
+    }
+
+    /**
+     * @return the cached sea level for the request time, with a warning if the weather service was unavailable at the last refresh,
+     * or null if it isn't cached
+     */
+    private TidalInfo cachedTidal(Instant time) {
+        TidalQueryObject tidal = tidalCache != null ? tidalCache.get(time) : null;
+        if (tidal == null) {
+            return null;
+        }
+        if (tidalCache.isStale()) {
+            Instant creationDate = tidalCache.getCreationDate();
+            return TidalInfo.stale(tidal, creationDate != null ? "Forecast created " + creationDate : null);
+        }
+        return TidalInfo.of(tidal);
+    }
 
     @Override
     public String getName() {
@@ -57,56 +150,536 @@ public abstract class GridDataQueryArea implements QueryArea {
 
     @Override
     public CalculatedNoGoArea getNogoAreas(NoGoRequest request) {
+        return getNogoAreas(request, request.getTime() != null ? getTidalInfo(request) : TidalInfo.NONE);
+    }
+
+    /**
+     * Calculates the NoGo areas without blocking the calling thread. The tidal information is loaded asynchronously, and the calculation is
+     * done by the executor when it arrives.
+     * @param computeExecutor executor for the CPU bound part of the calculation
+     */
+    CompletableFuture<CalculatedNoGoArea> getNogoAreasAsync(NoGoRequest request, Executor computeExecutor) {
+        return getNogoAreasAsync(request, null, computeExecutor);
+    }
+
+    /**
+     * Calculates the NoGo areas in a corridor without blocking the calling thread, see {@link #getNogoAreas(NoGoRequest, Corridor, TidalInfo)}
+     * @param request the bounding box of the corridor in this area
+     * @param corridor the corridor, or null for the whole bounding box
+     */
+    CompletableFuture<CalculatedNoGoArea> getNogoAreasAsync(NoGoRequest request, Corridor corridor, Executor computeExecutor) {
+        CompletableFuture<TidalInfo> tidalInfo = request.getTime() != null ? getTidalInfoAsync(request) : CompletableFuture.completedFuture(TidalInfo.NONE);
+        return tidalInfo.thenApplyAsync(tidal -> corridor != null ? getNogoAreas(request, corridor, tidal) : getNogoAreas(request, tidal), computeExecutor);
+    }
+
+    /**
+     * Loads the sea level for the request area at the request time, or the lowest sea level in the time window of the request
+     */
+    TidalInfo getTidalInfo(NoGoRequest request) {
+        if (request.getEndTime() != null) {
+            return getTidalEnvelope(request);
+        }
+        Stopwatch tidal = Stopwatch.createStarted();
+        TidalInfo cached = cachedTidal(request.getTime());
+        if (cached != null) {
+            metrics.time(tidal, NoGoStage.TIDAL, getName());
+            return cached;
+        }
+        try {
+            GridResponse weather = weatherService.getWeather(tidalRequest(request));
+            metrics.time(tidal, NoGoStage.TIDAL, getName());
+            return loaded(request.getTime(), weather);
+        } catch (JsonErrorException | ResourceAccessException e) {
+            return tidalFailure(e, request, request.getTime());
+        }
+    }
+
+    /**
+     * Loads the sea level for the request area at the request time, without blocking the calling thread
+     */
+    CompletableFuture<TidalInfo> getTidalInfoAsync(NoGoRequest request) {
+        if (request.getEndTime() != null) {
+            return getTidalInfoAsync(request, envelopeTimes(request)).thenApply(TidalInfo::minimum);
+        }
+        Stopwatch tidal = Stopwatch.createStarted();
+        TidalInfo cached = cachedTidal(request.getTime());
+        if (cached != null) {
+            metrics.time(tidal, NoGoStage.TIDAL, getName());
+            return CompletableFuture.completedFuture(cached);
+        }
+        // the response is handled by a thread of the HTTP client, so the profile is carried over explicitly
+        RequestProfile profile = RequestProfile.current();
+        return weatherService.getWeatherAsync(tidalRequest(request)).handle((weather, e) -> RequestProfile.call(profile, () -> {
+            if (e != null) {
+                return tidalFailure(e instanceof CompletionException ? e.getCause() : e, request, request.getTime());
+            }
+            metrics.time(tidal, NoGoStage.TIDAL, getName());
+            return loaded(request.getTime(), weather);
+        }));
+    }
+
+    /**
+     * The lowest sea level in each weather point over the forecast hours in the time window. The NoGo areas are then calculated with a single
+     * classification and trace, and they are conservative, since a depth point which is NoGo at any hour in the window is NoGo at the lowest sea level.
+     */
+    private TidalInfo getTidalEnvelope(NoGoRequest request) {
+        return TidalInfo.minimum(getTidalInfo(request, envelopeTimes(request)));
+    }
+
+    /**
+     * @return the forecast hours in the time window of the request
+     */
+    private List<Instant> envelopeTimes(NoGoRequest request) {
+        List<Instant> times = new ArrayList<>();
+        Instant end = DefaultNoGoService.forecastHour(request.getEndTime());
+        for (Instant hour = DefaultNoGoService.forecastHour(request.getTime()); !hour.isAfter(end); hour = hour.plus(1, ChronoUnit.HOURS)) {
+            times.add(hour);
+        }
+        return times;
+    }
+
+    private GridRequest tidalRequest(NoGoRequest request) {
+        return new GridRequest().setNorthWest(request.getNorthWest()).setSouthEast(request.getSouthEast())
+                .setTime(request.getTime()).setParameters(new GridParameters().setSeaLevel(true))
+                .setNx(tidalPoints(request.getSouthEast().getLon() - request.getNorthWest().getLon()))
+                .setNy(tidalPoints(request.getNorthWest().getLat() - request.getSouthEast().getLat()));
+    }
+
+    /**
+     * @param distance the size of the request area in degrees
+     * @return the number of sea level points along the distance, or null for the native resolution
+     */
+    private Integer tidalPoints(double distance) {
+        if (tidalResolution <= 0) {
+            return null;
+        }
+        // at least two points, so the weather service can calculate the spacing
+        return Math.max(2, (int) Math.round(distance / tidalResolution) + 1);
+    }
+
+    /**
+     * If the weather service is unavailable (including when its circuit is open), we calculate with the sea level of the nearest hour which has
+     * been loaded for the area, see {@link #lastGoodTidal(NoGoRequest, Instant)}, or without tidal information, and warn the client.
+     * If the weather service answers with an error, e.g. because the time is outside the forecast, we calculate without tidal information.
+     */
+    private TidalInfo tidalFailure(Throwable e, NoGoRequest request, Instant time) {
+        log.warn("Failed to invoke remote weather service: " + e.getMessage());
+        return fallback(e, request, time);
+    }
+
+    private TidalInfo fallback(Throwable e, NoGoRequest request, Instant time) {
+        if (e instanceof JsonErrorException) {
+            return TidalInfo.missing(((JsonErrorException) e).getJSonError().getMessage());
+        }
+        if (e instanceof ResourceAccessException) {
+            TidalInfo lastGood = lastGoodTidal(request, time);
+            return lastGood != null ? lastGood : TidalInfo.missing("Weather service offline");
+        }
+        throw Throwables.propagate(e);
+    }
+
+    /**
+     * The sea level of the hour nearest to the time, from the cache, which covers the whole area, or from the fields loaded for earlier requests
+     * which cover the request area
+     * @return the sea level with a warning that it is stale, or null if there is none
+     */
+    private TidalInfo lastGoodTidal(NoGoRequest request, Instant time) {
+        Map.Entry<Instant, TidalQueryObject> field = tidalCache != null ? tidalCache.nearest(time) : null;
+        if (field == null) {
+            field = lastGood.nearest(time, request.getNorthWest().getLon(), request.getSouthEast().getLat(), request.getSouthEast().getLon(),
+                    request.getNorthWest().getLat());
+        }
+        return field != null ? TidalInfo.stale(field.getValue(), "Weather service offline, using the sea level at " + field.getKey()) : null;
+    }
+
+    /**
+     * @return the tidal info of a grid loaded from the weather service, which is kept as the last good sea level of the hour
+     */
+    private TidalInfo loaded(Instant time, GridResponse weather) {
+        TidalInfo tidalInfo = TidalInfo.of(weather);
+        lastGood.put(DefaultNoGoService.forecastHour(time), tidalInfo.getTidal().get());
+        return tidalInfo;
+    }
+
+    /**
+     * Loads the sea level for the request area at several times, with a single call to the weather service
+     * @return the tidal info for each time, in the same order as the times
+     */
+    List<TidalInfo> getTidalInfo(NoGoRequest request, List<Instant> times) {
+        Stopwatch tidal = Stopwatch.createStarted();
+        List<TidalInfo> cached = cachedTidal(times);
+        if (cached != null) {
+            metrics.time(tidal, NoGoStage.TIDAL, getName());
+            return cached;
+        }
+        try {
+            GridSeriesResponse series = weatherService.getWeatherSeries(tidalSeriesRequest(request, times));
+            metrics.time(tidal, NoGoStage.TIDAL, getName());
+            return tidalInfo(series, times);
+        } catch (JsonErrorException | ResourceAccessException e) {
+            return tidalFailure(e, request, times);
+        }
+    }
+
+    /**
+     * Loads the sea level for the request area at several times, without blocking the calling thread, see {@link #getTidalInfo(NoGoRequest, List)}
+     */
+    CompletableFuture<List<TidalInfo>> getTidalInfoAsync(NoGoRequest request, List<Instant> times) {
+        Stopwatch tidal = Stopwatch.createStarted();
+        List<TidalInfo> cached = cachedTidal(times);
+        if (cached != null) {
+            metrics.time(tidal, NoGoStage.TIDAL, getName());
+            return CompletableFuture.completedFuture(cached);
+        }
+        // the response is handled by a thread of the HTTP client, so the profile is carried over explicitly
+        RequestProfile profile = RequestProfile.current();
+        return weatherService.getWeatherSeriesAsync(tidalSeriesRequest(request, times)).handle((series, e) -> RequestProfile.call(profile, () -> {
+            if (e != null) {
+                return tidalFailure(e instanceof CompletionException ? e.getCause() : e, request, times);
+            }
+            metrics.time(tidal, NoGoStage.TIDAL, getName());
+            return tidalInfo(series, times);
+        }));
+    }
+
+    /**
+     * @return the cached tidal info for each time, or null unless all of them are cached
+     */
+    private List<TidalInfo> cachedTidal(List<Instant> times) {
+        List<TidalInfo> result = new ArrayList<>();
+        times.stream().map(this::cachedTidal).filter(Objects::nonNull).forEach(result::add);
+        return result.size() == times.size() ? result : null;
+    }
+
+    private GridSeriesRequest tidalSeriesRequest(NoGoRequest request, List<Instant> times) {
+        GridRequest tidalRequest = tidalRequest(request);
+        return new GridSeriesRequest().setNorthWest(request.getNorthWest()).setSouthEast(request.getSouthEast()).setTimes(times)
+                .setParameters(tidalRequest.getParameters()).setNx(tidalRequest.getNx()).setNy(tidalRequest.getNy());
+    }
+
+    private List<TidalInfo> tidalInfo(GridSeriesResponse series, List<Instant> times) {
+        List<TidalInfo> result = new ArrayList<>();
+        List<GridResponse> grids = series.getGrids();
+        for (int i = 0; i < grids.size(); i++) {
+            GridResponse weather = grids.get(i);
+            if (weather.getPoints() == null && weather.getData() == null) {
+                JSonWarning warning = weather.getWarning();
+                result.add(TidalInfo.missing(warning != null ? warning.getMessage() : null));
+            } else {
+                result.add(i < times.size() ? loaded(times.get(i), weather) : TidalInfo.of(weather));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * If the weather service fails, each time falls back like a single time, see {@link #tidalFailure(Throwable, NoGoRequest, Instant)}
+     */
+    private List<TidalInfo> tidalFailure(Throwable e, NoGoRequest request, List<Instant> times) {
+        log.warn("Failed to invoke remote weather service: " + e.getMessage());
+        List<TidalInfo> result = new ArrayList<>();
+        for (Instant time : times) {
+            result.add(fallback(e, request, time));
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the NoGo areas with tidal information which has already been loaded
+     */
+    CalculatedNoGoArea getNogoAreas(NoGoRequest request, TidalInfo tidalInfo) {
+        return getNogoAreas(request, createGrid(request), tidalInfo);
+    }
 
-        CalculatedNoGoArea noGoResponse = new CalculatedNoGoArea();
+    /**
+     * Calculates the NoGo areas with a depth grid and tidal information which have already been loaded
+     * @param request the request, the grid must have been created for the same area
+     * @param grid the depth grid, it is only read, so it can be shared between threads
+     */
+    CalculatedNoGoArea getNogoAreas(NoGoRequest request, DepthGrid grid, TidalInfo tidalInfo) {
+
+        Deadline.checkCurrent();
+        CalculatedNoGoArea noGoResponse = new CalculatedNoGoArea().setWarning(tidalInfo.getWarning());
 
         int requestId = this.nextRequestId.incrementAndGet();
-        log.info("processing request {}, input ", requestId, request);
-
-        Optional<TidalQueryObject> optionalWeather = Optional.empty();
-        if (request.getTime() != null) {
-            Stopwatch tidal = Stopwatch.createStarted();
-            try {
-                GridResponse weather = weatherService.getWeather(new GridRequest().setNorthWest(request.getNorthWest()).setSouthEast(request.getSouthEast())
-                        .setTime(request.getTime()).setParameters(new GridParameters().setSeaLevel(true)));
-                optionalWeather = Optional.of(new TidalQueryObject(weather));
-                log.info("loaded tidal info {}x{} for request {} in {} ms", weather.getNy(), weather.getNx(), requestId, tidal.stop().elapsed(TimeUnit.MILLISECONDS));
-            } catch (JsonErrorException e) {
-                WarningMessage warn = WarningMessage.MISSING_TIDAL_INFO;
-                noGoResponse.setWarning(new JSonWarning().setId(warn.getId()).setMessage(warn.getMessage()).setDetails(e.getJSonError().getMessage()));
-                log.warn("Failed to invoke remote weather service: " + e.getMessage());
-            } catch (ResourceAccessException e) {
-                WarningMessage warn = WarningMessage.MISSING_TIDAL_INFO;
-                noGoResponse.setWarning(new JSonWarning().setId(warn.getId()).setMessage(warn.getMessage()).setDetails("Weather service offline"));
-                log.warn("Failed to invoke remote weather service: " + e.getMessage());
+        log.debug("processing request {}, input {}", requestId, request);
+
+        // The data debugger will display a bitmap of the entire data grid and print the SVG from the vector conversion algorithm
+        //DataDebugger.showAsImage(gridData.getData(), gridData.getNx(), GridData.NO_DATA);
+
+        List<Geometry> polygons;
+        if (grid.getWindow() == null) {
+            polygons = trace(grid.getRows(), createMatcher(grid, request.getDraught(), tidalInfo));
+        } else {
+            polygons = withLand(traceWater(grid, request.getDraught(), tidalInfo), grid.getWindow());
+        }
+        metrics.distribution(polygons.size(), NoGoStage.POLYGONS, getName());
+        metrics.distribution(polygons.stream().mapToInt(Geometry::getNumPoints).sum(), NoGoStage.VERTICES, getName());
+        return noGoResponse.setNogoAreas(polygons);
+    }
+
+    /**
+     * Calculates the NoGo areas in a corridor. Only the cells close to the corridor are classified and traced, see {@link CorridorTrace}.
+     * The NoGo water is then clipped to the corridor, and joined with the land inside the corridor.
+     * @param request the bounding box of the corridor in this area
+     */
+    CalculatedNoGoArea getNogoAreas(NoGoRequest request, Corridor corridor, TidalInfo tidalInfo) {
+        Deadline.checkCurrent();
+        Stopwatch rasterize = Stopwatch.createStarted();
+        GridWindow window = window(request);
+        int[][] spans = corridor.rowSpans(window, gridData);
+        metrics.time(rasterize, NoGoStage.CORRIDOR, getName());
+        metrics.distribution(Arrays.stream(spans).mapToLong(Corridor::cells).sum(), NoGoStage.CELLS, getName());
+
+        CellClassifier classifier = classifier(window, request.getDraught(), tidalInfo);
+        List<Geometry> polygons = new CorridorTrace(gridData, classifier).trace(spans, (band, water) ->
+                depthIndex.shallowPart(band, classifier.getGoDepth()) == null ? new ArrayList<>() : traceWater(classifier, band, water));
+
+        GeometryFactory factory = new GeometryFactory();
+        Stopwatch clip = Stopwatch.createStarted();
+        List<Geometry> water = polygons.isEmpty() ? polygons : polygons(factory.buildGeometry(polygons).union().intersection(corridor.getGeometry()));
+        // only the land in the corridor, not all the land in its bounding box
+        List<Geometry> landInCorridor = land.clip(factory.toGeometry(envelope(window)).intersection(corridor.getGeometry()));
+        metrics.time(clip, NoGoStage.CORRIDOR_CLIP, getName());
+        List<Geometry> nogoAreas = withLand(water, landInCorridor);
+        metrics.distribution(nogoAreas.size(), NoGoStage.POLYGONS, getName());
+        metrics.distribution(nogoAreas.stream().mapToInt(Geometry::getNumPoints).sum(), NoGoStage.VERTICES, getName());
+        return new CalculatedNoGoArea().setWarning(tidalInfo.getWarning()).setNogoAreas(nogoAreas);
+    }
+
+    /**
+     * Checks a route against the depth data, without creating a depth grid or polygons. Only the cells visited by the legs are classified, see
+     * {@link RouteWalk}, with the sea level at the request time (or the lowest sea level in the time window). The walk and the classification
+     * run on the executor, and the sea level is loaded without blocking.
+     * @return the NoGo parts of the legs inside the area
+     */
+    CompletableFuture<RouteCheck> checkRouteAsync(RouteCheckRequest request, Executor computeExecutor) {
+        Stopwatch check = Stopwatch.createUnstarted();
+        return CompletableFuture.supplyAsync(() -> {
+            Deadline.checkCurrent();
+            check.start();
+            RouteWalk walk = new RouteWalk(gridData, request.getRoute());
+            check.stop();
+            return walk;
+        }, computeExecutor).thenCompose(walk -> {
+            GridWindow window = walk.getWindow();
+            CompletableFuture<TidalInfo> tidalInfo = window == null || request.getTime() == null ? CompletableFuture.completedFuture(TidalInfo.NONE) :
+                    getTidalInfoAsync(new NoGoRequest()
+                            .setNorthWest(new GeoCoordinate(lon(window.getStartX()), lat(window.getStartY() + window.getNy() - 1)))
+                            .setSouthEast(new GeoCoordinate(lon(window.getStartX() + window.getNx() - 1), lat(window.getStartY())))
+                            .setDraught(request.getDraught()).setTime(request.getTime()).setEndTime(request.getEndTime()));
+            return tidalInfo.thenApplyAsync(tidal -> {
+                Deadline.checkCurrent();
+                if (window == null) {
+                    return walk.classify(null, null);
+                }
+                check.start();
+                RouteCheck result = walk.classify(classifier(window, request.getDraught(), tidal), tidal.getWarning());
+                metrics.time(check, NoGoStage.ROUTE_CHECK, getName());
+                metrics.distribution(walk.getCells(), NoGoStage.ROUTE_CELLS, getName());
+                return result;
+            }, computeExecutor);
+        });
+    }
+
+    private double lon(int column) {
+        return gridData.getLo1() + column * gridData.getDx();
+    }
+
+    private double lat(int row) {
+        return gridData.getLa1() + row * gridData.getDy();
+    }
+
+    /**
+     * Traces the NoGo water of a grid created from the grid data, and the land bordering it, see {@link CellClassifier#water(GridWindow, CellClassifier.Cells)}.
+     * Only the part of the grid with water which may be NoGo is traced, see {@link #shallowPart(CellClassifier)}. The rest of the land is added
+     * by {@link #withLand(List, GridWindow)}.
+     */
+    List<Geometry> traceWater(DepthGrid grid, double draught, TidalInfo tidalInfo) {
+        CellClassifier classifier = classifier(grid.getWindow(), draught, tidalInfo);
+        GridWindow shallow = shallowPart(classifier);
+        return shallow == null ? new ArrayList<>() : traceWater(classifier, shallow, CellClassifier.ALL);
+    }
+
+    /**
+     * Traces the NoGo water of the cells, and the land bordering it. The points of the cells are created once, and the cells are classified
+     * from the depth data.
+     * @param cells cells inside the window of the classifier
+     * @param water the water cells which may be NoGo
+     */
+    List<Geometry> traceWater(CellClassifier classifier, GridWindow cells, CellClassifier.Cells water) {
+        boolean[][] matched = classifier.water(cells, water);
+        return trace(DepthGrid.points(gridData, cells), point -> matched[point.getY()][point.getX()]);
+    }
+
+    /**
+     * The part of the window of the classifier with water which may be NoGo, found with the depth quadtree. Only this part is traced, since the
+     * rest is land or deep enough for the draught at the lowest sea level. A margin of Go cells is kept around the part, so the outlines are the
+     * same as when tracing the whole window.
+     * @return the part, or null if there is no NoGo water in the window
+     */
+    GridWindow shallowPart(CellClassifier classifier) {
+        GridWindow window = classifier.getWindow();
+        GridWindow shallow = depthIndex.shallowPart(window, classifier.getGoDepth());
+        if (shallow == null) {
+            return null;
+        }
+        int minX = Math.max(window.getStartX(), shallow.getStartX() - TRACE_MARGIN);
+        int minY = Math.max(window.getStartY(), shallow.getStartY() - TRACE_MARGIN);
+        int maxX = Math.min(window.getStartX() + window.getNx() - 1, shallow.getStartX() + shallow.getNx() - 1 + TRACE_MARGIN);
+        int maxY = Math.min(window.getStartY() + window.getNy() - 1, shallow.getStartY() + shallow.getNy() - 1 + TRACE_MARGIN);
+        return new GridWindow(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * Classifies the cells of the window for the draught and sea level
+     */
+    CellClassifier classifier(GridWindow window, double draught, TidalInfo tidalInfo) {
+        return new CellClassifier(gridData, window, draught, tidalInfo, interpolation);
+    }
+
+    /**
+     * Joins the traced water with the land polygons inside the window. The land polygons do not overlap, so only those touching the water are
+     * unioned with it, the rest are added as they are.
+     */
+    List<Geometry> withLand(List<Geometry> water, GridWindow window) {
+        return withLand(water, land.clip(envelope(window)));
+    }
+
+    /**
+     * Joins the water with land polygons, which must not overlap each other
+     */
+    private List<Geometry> withLand(List<Geometry> water, List<Geometry> polygons) {
+        if (polygons.isEmpty() || water.isEmpty()) {
+            polygons.addAll(water);
+            return polygons;
+        }
+        Stopwatch union = Stopwatch.createStarted();
+        STRtree index = new STRtree();
+        water.forEach(polygon -> index.insert(polygon.getEnvelopeInternal(), polygon));
+        List<Geometry> joined = new ArrayList<>(water);
+        List<Geometry> result = new ArrayList<>();
+        for (Geometry polygon : polygons) {
+            @SuppressWarnings("unchecked")
+            List<Geometry> candidates = index.query(polygon.getEnvelopeInternal());
+            (candidates.stream().anyMatch(polygon::intersects) ? joined : result).add(polygon);
+        }
+        result.addAll(polygons(new GeometryFactory().buildGeometry(joined).union()));
+        metrics.time(union, NoGoStage.UNION, getName());
+        return result;
+    }
+
+    /**
+     * @return the polygons of the geometry, lines and points from touching edges are dropped
+     */
+    static List<Geometry> polygons(Geometry geometry) {
+        List<Geometry> polygons = new ArrayList<>();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Geometry part = geometry.getGeometryN(i);
+            if (part instanceof Polygon && !part.isEmpty()) {
+                polygons.add(part);
             }
         }
-        Stopwatch createGrid = Stopwatch.createStarted();
-        List<List<SouthKattegat>> grid = createGrid(request);
-        log.info("created {}x{} grid, request {} in {} ms", grid.size(), grid.get(0).size(), requestId,  createGrid.stop().elapsed(TimeUnit.MILLISECONDS));
+        return polygons;
+    }
+
+    /**
+     * The geographical area covered by the cells of the window
+     */
+    private Envelope envelope(GridWindow window) {
+        return envelope(gridData, window);
+    }
 
-        Double draught = request.getDraught();
+    static Envelope envelope(GridData gridData, GridWindow window) {
+        double dx = gridData.getDx();
+        double dy = gridData.getDy();
+        double west = gridData.getLo1() + (window.getStartX() - 0.5) * dx;
+        double south = gridData.getLa1() + (window.getStartY() - 0.5) * dy;
+        return new Envelope(west, west + window.getNx() * dx, south, south + window.getNy() * dy);
+    }
+
+    /**
+     * Traces the land of the whole grid, tile by tile. Neighbouring tiles share a row or column of cells, so the buffered outlines overlap, and
+     * the land is joined across the tiles.
+     */
+    private LandPolygons traceLand() {
+        List<Geometry> polygons = new ArrayList<>();
+        int step = LAND_TILE - 1;
+        for (int startY = 0; startY == 0 || startY < gridData.getNy() - 1; startY += step) {
+            for (int startX = 0; startX == 0 || startX < gridData.getNx() - 1; startX += step) {
+                GridWindow tile = new GridWindow(startX, startY, Math.min(LAND_TILE, gridData.getNx() - startX), Math.min(LAND_TILE, gridData.getNy() - startY));
+                if (hasLand(tile)) {
+                    polygons.addAll(trace(new DepthGrid(gridData, tile).getRows(), point -> point.getDepth() == null));
+                }
+            }
+        }
+        if (polygons.isEmpty()) {
+            return LandPolygons.NONE;
+        }
+        polygons = polygons(new GeometryFactory().buildGeometry(polygons).union());
+        log.info("Traced {} land polygons in area {}", polygons.size(), getName());
+        return new LandPolygons(polygons);
+    }
+
+    private boolean hasLand(GridWindow window) {
+        float[] data = gridData.getData();
+        for (int y = window.getStartY(); y < window.getStartY() + window.getNy(); y++) {
+            for (int x = window.getStartX(); x < window.getStartX() + window.getNx(); x++) {
+                if (data[y * gridData.getNx() + x] == GridData.NO_DATA) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 
-        Stopwatch nogoCalculation = Stopwatch.createStarted();
+    /**
+     * Creates a calculation of consecutive slices, where each slice patches the previous slice, see {@link IncrementalSlicer}
+     * @param grid the depth grid shared by all the slices
+     */
+    IncrementalSlicer incrementalSlicer(DepthGrid grid) {
+        return new IncrementalSlicer(this, depthIndex, grid, metrics, gridData.getDx(), gridData.getDy());
+    }
 
-        NoGoMatcher<SouthKattegat> noGoMatcher;
+    /**
+     * Creates the matcher which decides if a depth point is NoGo
+     * <p>
+     * With tidal information, only depth points within the tidal range of the draught need the sea level. Points that are too shallow at the
+     * highest sea level, or deep enough at the lowest, are classified by the depth alone, which is most of the points for any draught.
+     * @param grid the depth grid the matcher is used for, the sea level of its columns and rows is looked up once
+     */
+    NoGoMatcher<DepthPoint> createMatcher(DepthGrid grid, double draught, TidalInfo tidalInfo) {
+        Optional<TidalQueryObject> optionalWeather = tidalInfo.getTidal();
         if (optionalWeather.isPresent()) {
-            TidalQueryObject tidalQueryObject = optionalWeather.get();
-            noGoMatcher = southKattegat -> {
-                return southKattegat.getDepth() == null || -southKattegat.getDepth() + tidalQueryObject.getTidalHeight(southKattegat) < draught; // DB has altitude values so depth is negative
+            TidalQueryObject.Sampler tidal = optionalWeather.get().sampler(grid, interpolation);
+            // the band of water depths where the tide decides
+            double alwaysNoGo = draught - optionalWeather.get().getMaximum();
+            double alwaysGo = draught - optionalWeather.get().getMinimum();
+            return point -> {
+                if (point.getDepth() == null) {
+                    return true;
+                }
+                double depth = -point.getDepth(); // DB has altitude values so depth is negative
+                if (depth < alwaysNoGo) {
+                    return true;
+                }
+                if (depth >= alwaysGo) {
+                    return false;
+                }
+                return depth + tidal.getTidalHeight(point.getX(), point.getY()) < draught;
             };
         } else {
-            noGoMatcher = southKattegat -> {
-                return southKattegat.getDepth() == null || -southKattegat.getDepth() < draught; // DB has altitude values so depth is negative
+            return point -> {
+                return point.getDepth() == null || -point.getDepth() < draught; // DB has altitude values so depth is negative
             };
         }
+    }
 
-        // The data debugger will display a bitmap of the entire data grid and print the SVG from the vector conversion algorithm
-        //DataDebugger.showAsImage(gridData.getData(), gridData.getNx(), GridData.NO_DATA);
-
-        List<Geometry> polygons = noGoAlgorithm.getNoGo(grid, noGoMatcher, gridData);
-        log.info("Nogo grouping {}x{}, request {} in {} ms", grid.size(), grid.get(0).size(), requestId,  nogoCalculation.stop().elapsed(TimeUnit.MILLISECONDS));
-        return noGoResponse.setNogoAreas(polygons);
+    /**
+     * Traces the NoGo polygons of the grid, which may be a window of a depth grid
+     */
+    List<Geometry> trace(List<List<DepthPoint>> rows, NoGoMatcher<DepthPoint> noGoMatcher) {
+        return noGoAlgorithm.getNoGo(rows, noGoMatcher, gridData);
     }
 
     @Override
@@ -116,10 +689,9 @@ public abstract class GridDataQueryArea implements QueryArea {
     }
 
     /**
-     * Creates a grid of coordinate points with depth from the data file.
+     * Snaps the request area to the cells of the depth data. Requests with the same window use the same depth points.
      */
-    private List<List<SouthKattegat>> createGrid(NoGoRequest request) {
-
+    GridWindow window(NoGoRequest request) {
         GeoCoordinate northWest = request.getNorthWest();
         GeoCoordinate southEast = request.getSouthEast();
         double lonDistance = southEast.getLon() - northWest.getLon();
@@ -131,27 +703,26 @@ public abstract class GridDataQueryArea implements QueryArea {
         // so we don't exceed the area
         Nx = Math.min(Nx, gridData.getNx());
         Ny = Math.min(Ny, gridData.getNy());
-        float[] data = gridData.getData();
 
         int startY = (int) Math.floor((southEast.getLat() - gridData.getLa1()) / dy);
         int startX = (int) Math.floor((northWest.getLon() - gridData.getLo1()) / dx);
+        // a request ending at the north or east edge of the area, rounds up to a cell past the edge
+        Nx = Math.min(Nx, gridData.getNx() - startX);
+        Ny = Math.min(Ny, gridData.getNy() - startY);
+        return new GridWindow(startX, startY, Nx, Ny);
+    }
 
-        List<List<SouthKattegat>> grid = new ArrayList<>();
-        for (int row = 0; row < Ny; row++) {
-            ArrayList<SouthKattegat> rowData = new ArrayList<>();
-            for (int col = 0; col < Nx; col++) {
-                float datum = data[(row + startY) * gridData.getNx() + (startX + col)];
-                SouthKattegat southKattegat = new SouthKattegat();
-                if (datum != GridData.NO_DATA) {
-                    southKattegat.setDepth((double) datum);
-                }
-                southKattegat.setLat((startY+row) * dy + gridData.getLa1());
-                southKattegat.setLon( (startX + col) * dx + gridData.getLo1());
-                rowData.add(southKattegat);
-            }
-            grid.add(rowData);
-        }
+    /**
+     * Creates a grid of coordinate points with depth from the data file. The points are created when they are read, see {@link DepthGrid}
+     */
+    DepthGrid createGrid(NoGoRequest request) {
+        Stopwatch createGrid = Stopwatch.createStarted();
+
+        GridWindow window = window(request);
+        DepthGrid grid = new DepthGrid(gridData, window);
 
+        metrics.time(createGrid, NoGoStage.GRID, getName());
+        metrics.distribution(window.getNx() * window.getNy(), NoGoStage.CELLS, getName());
         return grid;
     }
 
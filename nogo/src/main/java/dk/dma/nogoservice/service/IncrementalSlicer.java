@@ -0,0 +1,308 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import dk.dma.nogoservice.dto.NoGoRequest;
+import dk.dma.nogoservice.entity.DepthPoint;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calculates consecutive slices of the same area and draught, using that the sea level only changes a little between slices, so only the
+ * cells close to the draught threshold change between NoGo and Go.
+ * <p>
+ * Like a single calculation, only the NoGo water (and the land bordering it) is traced, and the land polygons of the area are added to each slice.
+ * The first slice traces the shallow part of the grid. For each of the following slices, only the water cells of the {@link DepthQuadtree} leaves
+ * which may be NoGo at either sea level are classified and compared with the previous slice, straight from the depth data. The
+ * flipped cells are grouped in blocks, and each group of blocks becomes a window which is traced with a margin (so the outline inside the window
+ * is not affected by the window edge). The previous NoGo polygons which intersect a window are then patched, previous - window + (traced &cap; window),
+ * found with an STRtree, and the other polygons are kept as they are. If too large a part of the grid changed, the shallow part is traced again instead.
+ * <p>
+ * Slices must be calculated in order. The patched slices are classified from the same cells as a full trace, but the outline can differ slightly
+ * at the window edges, and the polygons are unioned, so they can be split differently than with a full trace. That is why it is opt-in.
+ */
+@Slf4j
+class IncrementalSlicer {
+
+    /**
+     * size (in cells) of the blocks used to group flipped cells
+     */
+    static final int BLOCK = 16;
+    /**
+     * cells added around the flipped blocks, since a flipped cell also changes the outline of its neighbours
+     */
+    static final int CLIP_MARGIN = 2;
+    /**
+     * cells traced outside the window, so the window edge does not affect the outline inside the window
+     */
+    static final int TRACE_MARGIN = 4;
+    /**
+     * when more than this fraction of the grid has to be retraced, we just trace the full grid
+     */
+    static final double MAX_WINDOW_FRACTION = 0.25;
+
+    private final GridDataQueryArea area;
+    private final DepthQuadtree depthIndex;
+    private final DepthGrid grid;
+    private final NoGoMetrics metrics;
+    private final double dx;
+    private final double dy;
+    private final GeometryFactory factory = new GeometryFactory();
+
+    private int nextSlice;
+    private CellClassifier previousClassifier;
+    private List<Geometry> previousWater;
+
+    /**
+     * @param depthIndex the depth quadtree of the grid data of the area
+     * @param grid the depth grid, created from the grid data of the area
+     * @param metrics records the time of each slice, and the number of cells retraced
+     */
+    IncrementalSlicer(GridDataQueryArea area, DepthQuadtree depthIndex, DepthGrid grid, NoGoMetrics metrics, double dx, double dy) {
+        Preconditions.checkArgument(grid.getWindow() != null, "The grid must be created from the grid data");
+        this.area = area;
+        this.depthIndex = depthIndex;
+        this.grid = grid;
+        this.metrics = metrics;
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    /**
+     * Calculates the next slice
+     * @param slice the index of the slice, must be the slice following the previous call
+     * @param request the request for the slice, the grid must have been created for the same area
+     * @param tidalInfo the tidal information for the slice
+     */
+    synchronized CalculatedNoGoArea next(int slice, NoGoRequest request, TidalInfo tidalInfo) {
+        Preconditions.checkState(slice == nextSlice, "Incremental slices must be calculated in order, expected slice %s but got %s", nextSlice, slice);
+        nextSlice++;
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        CellClassifier classifier = area.classifier(grid.getWindow(), request.getDraught(), tidalInfo);
+
+        List<Geometry> water;
+        if (previousClassifier == null) {
+            water = polygons(union(area.traceWater(grid, request.getDraught(), tidalInfo)));
+            metrics.time(stopwatch, NoGoStage.SLICE, "trace", area.getName());
+        } else {
+            List<Window> windows = findWindows(previousClassifier, classifier);
+            long windowCells = windows.stream().mapToLong(Window::cells).sum();
+            if (windowCells > MAX_WINDOW_FRACTION * grid.getNx() * grid.getNy()) {
+                water = polygons(union(area.traceWater(grid, request.getDraught(), tidalInfo)));
+                metrics.time(stopwatch, NoGoStage.SLICE, "trace", area.getName());
+            } else {
+                try {
+                    water = patch(previousWater, windows, classifier);
+                    metrics.time(stopwatch, NoGoStage.SLICE, "patch", area.getName());
+                    metrics.distribution(windowCells, NoGoStage.SLICE_CELLS, area.getName());
+                } catch (TopologyException e) {
+                    log.warn("Incremental slice {} could not be patched, falling back to a full trace. {}", slice, e.getMessage());
+                    water = polygons(union(area.traceWater(grid, request.getDraught(), tidalInfo)));
+                    metrics.time(stopwatch, NoGoStage.SLICE, "trace", area.getName());
+                }
+            }
+        }
+        previousClassifier = classifier;
+        previousWater = water;
+        return new CalculatedNoGoArea().setWarning(tidalInfo.getWarning()).setNogoAreas(area.withLand(water, grid.getWindow()));
+    }
+
+    /**
+     * Groups the flipped cells in blocks, and returns a window for each group of connected blocks. Windows which are so close that their traces
+     * would overlap are merged.
+     * <p>
+     * Land is always NoGo, so only water flips, and the bordering land which is traced with it is inside the clip margin. Water at least as deep
+     * as the Go depth of both slices is Go in both, so only the water of the quadtree leaves shallower than that is compared.
+     */
+    List<Window> findWindows(CellClassifier previous, CellClassifier current) {
+        GridWindow cells = grid.getWindow();
+        int ny = grid.getNy();
+        int nx = grid.getNx();
+        int blocksY = (ny + BLOCK - 1) / BLOCK;
+        int blocksX = (nx + BLOCK - 1) / BLOCK;
+        boolean[][] flipped = new boolean[blocksY][blocksX];
+        for (GridWindow leaf : depthIndex.shallowLeaves(cells, Math.max(previous.getGoDepth(), current.getGoDepth()))) {
+            for (int y = leaf.getStartY(); y < leaf.getStartY() + leaf.getNy(); y++) {
+                for (int x = leaf.getStartX(); x < leaf.getStartX() + leaf.getNx(); x++) {
+                    if (!current.isLand(x, y) && current.isNoGo(x, y) != previous.isNoGo(x, y)) {
+                        flipped[(y - cells.getStartY()) / BLOCK][(x - cells.getStartX()) / BLOCK] = true;
+                    }
+                }
+            }
+        }
+
+        List<Window> windows = new ArrayList<>();
+        boolean[][] visited = new boolean[blocksY][blocksX];
+        for (int by = 0; by < blocksY; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                if (flipped[by][bx] && !visited[by][bx]) {
+                    windows.add(toCells(connectedBlocks(flipped, visited, by, bx), ny, nx));
+                }
+            }
+        }
+
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            outer:
+            for (int i = 0; i < windows.size(); i++) {
+                for (int j = i + 1; j < windows.size(); j++) {
+                    if (windows.get(i).overlaps(windows.get(j), 2 * TRACE_MARGIN)) {
+                        windows.set(i, windows.get(i).merge(windows.get(j)));
+                        windows.remove(j);
+                        merged = true;
+                        break outer;
+                    }
+                }
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Flood fill (8 connected) the flipped blocks from the start block
+     * @return the bounding box of the blocks
+     */
+    private Window connectedBlocks(boolean[][] flipped, boolean[][] visited, int startY, int startX) {
+        Window box = new Window(startY, startX, startY, startX);
+        List<int[]> stack = new ArrayList<>();
+        stack.add(new int[]{startY, startX});
+        visited[startY][startX] = true;
+        while (!stack.isEmpty()) {
+            int[] block = stack.remove(stack.size() - 1);
+            box = box.merge(new Window(block[0], block[1], block[0], block[1]));
+            for (int y = Math.max(0, block[0] - 1); y <= Math.min(flipped.length - 1, block[0] + 1); y++) {
+                for (int x = Math.max(0, block[1] - 1); x <= Math.min(flipped[0].length - 1, block[1] + 1); x++) {
+                    if (flipped[y][x] && !visited[y][x]) {
+                        visited[y][x] = true;
+                        stack.add(new int[]{y, x});
+                    }
+                }
+            }
+        }
+        return box;
+    }
+
+    private Window toCells(Window blocks, int ny, int nx) {
+        return new Window(Math.max(0, blocks.minY * BLOCK - CLIP_MARGIN), Math.max(0, blocks.minX * BLOCK - CLIP_MARGIN),
+                Math.min(ny - 1, (blocks.maxY + 1) * BLOCK - 1 + CLIP_MARGIN), Math.min(nx - 1, (blocks.maxX + 1) * BLOCK - 1 + CLIP_MARGIN));
+    }
+
+    /**
+     * Replaces the NoGo water inside the windows, with a new trace of each window. Only the polygons which intersect a window are patched.
+     */
+    private List<Geometry> patch(List<Geometry> water, List<Window> windows, CellClassifier classifier) {
+        STRtree index = new STRtree();
+        for (int i = 0; i < water.size(); i++) {
+            index.insert(water.get(i).getEnvelopeInternal(), i);
+        }
+        boolean[] affected = new boolean[water.size()];
+        List<Geometry> clips = new ArrayList<>();
+        List<Geometry> traced = new ArrayList<>();
+        for (Window window : windows) {
+            Geometry clip = clip(window);
+            clips.add(clip);
+            for (Object i : index.query(clip.getEnvelopeInternal())) {
+                affected[(Integer) i] = true;
+            }
+            int minY = Math.max(0, window.minY - TRACE_MARGIN);
+            int maxY = Math.min(grid.getNy() - 1, window.maxY + TRACE_MARGIN);
+            int minX = Math.max(0, window.minX - TRACE_MARGIN);
+            int maxX = Math.min(grid.getNx() - 1, window.maxX + TRACE_MARGIN);
+            GridWindow cells = new GridWindow(grid.getWindow().getStartX() + minX, grid.getWindow().getStartY() + minY, maxX - minX + 1, maxY - minY + 1);
+            traced.add(union(area.traceWater(classifier, cells, CellClassifier.ALL)).intersection(clip));
+        }
+
+        List<Geometry> patched = new ArrayList<>();
+        List<Geometry> parts = new ArrayList<>();
+        for (int i = 0; i < water.size(); i++) {
+            (affected[i] ? parts : patched).add(water.get(i));
+        }
+        // the polygons which are not affected don't touch the windows, so they can't be joined with the traced water
+        Geometry outside = union(parts).difference(union(clips));
+        traced.add(outside);
+        patched.addAll(polygons(union(traced)));
+        return patched;
+    }
+
+    /**
+     * The geographical rectangle covered by the window cells. At the edge of the grid the rectangle is extended, so it also covers the buffer
+     * added to the polygons.
+     */
+    private Geometry clip(Window window) {
+        List<List<DepthPoint>> rows = grid.getRows();
+        DepthPoint southWest = rows.get(window.minY).get(window.minX);
+        DepthPoint northEast = rows.get(window.maxY).get(window.maxX);
+        double west = southWest.getLon() - dx * (window.minX == 0 ? 2 : 0.5);
+        double south = southWest.getLat() - dy * (window.minY == 0 ? 2 : 0.5);
+        double east = northEast.getLon() + dx * (window.maxX == grid.getNx() - 1 ? 2 : 0.5);
+        double north = northEast.getLat() + dy * (window.maxY == grid.getNy() - 1 ? 2 : 0.5);
+        return factory.toGeometry(new Envelope(west, east, south, north));
+    }
+
+    private Geometry union(List<Geometry> geometries) {
+        if (geometries.isEmpty()) {
+            return factory.createGeometryCollection(new Geometry[0]);
+        }
+        return factory.buildGeometry(geometries).union();
+    }
+
+    private List<Geometry> polygons(Geometry geometry) {
+        List<Geometry> polygons = new ArrayList<>();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Geometry part = geometry.getGeometryN(i);
+            if (part instanceof Polygon && !part.isEmpty()) {
+                polygons.add(part);
+            }
+        }
+        return polygons;
+    }
+
+    /**
+     * Rectangle of cells (or blocks), inclusive
+     */
+    static final class Window {
+        final int minY;
+        final int minX;
+        final int maxY;
+        final int maxX;
+
+        Window(int minY, int minX, int maxY, int maxX) {
+            this.minY = minY;
+            this.minX = minX;
+            this.maxY = maxY;
+            this.maxX = maxX;
+        }
+
+        Window merge(Window other) {
+            return new Window(Math.min(minY, other.minY), Math.min(minX, other.minX), Math.max(maxY, other.maxY), Math.max(maxX, other.maxX));
+        }
+
+        boolean overlaps(Window other, int margin) {
+            return minY <= other.maxY + margin && other.minY <= maxY + margin && minX <= other.maxX + margin && other.minX <= maxX + margin;
+        }
+
+        long cells() {
+            return (long) (maxY - minY + 1) * (maxX - minX + 1);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The land (NO_DATA) of a depth grid as polygons, which are traced once when the area is loaded. Land is NoGo for any draught and sea level,
+ * so requests only trace the water, and take the land from here.
+ * <p>
+ * The polygons are indexed, so a request only looks at the polygons overlapping its envelope, or the envelope of its corridor.
+ */
+final class LandPolygons {
+
+    static final LandPolygons NONE = new LandPolygons(new ArrayList<>());
+
+    private final GeometryFactory factory = new GeometryFactory();
+    private final STRtree index = new STRtree();
+    private final int size;
+
+    /**
+     * @param polygons the land polygons, they must not overlap
+     */
+    LandPolygons(List<Geometry> polygons) {
+        for (Geometry polygon : polygons) {
+            index.insert(polygon.getEnvelopeInternal(), polygon);
+        }
+        size = polygons.size();
+        index.build();
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param envelope the geographical area
+     * @return the land inside the envelope, polygons crossing the envelope are clipped
+     */
+    List<Geometry> clip(Envelope envelope) {
+        return clip(factory.toGeometry(envelope));
+    }
+
+    /**
+     * @param area the geographical area, e.g. a route corridor
+     * @return the land inside the area, polygons crossing the edge of the area are clipped
+     */
+    List<Geometry> clip(Geometry area) {
+        List<Geometry> clipped = new ArrayList<>();
+        if (size == 0) {
+            return clipped;
+        }
+        PreparedGeometry clip = PreparedGeometryFactory.prepare(area);
+        @SuppressWarnings("unchecked")
+        List<Geometry> candidates = index.query(area.getEnvelopeInternal());
+        for (Geometry polygon : candidates) {
+            if (clip.contains(polygon)) {
+                clipped.add(polygon);
+            } else if (clip.intersects(polygon)) {
+                Geometry intersection = area.intersection(polygon);
+                for (int i = 0; i < intersection.getNumGeometries(); i++) {
+                    Geometry part = intersection.getGeometryN(i);
+                    if (part instanceof Polygon && !part.isEmpty()) {
+                        clipped.add(part);
+                    }
+                }
+            }
+        }
+        return clipped;
+    }
+}
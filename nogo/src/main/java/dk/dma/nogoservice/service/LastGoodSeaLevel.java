@@ -0,0 +1,68 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The last sea level fields which were loaded for the request areas of a bathymetry area, so a request can fall back to the sea level of the
+ * nearest hour when the weather service is unavailable, also when the hour is not in the {@link SeaLevelCache}, or the cache is disabled.
+ * <p>
+ * A few fields are kept for each forecast hour, since requests cover different parts of the area, and the fields of the hours furthest in the
+ * past are dropped first.
+ */
+class LastGoodSeaLevel {
+
+    static final int MAX_HOURS = 48;
+    static final int FIELDS_PER_HOUR = 4;
+
+    private final ConcurrentNavigableMap<Instant, List<TidalQueryObject>> fields = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param hour the forecast hour of the field
+     */
+    void put(Instant hour, TidalQueryObject field) {
+        List<TidalQueryObject> hourFields = fields.computeIfAbsent(hour, h -> new CopyOnWriteArrayList<>());
+        hourFields.add(0, field);
+        while (hourFields.size() > FIELDS_PER_HOUR) {
+            hourFields.remove(hourFields.size() - 1);
+        }
+        while (fields.size() > MAX_HOURS) {
+            fields.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Finds the field of the hour nearest to the time, which covers the request area
+     * @return the hour and the field, or null if no field covers the area
+     */
+    Map.Entry<Instant, TidalQueryObject> nearest(Instant time, double west, double south, double east, double north) {
+        List<Instant> hours = new ArrayList<>(fields.keySet());
+        hours.sort(Comparator.comparing(hour -> Duration.between(hour, time).abs()));
+        for (Instant hour : hours) {
+            for (TidalQueryObject field : fields.getOrDefault(hour, Collections.emptyList())) {
+                if (field.covers(west, south, east, north)) {
+                    return new AbstractMap.SimpleImmutableEntry<>(hour, field);
+                }
+            }
+        }
+        return null;
+    }
+}
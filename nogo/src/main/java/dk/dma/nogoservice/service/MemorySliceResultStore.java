@@ -0,0 +1,61 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the slice results in memory, bounded by the total number of vertices. When the bound is reached the least recently used results are
+ * discarded, and the client gets a 404 for them.
+ */
+@Component
+@ConditionalOnProperty(name = "nogo.slicing.store.type", havingValue = "memory", matchIfMissing = true)
+public class MemorySliceResultStore implements SliceResultStore {
+
+    private final Cache<String, ResourceProcessingResult> cache;
+
+    @Autowired
+    public MemorySliceResultStore(@Value("${nogo.slicing.store.maxVertices:2000000}") long maxVertices) {
+        // a single segment, Guava splits the weight between the segments, so a result larger than a segment would be evicted right away
+        cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maxVertices)
+                .weigher((String id, ResourceProcessingResult result) -> SliceResultStore.weight(result))
+                .expireAfterAccess(EXPIRY_MINUTES, TimeUnit.MINUTES)
+                .build();
+    }
+
+    @Override
+    public void put(String id, ResourceProcessingResult result) {
+        cache.put(id, result);
+    }
+
+    @Override
+    public ResourceProcessingResult get(String id) {
+        return cache.getIfPresent(id);
+    }
+
+    @Override
+    public void remove(String id) {
+        cache.invalidate(id);
+    }
+}
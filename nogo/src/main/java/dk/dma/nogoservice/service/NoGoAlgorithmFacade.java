@@ -33,10 +33,12 @@ import java.util.List;
 public class NoGoAlgorithmFacade {
 
     private final FigureTransformer figureTransformer;
+    private final NoGoMetrics metrics;
 
     @Autowired
-    public NoGoAlgorithmFacade(FigureTransformer figureTransformer) {
+    public NoGoAlgorithmFacade(FigureTransformer figureTransformer, NoGoMetrics metrics) {
         this.figureTransformer = figureTransformer;
+        this.metrics = metrics;
     }
 
     <Value extends GeoCoordinateProvider> List<Geometry> getNoGo(List<List<Value>> grid, NoGoMatcher<Value> matcher, GridData gridData) {
@@ -47,13 +49,13 @@ public class NoGoAlgorithmFacade {
 
     private <Value extends GeoCoordinateProvider> List<Geometry> vectorGrouping(List<List<Value>> grid, NoGoMatcher<Value> matcher, GridData gridData) {
         AreaGroupingAlgorithm<Value> algo = new VectorGraphicAreaGroupingAlgorithm<>(grid, matcher);
-        List<Geometry> figures = algo.getFigures();
-        return figureTransformer.convertToGeoLocations(grid, figures, gridData);
+        List<Geometry> figures = metrics.time(algo::getFigures, NoGoStage.GROUPING, "vector", gridData.getName());
+        return metrics.time(() -> figureTransformer.convertToGeoLocations(grid, figures, gridData), NoGoStage.GEO, "vector", gridData.getName());
     }
 
     private <Value extends GeoCoordinateProvider> List<Geometry> lineGrouping(List<List<Value>> grid, NoGoMatcher<Value> matcher, GridData gridData) {
         AreaGroupingAlgorithm<Value> algo = new LineBasedAreaGroupingAlgorithm<>(grid, matcher, new DefaultPolygonOptimizer());
-        List<Geometry> figures = algo.getFigures();
-        return figureTransformer.convertToGeoLocations(grid, figures, gridData);
+        List<Geometry> figures = metrics.time(algo::getFigures, NoGoStage.GROUPING, "line", gridData.getName());
+        return metrics.time(() -> figureTransformer.convertToGeoLocations(grid, figures, gridData), NoGoStage.GEO, "line", gridData.getName());
     }
 }
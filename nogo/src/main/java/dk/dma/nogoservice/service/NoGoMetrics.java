@@ -0,0 +1,86 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.base.Stopwatch;
+import dk.dma.nogoservice.RequestProfile;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Latency and size metrics for the stages of the NoGo calculation. Spring Boot records metrics with the prefix "timer." and "histogram." in
+ * Dropwizard timers and histograms, so /metrics shows the count, mean and percentiles of each stage, not just the last value.
+ * <p>
+ * Actuator metrics have no tags, so the area name and the grouping algorithm are part of the metric name, e.g.
+ * timer.nogo.grouping.vector.Flintrannan or histogram.nogo.vertices.Flintrannan. The stages are also recorded in the {@link RequestProfile} of the
+ * current thread, if the request is profiled. The metrics are listed in {@link NoGoStage}.
+ */
+@Component
+public class NoGoMetrics {
+
+    /**
+     * Discards all metrics, for code that runs outside the spring context
+     */
+    public static final NoGoMetrics NONE = new NoGoMetrics(null);
+
+    private final GaugeService gaugeService;
+
+    @Autowired
+    public NoGoMetrics(GaugeService gaugeService) {
+        this.gaugeService = gaugeService;
+    }
+
+    /**
+     * Records the elapsed time of the stopwatch, which keeps running
+     * @param stage the stage of the calculation, and optionally the tags
+     */
+    public void time(Stopwatch stopwatch, NoGoStage stage, String... tags) {
+        submit("timer.nogo.", stage, tags, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    }
+
+    public <T> T time(Supplier<T> work, NoGoStage stage, String... tags) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        T result = work.get();
+        time(stopwatch, stage, tags);
+        return result;
+    }
+
+    /**
+     * Records a value in the distribution of a size, e.g. the number of grid cells
+     */
+    public void distribution(long value, NoGoStage stage, String... tags) {
+        submit("histogram.nogo.", stage, tags, value);
+    }
+
+    private void submit(String prefix, NoGoStage stage, String[] tags, long value) {
+        RequestProfile profile = RequestProfile.current();
+        if (profile != null) {
+            profile.record(stage, tags, value);
+        }
+        if (gaugeService == null) {
+            return;
+        }
+        StringBuilder metric = new StringBuilder(prefix).append(stage.getMetricName());
+        for (String tag : tags) {
+            // the tags are part of the name, so they must not contain the separator
+            metric.append('.').append(tag.replaceAll("[^A-Za-z0-9_-]", "_"));
+        }
+        gaugeService.submit(metric.toString(), value);
+    }
+}
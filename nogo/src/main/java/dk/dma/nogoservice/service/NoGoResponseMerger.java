@@ -18,6 +18,7 @@ import com.google.common.collect.*;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
 import dk.dma.common.dto.JSonWarning;
+import dk.dma.nogoservice.Deadline;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import org.springframework.stereotype.Component;
@@ -75,6 +76,7 @@ public class NoGoResponseMerger {
 
             // take all the nogo areas and calculate the intersection with the exclusive zone
             for (Geometry nogoArea : nogoAreas) {
+                Deadline.checkCurrent();
                 Geometry result = nogoArea;
                 for (Geometry otherArea : otherAreas) {
                     if (otherArea.intersects(nogoArea)) {
@@ -101,6 +103,7 @@ public class NoGoResponseMerger {
         Set<Overlap> overlapCombinations = calculateOverlapCombinations(areas);
 
         for (Overlap overlapCombination : overlapCombinations) {
+            Deadline.checkCurrent();
             Geometry exclusiveOverlapArea = overlapCombination.getExclusiveArea();
 
             List<Geometry> nogoAreas = new ArrayList<>();
@@ -17,6 +17,10 @@ package dk.dma.nogoservice.service;
 import dk.dma.nogoservice.dto.*;
 
 import javax.validation.Valid;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * @author Klaus Groenbaek
@@ -25,4 +29,48 @@ import javax.validation.Valid;
 public interface NoGoService {
     NoGoResponse getNoGoAreas(@Valid NoGoRequest request);
     AreaInfos getInfo();
+
+    /**
+     * Calculates the NoGo areas without blocking the calling thread. The default implementation makes a normal request on the executor.
+     * @param request the request
+     * @param computeExecutor executor for the CPU bound part of the calculation
+     */
+    default CompletableFuture<NoGoResponse> getNoGoAreasAsync(NoGoRequest request, Executor computeExecutor) {
+        return CompletableFuture.supplyAsync(() -> getNoGoAreas(request), computeExecutor);
+    }
+
+    /**
+     * Calculates the NoGo areas in a corridor along a route, without blocking the calling thread. The default implementation calculates the
+     * NoGo areas of the bounding box of the corridor.
+     * @param request the route and the corridor width
+     * @param computeExecutor executor for the CPU bound part of the calculation
+     */
+    default CompletableFuture<NoGoResponse> getNoGoAreasAsync(NoGoRouteRequest request, Executor computeExecutor) {
+        return getNoGoAreasAsync(Corridor.of(request.getRoute(), request.getCorridorWidth()).boundingBox(request), computeExecutor);
+    }
+
+    /**
+     * Checks if a route is safe for the draught, without blocking the calling thread. The default implementation calculates the NoGo areas in
+     * a narrow corridor along the route, and intersects the legs with them, implementations should check the route without the polygons.
+     * @param request the route, draught and time
+     * @param computeExecutor executor for the CPU bound part of the check
+     */
+    default CompletableFuture<RouteCheckResponse> checkRouteAsync(@Valid RouteCheckRequest request, Executor computeExecutor) {
+        NoGoRouteRequest corridor = new NoGoRouteRequest().setRoute(request.getRoute()).setCorridorWidth(1.0).setDraught(request.getDraught())
+                .setTime(request.getTime()).setEndTime(request.getEndTime());
+        return getNoGoAreasAsync(corridor, computeExecutor).thenApplyAsync(nogo -> RouteCheck.crossing(request.getRoute(), nogo), computeExecutor);
+    }
+
+    /**
+     * Prepares the calculation of the same area and draught at several times, so implementations can share the work that is the same
+     * for all slices. The default implementation just makes a normal request for each slice.
+     * @param request the area and draught, the time is ignored
+     * @param times the time of each slice
+     * @param incremental if true, each slice may be calculated from the changes since the previous slice, and the slices must then be
+     *                    calculated in order
+     */
+    default SliceCalculation prepareSlices(NoGoRequest request, List<Instant> times, boolean incremental) {
+        return slice -> getNoGoAreas(new NoGoRequest().setNorthWest(request.getNorthWest()).setSouthEast(request.getSouthEast())
+                .setDraught(request.getDraught()).setTime(times.get(slice)));
+    }
 }
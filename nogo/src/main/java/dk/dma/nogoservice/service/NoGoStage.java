@@ -0,0 +1,110 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+/**
+ * The stages and sizes recorded by {@link NoGoMetrics}, and in the {@link dk.dma.nogoservice.RequestProfile} of a profiled request. The name is
+ * the metric name after the "timer.nogo." or "histogram.nogo." prefix, the tags follow it.
+ */
+public enum NoGoStage {
+
+    /**
+     * timer.nogo.tidal.[area], loading the sea level from the weather service
+     */
+    TIDAL("tidal"),
+    /**
+     * timer.nogo.tidalCache.[area], refreshing the sea level cache, this runs in the background
+     */
+    TIDAL_CACHE("tidalCache"),
+    /**
+     * timer.nogo.grid.[area], creating the depth grid
+     */
+    GRID("grid"),
+    /**
+     * histogram.nogo.cells.[area], the number of cells in the depth grid, or in the corridor
+     */
+    CELLS("cells"),
+    /**
+     * timer.nogo.grouping.[algorithm].[area], tracing the NoGo figures in the grid
+     */
+    GROUPING("grouping"),
+    /**
+     * timer.nogo.geo.[algorithm].[area], converting the figures to geo locations
+     */
+    GEO("geo"),
+    /**
+     * timer.nogo.land.[area], tracing the land of the area, once when the area is loaded
+     */
+    LAND("land"),
+    /**
+     * timer.nogo.union.[area], joining the traced NoGo water with the land polygons it touches
+     */
+    UNION("union"),
+    /**
+     * timer.nogo.corridor.[area], finding the cells inside a route corridor
+     */
+    CORRIDOR("corridor"),
+    /**
+     * timer.nogo.corridorClip.[area], clipping the NoGo water and the land to a route corridor
+     */
+    CORRIDOR_CLIP("corridorClip"),
+    /**
+     * timer.nogo.routeCheck.[area], walking the route over the depth grid
+     */
+    ROUTE_CHECK("routeCheck"),
+    /**
+     * histogram.nogo.routeCells.[area], the number of cells the route passes
+     */
+    ROUTE_CELLS("routeCells"),
+    /**
+     * timer.nogo.slice.[trace|patch].[area], calculating an incremental slice, by tracing the shallow part of the grid, or by patching the
+     * previous slice
+     */
+    SLICE("slice"),
+    /**
+     * histogram.nogo.sliceCells.[area], the number of cells retraced to patch an incremental slice
+     */
+    SLICE_CELLS("sliceCells"),
+    /**
+     * histogram.nogo.polygons.[area], the number of NoGo polygons
+     */
+    POLYGONS("polygons"),
+    /**
+     * histogram.nogo.vertices.[area], the number of vertices in the NoGo polygons
+     */
+    VERTICES("vertices"),
+    /**
+     * timer.nogo.merge, merging the sections of the matched areas into the response
+     */
+    MERGE("merge"),
+    /**
+     * timer.nogo.request.[format], the time until the response is ready
+     */
+    REQUEST("request"),
+    /**
+     * timer.nogo.serialization.[format], writing the response
+     */
+    SERIALIZATION("serialization");
+
+    private final String metricName;
+
+    NoGoStage(String metricName) {
+        this.metricName = metricName;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+}
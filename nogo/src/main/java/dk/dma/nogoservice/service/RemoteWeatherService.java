@@ -20,46 +20,166 @@ import dk.dma.common.dto.JSonError;
 import dk.dma.common.dto.JsonErrorException;
 import dk.dma.dmiweather.dto.GridRequest;
 import dk.dma.dmiweather.dto.GridResponse;
+import dk.dma.dmiweather.dto.GridSeriesRequest;
+import dk.dma.dmiweather.dto.GridSeriesResponse;
+import dk.dma.nogoservice.ApiProfiles;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.ResponseEntity;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpEntity;
 import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
+ * Calls the weather service over HTTP. All calls have timeouts, and a circuit breaker makes calls fail fast with a {@link ResourceAccessException}
+ * when the weather service is down, so NoGo requests don't wait for the timeouts.
  * @author Klaus Groenbaek
  *         Created 04/04/17.
  */
 @Component
+@Profile("!" + ApiProfiles.EMBEDDED_WEATHER)
 public class RemoteWeatherService implements WeatherService {
 
     private final RestTemplate template;
+    /**
+     * Non blocking client, the responses are handled by the I/O dispatcher threads of the async http client
+     */
+    private final AsyncRestTemplate asyncTemplate;
+    private final HttpComponentsAsyncClientHttpRequestFactory asyncRequestFactory;
+    private final CircuitBreaker circuitBreaker;
     private ObjectMapper mapper = new ObjectMapper();
 
     @Value("${weatherservice.url}")
     private String weatherServiceURL;
 
+    /**
+     * @param binary if the grids and grid series are loaded in the binary format of the weather service, instead of JSON
+     * @param connectTimeout milliseconds to wait for a connection, both from the pool and to the weather service
+     * @param timeout milliseconds to wait for data from the weather service
+     * @param circuitFailures consecutive failures before the circuit opens
+     * @param circuitOpenMillis how long the circuit stays open before the weather service is tried again
+     */
     @Autowired
-    public RemoteWeatherService(PoolingHttpClientConnectionManager connectionManager) {
-        CloseableHttpClient httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+    public RemoteWeatherService(PoolingHttpClientConnectionManager connectionManager, @Value("${weatherservice.binary:true}") boolean binary,
+                                @Value("${weatherservice.connectTimeoutMillis:2000}") int connectTimeout,
+                                @Value("${weatherservice.timeoutMillis:10000}") int timeout,
+                                @Value("${weatherservice.circuit.failures:5}") int circuitFailures,
+                                @Value("${weatherservice.circuit.openMillis:30000}") long circuitOpenMillis) {
+        circuitBreaker = new CircuitBreaker("weather service", circuitFailures, circuitOpenMillis);
+        RequestConfig requestConfig = RequestConfig.custom().setConnectionRequestTimeout(connectTimeout).setConnectTimeout(connectTimeout)
+                .setSocketTimeout(timeout).build();
+        CloseableHttpClient httpClient = HttpClients.custom().setConnectionManager(connectionManager).setDefaultRequestConfig(requestConfig).build();
         template = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
         template.setErrorHandler(new RemoteErrorHandler());
+
+        CloseableHttpAsyncClient asyncClient = HttpAsyncClients.custom().setMaxConnTotal(connectionManager.getMaxTotal())
+                .setMaxConnPerRoute(connectionManager.getDefaultMaxPerRoute()).setDefaultRequestConfig(requestConfig).build();
+        asyncRequestFactory = new HttpComponentsAsyncClientHttpRequestFactory(asyncClient);
+        asyncTemplate = new AsyncRestTemplate(asyncRequestFactory);
+        asyncTemplate.setErrorHandler(new RemoteErrorHandler());
+
+        if (binary) {
+            // first, so it is preferred in the Accept header
+            template.getMessageConverters().add(0, new GridBinaryMessageConverter());
+            template.getMessageConverters().add(0, new GridSeriesBinaryMessageConverter());
+            asyncTemplate.getMessageConverters().add(0, new GridBinaryMessageConverter());
+            asyncTemplate.getMessageConverters().add(0, new GridSeriesBinaryMessageConverter());
+        }
     }
 
     @Override
     public GridResponse getWeather(GridRequest request) {
-        ResponseEntity<GridResponse> postForEntity = template.postForEntity(weatherServiceURL + "grid?gridMetrics=true", request, GridResponse.class);
-        return postForEntity.getBody();
+        return call(() -> template.postForEntity(weatherServiceURL + "grid?gridMetrics=true", request, GridResponse.class).getBody());
+    }
+
+    @Override
+    public GridSeriesResponse getWeatherSeries(GridSeriesRequest request) {
+        return call(() -> template.postForEntity(weatherServiceURL + "grid/series?gridMetrics=true", request, GridSeriesResponse.class).getBody());
+    }
+
+    /**
+     * Makes a blocking call through the circuit breaker. Only I/O errors count as failures, an error response means the weather service is up.
+     */
+    private <T> T call(Supplier<T> call) {
+        if (!circuitBreaker.allowRequest()) {
+            throw circuitOpen();
+        }
+        try {
+            T result = call.get();
+            circuitBreaker.success();
+            return result;
+        } catch (ResourceAccessException e) {
+            circuitBreaker.failure();
+            throw e;
+        } catch (RuntimeException e) {
+            circuitBreaker.success();
+            throw e;
+        }
+    }
+
+    private ResourceAccessException circuitOpen() {
+        return new ResourceAccessException("Weather service circuit is open, after repeated failures");
+    }
+
+    @Override
+    public CompletableFuture<GridResponse> getWeatherAsync(GridRequest request) {
+        return callAsync("grid?gridMetrics=true", request, GridResponse.class);
+    }
+
+    @Override
+    public CompletableFuture<GridSeriesResponse> getWeatherSeriesAsync(GridSeriesRequest request) {
+        return callAsync("grid/series?gridMetrics=true", request, GridSeriesResponse.class);
+    }
+
+    /**
+     * Makes a non blocking call through the circuit breaker, see {@link #call(Supplier)}
+     */
+    private <T> CompletableFuture<T> callAsync(String path, Object request, Class<T> responseType) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (!circuitBreaker.allowRequest()) {
+            future.completeExceptionally(circuitOpen());
+            return future;
+        }
+        asyncTemplate.postForEntity(weatherServiceURL + path, new HttpEntity<>(request), responseType).addCallback(
+                response -> {
+                    circuitBreaker.success();
+                    future.complete(response.getBody());
+                },
+                e -> {
+                    // same exceptions as the blocking template, so callers can handle both in the same way
+                    if (e instanceof IOException) {
+                        circuitBreaker.failure();
+                        future.completeExceptionally(new ResourceAccessException("I/O error on POST request for weather service: " + e.getMessage(), (IOException) e));
+                    } else {
+                        circuitBreaker.success();
+                        future.completeExceptionally(e);
+                    }
+                });
+        return future;
+    }
+
+    @PreDestroy
+    public void shutdown() throws Exception {
+        asyncRequestFactory.destroy();
     }
 
     private class RemoteErrorHandler extends DefaultResponseErrorHandler {
@@ -0,0 +1,223 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.common.dto.JSonWarning;
+import dk.dma.nogoservice.dto.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The result of checking a route against one area. A position on a leg is given by the fraction t (0 - 1) of the leg, and the parts of a leg
+ * are sorted lists of disjoint intervals of t, so the results of overlapping areas can be combined without any geometry.
+ */
+final class RouteCheck {
+
+    /**
+     * for each leg the interval covered by the area, or null if the leg is outside the area
+     */
+    private final double[][] covered;
+    /**
+     * for each leg the NoGo intervals
+     */
+    private final List<List<double[]>> noGo;
+    private final JSonWarning warning;
+
+    RouteCheck(double[][] covered, List<List<double[]>> noGo, JSonWarning warning) {
+        this.covered = covered;
+        this.noGo = noGo;
+        this.warning = warning;
+    }
+
+    /**
+     * @return true if the area covers a part of the route
+     */
+    boolean isCovered() {
+        for (double[] interval : covered) {
+            if (interval != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Combines the checks of the areas. Like the merge of NoGo areas, Go wins over NoGo where the areas overlap, since an area reports NoGo
+     * for all foreign space. So a part of a leg is NoGo if it is NoGo in all the areas that cover it.
+     * @param route the waypoints of the route
+     * @param checks the checks of the areas which cover a part of the route
+     */
+    static RouteCheckResponse combine(List<GeoCoordinate> route, List<RouteCheck> checks) {
+        List<RouteViolation> violations = new ArrayList<>();
+        boolean uncovered = false;
+        for (int leg = 0; leg < route.size() - 1; leg++) {
+            List<double[]> legCovered = new ArrayList<>();
+            List<double[]> legNoGo = interval(0, 1);
+            for (RouteCheck check : checks) {
+                double[] areaCovered = check.covered[leg];
+                if (areaCovered != null) {
+                    legCovered = union(legCovered, interval(areaCovered[0], areaCovered[1]));
+                    legNoGo = intersection(legNoGo, union(check.noGo.get(leg), complement(areaCovered)));
+                }
+            }
+            legNoGo = intersection(legNoGo, legCovered);
+            uncovered |= !complementOf(legCovered).isEmpty();
+
+            GeoCoordinate start = route.get(leg);
+            GeoCoordinate end = route.get(leg + 1);
+            for (double[] interval : legNoGo) {
+                violations.add(new RouteViolation().setLeg(leg).setFrom(position(start, end, interval[0])).setTo(position(start, end, interval[1])));
+            }
+        }
+
+        JSonWarning warning;
+        if (uncovered) {
+            WarningMessage warn = WarningMessage.ROUTE_NOT_COVERED;
+            warning = new JSonWarning().setId(warn.getId()).setMessage(warn.getMessage());
+        } else {
+            warning = checks.stream().map(c -> c.warning).filter(Objects::nonNull).findFirst().orElse(null);
+        }
+        return new RouteCheckResponse().setSafe(violations.isEmpty()).setViolations(violations).setWarning(warning);
+    }
+
+    /**
+     * Checks the route against NoGo polygons which have already been calculated
+     * @param route the waypoints of the route
+     * @param nogo the NoGo areas around the route
+     */
+    static RouteCheckResponse crossing(List<GeoCoordinate> route, NoGoResponse nogo) {
+        GeometryFactory factory = new GeometryFactory();
+        STRtree index = new STRtree();
+        for (NoGoPolygon polygon : nogo.getPolygons()) {
+            Geometry geometry = factory.createPolygon(polygon.getPoints().stream().map(p -> new Coordinate(p.getLon(), p.getLat())).toArray(Coordinate[]::new));
+            index.insert(geometry.getEnvelopeInternal(), geometry);
+        }
+        List<RouteViolation> violations = new ArrayList<>();
+        for (int leg = 0; leg < route.size() - 1; leg++) {
+            GeoCoordinate start = route.get(leg);
+            GeoCoordinate end = route.get(leg + 1);
+            LineString line = factory.createLineString(new Coordinate[]{new Coordinate(start.getLon(), start.getLat()), new Coordinate(end.getLon(), end.getLat())});
+            List<double[]> legNoGo = new ArrayList<>();
+            @SuppressWarnings("unchecked")
+            List<Geometry> candidates = index.query(line.getEnvelopeInternal());
+            for (Geometry polygon : candidates) {
+                Geometry crossing = line.intersection(polygon);
+                for (int i = 0; i < crossing.getNumGeometries(); i++) {
+                    Coordinate[] part = crossing.getGeometryN(i).getCoordinates();
+                    if (part.length > 1) {
+                        double from = fraction(start, end, part[0]);
+                        double to = fraction(start, end, part[part.length - 1]);
+                        legNoGo = union(legNoGo, interval(Math.min(from, to), Math.max(from, to)));
+                    }
+                }
+            }
+            for (double[] interval : legNoGo) {
+                violations.add(new RouteViolation().setLeg(leg).setFrom(position(start, end, interval[0])).setTo(position(start, end, interval[1])));
+            }
+        }
+        return new RouteCheckResponse().setSafe(violations.isEmpty()).setViolations(violations).setWarning(nogo.getWarning());
+    }
+
+    /**
+     * @return the fraction of the leg where the coordinate is, the coordinate must be on the leg
+     */
+    private static double fraction(GeoCoordinate start, GeoCoordinate end, Coordinate coordinate) {
+        double dx = end.getLon() - start.getLon();
+        double dy = end.getLat() - start.getLat();
+        double length = dx * dx + dy * dy;
+        return length == 0 ? 0 : ((coordinate.x - start.getLon()) * dx + (coordinate.y - start.getLat()) * dy) / length;
+    }
+
+    private static GeoCoordinate position(GeoCoordinate start, GeoCoordinate end, double t) {
+        return new GeoCoordinate(start.getLon() + t * (end.getLon() - start.getLon()), start.getLat() + t * (end.getLat() - start.getLat()));
+    }
+
+    private static List<double[]> interval(double from, double to) {
+        List<double[]> intervals = new ArrayList<>();
+        intervals.add(new double[]{from, to});
+        return intervals;
+    }
+
+    /**
+     * @return the parts of the leg outside the interval
+     */
+    private static List<double[]> complement(double[] interval) {
+        return complementOf(interval(interval[0], interval[1]));
+    }
+
+    private static List<double[]> complementOf(List<double[]> intervals) {
+        List<double[]> complement = new ArrayList<>();
+        double from = 0;
+        for (double[] interval : intervals) {
+            if (interval[0] > from) {
+                complement.add(new double[]{from, interval[0]});
+            }
+            from = Math.max(from, interval[1]);
+        }
+        if (from < 1) {
+            complement.add(new double[]{from, 1});
+        }
+        return complement;
+    }
+
+    /**
+     * @return the union of two sorted lists of intervals, intervals which touch are joined
+     */
+    static List<double[]> union(List<double[]> a, List<double[]> b) {
+        List<double[]> union = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            double[] next = j == b.size() || (i < a.size() && a.get(i)[0] <= b.get(j)[0]) ? a.get(i++) : b.get(j++);
+            double[] last = union.isEmpty() ? null : union.get(union.size() - 1);
+            if (last != null && next[0] <= last[1]) {
+                last[1] = Math.max(last[1], next[1]);
+            } else {
+                union.add(new double[]{next[0], next[1]});
+            }
+        }
+        return union;
+    }
+
+    /**
+     * @return the intersection of two sorted lists of intervals, intervals which only touch are left out
+     */
+    static List<double[]> intersection(List<double[]> a, List<double[]> b) {
+        List<double[]> intersection = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            double from = Math.max(a.get(i)[0], b.get(j)[0]);
+            double to = Math.min(a.get(i)[1], b.get(j)[1]);
+            if (from < to) {
+                intersection.add(new double[]{from, to});
+            }
+            if (a.get(i)[1] < b.get(j)[1]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return intersection;
+    }
+}
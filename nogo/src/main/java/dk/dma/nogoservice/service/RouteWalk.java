@@ -0,0 +1,196 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.common.dto.JSonWarning;
+import dk.dma.nogoservice.dto.GridData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The cells of the grid data visited by the legs of a route. The legs are walked over the grid with a DDA grid traversal, which visits every
+ * cell a leg passes through, and only the visited cells are classified, see {@link #classify(CellClassifier, JSonWarning)}.
+ * <p>
+ * The traced NoGo polygons do not follow the cells exactly, the outline of a depth point reaches to the next point east and north of it,
+ * and {@link FigureTransformer} then buffers it by half a cell. So a visited cell is NoGo if it, or its neighbour to the west, south or
+ * south west is NoGo, which gives the same result as intersecting the route with the NoGo polygons of /route, except at the rounded corners
+ * of the buffer.
+ */
+final class RouteWalk {
+
+    private final GridData gridData;
+    /**
+     * for each leg the interval covered by the area, or null if the leg is outside the area
+     */
+    private final double[][] covered;
+    /**
+     * leg, column, row, and the fraction of the leg where it enters and leaves the cell
+     */
+    private final List<double[]> visits = new ArrayList<>();
+    /**
+     * the visited cells with a margin, so the sea level is never requested for a single line of points, and the neighbours to the west
+     * and south are inside
+     */
+    private final GridWindow window;
+
+    RouteWalk(GridData gridData, List<GeoCoordinate> route) {
+        this.gridData = gridData;
+        covered = new double[route.size() - 1][];
+        for (int leg = 0; leg < covered.length; leg++) {
+            covered[leg] = walk(leg, route.get(leg), route.get(leg + 1));
+        }
+        if (visits.isEmpty()) {
+            window = null;
+            return;
+        }
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (double[] visit : visits) {
+            minX = Math.min(minX, (int) visit[1]);
+            maxX = Math.max(maxX, (int) visit[1]);
+            minY = Math.min(minY, (int) visit[2]);
+            maxY = Math.max(maxY, (int) visit[2]);
+        }
+        minX = Math.max(0, minX - 1);
+        minY = Math.max(0, minY - 1);
+        maxX = Math.min(gridData.getNx() - 1, maxX + 1);
+        maxY = Math.min(gridData.getNy() - 1, maxY + 1);
+        window = new GridWindow(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * @return the visited cells with a margin, or null if the route is outside the grid
+     */
+    GridWindow getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the number of visited cells
+     */
+    int getCells() {
+        return visits.size();
+    }
+
+    /**
+     * @param classifier classifies the cells of the window, or null if the route is outside the grid
+     * @param warning the warning of the tidal information of the classifier
+     * @return the NoGo parts of the legs inside the area
+     */
+    RouteCheck classify(CellClassifier classifier, JSonWarning warning) {
+        List<List<double[]>> noGo = new ArrayList<>();
+        for (double[] ignored : covered) {
+            noGo.add(new ArrayList<>());
+        }
+        if (visits.isEmpty()) {
+            return new RouteCheck(covered, noGo, null);
+        }
+        for (double[] visit : visits) {
+            int x = (int) visit[1];
+            int y = (int) visit[2];
+            boolean cellNoGo = classifier.isNoGo(x, y) || (x > 0 && classifier.isNoGo(x - 1, y))
+                    || (y > 0 && classifier.isNoGo(x, y - 1)) || (x > 0 && y > 0 && classifier.isNoGo(x - 1, y - 1));
+            if (cellNoGo) {
+                // the cells of a leg are visited in order, so consecutive NoGo cells are joined
+                List<double[]> legNoGo = noGo.get((int) visit[0]);
+                double[] last = legNoGo.isEmpty() ? null : legNoGo.get(legNoGo.size() - 1);
+                if (last != null && visit[3] <= last[1]) {
+                    last[1] = Math.max(last[1], visit[4]);
+                } else {
+                    legNoGo.add(new double[]{visit[3], visit[4]});
+                }
+            }
+        }
+        return new RouteCheck(covered, noGo, warning);
+    }
+
+    /**
+     * Visits the cells a leg passes through, in order along the leg (Amanatides and Woo). The leg is in cell units shifted half a cell, so
+     * cell x covers [x, x + 1) and the cell centre is at x + 0.5.
+     * @return the fractions of the leg where it enters and leaves the grid, or null if the leg is outside the grid
+     */
+    private double[] walk(int leg, GeoCoordinate start, GeoCoordinate end) {
+        int nx = gridData.getNx();
+        int ny = gridData.getNy();
+        double x0 = (start.getLon() - gridData.getLo1()) / gridData.getDx() + 0.5;
+        double y0 = (start.getLat() - gridData.getLa1()) / gridData.getDy() + 0.5;
+        double lengthX = (end.getLon() - gridData.getLo1()) / gridData.getDx() + 0.5 - x0;
+        double lengthY = (end.getLat() - gridData.getLa1()) / gridData.getDy() + 0.5 - y0;
+
+        // Liang-Barsky clipping of the leg to the grid
+        double[] range = {0, 1};
+        if (!clip(-lengthX, x0, range) || !clip(lengthX, nx - x0, range) || !clip(-lengthY, y0, range) || !clip(lengthY, ny - y0, range)) {
+            return null;
+        }
+
+        double t = range[0];
+        int x = Math.max(0, Math.min(nx - 1, (int) Math.floor(x0 + t * lengthX)));
+        int y = Math.max(0, Math.min(ny - 1, (int) Math.floor(y0 + t * lengthY)));
+        int stepX = lengthX > 0 ? 1 : lengthX < 0 ? -1 : 0;
+        int stepY = lengthY > 0 ? 1 : lengthY < 0 ? -1 : 0;
+        // the fraction of the leg between cell borders, and where the leg crosses the next border
+        double deltaX = stepX != 0 ? 1 / Math.abs(lengthX) : Double.POSITIVE_INFINITY;
+        double deltaY = stepY != 0 ? 1 / Math.abs(lengthY) : Double.POSITIVE_INFINITY;
+        double nextX = stepX != 0 ? (x + (stepX > 0 ? 1 : 0) - x0) / lengthX : Double.POSITIVE_INFINITY;
+        double nextY = stepY != 0 ? (y + (stepY > 0 ? 1 : 0) - y0) / lengthY : Double.POSITIVE_INFINITY;
+        while (true) {
+            double exit = Math.min(range[1], Math.min(nextX, nextY));
+            visits.add(new double[]{leg, x, y, t, exit});
+            if (exit >= range[1]) {
+                break;
+            }
+            if (nextX < nextY) {
+                x += stepX;
+                t = nextX;
+                nextX += deltaX;
+            } else {
+                y += stepY;
+                t = nextY;
+                nextY += deltaY;
+            }
+            if (x < 0 || y < 0 || x >= nx || y >= ny) {
+                break;
+            }
+        }
+        return range;
+    }
+
+    /**
+     * One edge of the Liang-Barsky clipping, where the leg is inside when p * t <= q
+     * @return false if the leg is outside
+     */
+    private static boolean clip(double p, double q, double[] range) {
+        if (p == 0) {
+            return q >= 0;
+        }
+        double t = q / p;
+        if (p < 0) {
+            if (t > range[1]) {
+                return false;
+            }
+            range[0] = Math.max(range[0], t);
+        } else {
+            if (t < range[0]) {
+                return false;
+            }
+            range[1] = Math.min(range[1], t);
+        }
+        return true;
+    }
+}
@@ -19,9 +19,10 @@ public class S3FileBackedQueryArea extends GridDataQueryArea {
      * @param key the fileName of the data file inside the bucket
      * @param weatherService a service that can provide weather data
      * @param noGoAlgorithm an algorithm for calculating noGo polygons
+     * @param metrics records the calculation metrics
      */
-    public S3FileBackedQueryArea(S3DataLoader dataLoader, String key, WeatherService weatherService, NoGoAlgorithmFacade noGoAlgorithm) throws IOException {
-        super(weatherService, noGoAlgorithm, dataLoader.loadData(key, GridData.class));
+    public S3FileBackedQueryArea(S3DataLoader dataLoader, String key, WeatherService weatherService, NoGoAlgorithmFacade noGoAlgorithm, NoGoMetrics metrics) throws IOException {
+        super(weatherService, noGoAlgorithm, dataLoader.loadData(key, GridData.class), metrics);
     }
 
 }
@@ -0,0 +1,33 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.common.exception.APIException;
+import dk.dma.common.exception.ErrorMessage;
+import lombok.Getter;
+
+/**
+ * Thrown when the slicing scheduler can't queue more work. The client should retry after the given number of seconds.
+ */
+@Getter
+public class SchedulerSaturatedException extends APIException {
+
+    private final long retryAfterSeconds;
+
+    SchedulerSaturatedException(String details, long retryAfterSeconds) {
+        super(ErrorMessage.SLICING_SATURATED, details);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
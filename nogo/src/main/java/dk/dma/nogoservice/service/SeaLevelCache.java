@@ -0,0 +1,181 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.dmiweather.dto.ForecastInfo;
+import dk.dma.dmiweather.dto.GridResponse;
+import dk.dma.dmiweather.dto.GridSeriesRequest;
+import dk.dma.dmiweather.dto.GridSeriesResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * The sea level of an entire bathymetry area for the upcoming forecast hours, so NoGo requests normally don't have to call the weather service.
+ * <p>
+ * The cache is refreshed periodically. Hours that have passed are dropped, and hours that are missing are loaded with a single series request,
+ * or a request per {@link GridSeriesRequest#MAX_TIMES} hours if more are missing.
+ * If all hours are loaded, only the first hour is loaded to check if the weather service has a new forecast, and when the creation date
+ * of the forecast changes, all the hours are loaded again.
+ * <p>
+ * If a refresh fails the cached hours are kept, but marked as stale until a refresh succeeds, since they may be from an outdated forecast.
+ */
+@Slf4j
+class SeaLevelCache {
+
+    private final ConcurrentNavigableMap<Instant, TidalQueryObject> fields = new ConcurrentSkipListMap<>();
+    private final Function<List<Instant>, GridSeriesResponse> loader;
+    private final int hours;
+    private volatile Instant creationDate;
+    private volatile boolean stale;
+
+    /**
+     * @param loader loads the sea level of the whole area at the given times
+     * @param hours the number of forecast hours to keep, starting from the current hour
+     */
+    SeaLevelCache(Function<List<Instant>, GridSeriesResponse> loader, int hours) {
+        this.loader = loader;
+        this.hours = hours;
+    }
+
+    /**
+     * @return the sea level for the forecast hour nearest to the time, or null if it is not cached
+     */
+    TidalQueryObject get(Instant time) {
+        Instant hour = DefaultNoGoService.forecastHour(time);
+        return hour != null ? fields.get(hour) : null;
+    }
+
+    /**
+     * @return the hour nearest to the time which is cached, and its sea level, or null if the cache is empty
+     */
+    Map.Entry<Instant, TidalQueryObject> nearest(Instant time) {
+        Map.Entry<Instant, TidalQueryObject> floor = fields.floorEntry(time);
+        Map.Entry<Instant, TidalQueryObject> ceiling = fields.ceilingEntry(time);
+        if (floor == null || ceiling == null) {
+            return floor != null ? floor : ceiling;
+        }
+        return Duration.between(floor.getKey(), time).compareTo(Duration.between(time, ceiling.getKey())) <= 0 ? floor : ceiling;
+    }
+
+    /**
+     * Loads the missing hours, or checks for a new forecast. If the weather service fails, the exception is thrown and the cached hours are kept.
+     * @param now the current time
+     */
+    synchronized void refresh(Instant now) {
+        try {
+            load(now);
+            stale = false;
+        } catch (RuntimeException e) {
+            stale = true;
+            throw e;
+        }
+    }
+
+    private void load(Instant now) {
+        Instant first = now.truncatedTo(ChronoUnit.HOURS);
+        fields.headMap(first).clear();
+        List<Instant> times = new ArrayList<>();
+        for (int i = 0; i < hours; i++) {
+            times.add(first.plus(i, ChronoUnit.HOURS));
+        }
+        List<Instant> missing = new ArrayList<>();
+        times.stream().filter(t -> !fields.containsKey(t)).forEach(missing::add);
+
+        List<Instant> load = missing.isEmpty() ? Collections.singletonList(first) : missing;
+        GridSeriesResponse series = loadSeries(load);
+        Instant loadedCreation = creationDate(series);
+        if (creationDate != null && loadedCreation != null && !loadedCreation.equals(creationDate) && load.size() < times.size()) {
+            // a new forecast, so the hours from the previous forecast are outdated
+            log.info("New sea level forecast created {}, reloading {} hours", loadedCreation, times.size());
+            load = times;
+            series = loadSeries(load);
+            loadedCreation = creationDate(series);
+        }
+
+        List<GridResponse> grids = series.getGrids();
+        for (int i = 0; i < load.size() && i < grids.size(); i++) {
+            GridResponse grid = grids.get(i);
+            if (grid.getPoints() != null || grid.getData() != null) {
+                fields.put(load.get(i), new TidalQueryObject(grid));
+            } else {
+                // the forecast does not cover the hour
+                fields.remove(load.get(i));
+            }
+        }
+        if (loadedCreation != null) {
+            creationDate = loadedCreation;
+        }
+    }
+
+    /**
+     * Loads the times in requests of at most {@link GridSeriesRequest#MAX_TIMES} times
+     */
+    private GridSeriesResponse loadSeries(List<Instant> times) {
+        if (times.size() <= GridSeriesRequest.MAX_TIMES) {
+            return loader.apply(times);
+        }
+        List<GridResponse> grids = new ArrayList<>();
+        for (int from = 0; from < times.size(); from += GridSeriesRequest.MAX_TIMES) {
+            List<Instant> part = times.subList(from, Math.min(times.size(), from + GridSeriesRequest.MAX_TIMES));
+            List<GridResponse> loaded = loader.apply(new ArrayList<>(part)).getGrids();
+            grids.addAll(loaded);
+            // the grids are matched to the times by position
+            for (int i = loaded.size(); i < part.size(); i++) {
+                grids.add(new GridResponse().setQueryTime(part.get(i)));
+            }
+        }
+        return new GridSeriesResponse().setGrids(grids);
+    }
+
+    /**
+     * @return true if the last refresh failed
+     */
+    boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * @return the creation date of the newest forecast that has been loaded
+     */
+    Instant getCreationDate() {
+        return creationDate;
+    }
+
+    /**
+     * @return the number of cached hours
+     */
+    int size() {
+        return fields.size();
+    }
+
+    /**
+     * @return the newest creation date of the sea level forecasts in the series, or null if the weather service did not include it
+     */
+    private static Instant creationDate(GridSeriesResponse series) {
+        return series.getGrids().stream()
+                .filter(grid -> grid.getForecasts() != null)
+                .flatMap(grid -> grid.getForecasts().stream())
+                .map(ForecastInfo::getCreationDate)
+                .filter(Objects::nonNull)
+                .max(Comparator.naturalOrder()).orElse(null);
+    }
+}
@@ -0,0 +1,110 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.nogoservice.ComputationCancelledException;
+import dk.dma.nogoservice.Deadline;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calculations of the same key, only the first caller calculates, and the callers that arrive while it is in flight
+ * wait for, and share, its result or exception. Nothing is cached, once the calculation is done the next caller calculates again.
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    V execute(K key, Supplier<V> calculation) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+        try {
+            V value = calculation.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Waits for the calculation of another caller, but not after the deadline of the current thread, if it has one
+     * @throws ComputationCancelledException if the deadline passes, or the thread is interrupted, before the calculation is done
+     */
+    private V await(CompletableFuture<V> existing) {
+        Deadline deadline = Deadline.current();
+        try {
+            return deadline == null ? existing.get() : existing.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            deadline.check();
+            throw new ComputationCancelledException("The deadline was exceeded while waiting for the same calculation.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ComputationCancelledException("Interrupted while waiting for the same calculation.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    /**
+     * Like {@link #execute(Object, Supplier)}, but for calculations which complete asynchronously. The callers that arrive while the calculation
+     * is in flight get the same future.
+     */
+    CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> calculation) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+        try {
+            calculation.get().whenComplete((value, e) -> {
+                inFlight.remove(key, future);
+                if (e != null) {
+                    future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                } else {
+                    future.complete(value);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return the number of callers which got the result of another caller's calculation
+     */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+}
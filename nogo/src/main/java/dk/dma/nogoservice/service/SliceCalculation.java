@@ -0,0 +1,31 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.nogoservice.dto.NoGoResponse;
+
+/**
+ * A NoGo calculation for the same area and draught at several points in time, created by {@link NoGoService#prepareSlices}.
+ * The slices may be calculated concurrently, and in any order, unless the calculation is incremental, then they must be calculated in order.
+ */
+@FunctionalInterface
+public interface SliceCalculation {
+
+    /**
+     * @param slice the index of the slice time
+     * @return the NoGo areas at the time of the slice
+     */
+    NoGoResponse calculate(int slice);
+}
@@ -0,0 +1,32 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+/**
+ * Receives the results of a slicing request, in slice order, as the slices are calculated. The listener is called on a stream thread, not on the
+ * thread that calculated the slice.
+ */
+@FunctionalInterface
+public interface SliceListener {
+
+    /**
+     * Called when a slice, and all the slices before it, are done
+     * @param slice the index of the slice
+     * @param result the result, either Done or Failed
+     * @param last true if this is the last slice of the request
+     * @throws Exception if the listener can't receive more results, e.g. because the client has disconnected. The listener is then removed
+     */
+    void onSlice(int slice, ResourceProcessingResult result, boolean last) throws Exception;
+}
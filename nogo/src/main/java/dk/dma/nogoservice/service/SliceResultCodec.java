@@ -0,0 +1,153 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.common.dto.JSonWarning;
+import dk.dma.common.exception.APIException;
+import dk.dma.common.exception.ErrorMessage;
+import dk.dma.nogoservice.dto.NoGoPolygon;
+import dk.dma.nogoservice.dto.NoGoResponse;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of slice results, used when they are spilled to disk.
+ * <p>
+ * The coordinates are stored as fixed point numbers with 7 decimals (about 1 cm), and each point is stored as the difference to the previous point,
+ * as a zigzag varint. Neighbouring points in a NoGo polygon are close, so most points take 2 - 4 bytes instead of the 16 bytes of two doubles.
+ */
+final class SliceResultCodec {
+
+    private static final double SCALE = 10_000_000;
+
+    static byte[] encode(ResourceProcessingResult result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(result.getState().ordinal());
+        if (result.getState() == ResourceState.Failed) {
+            out.writeUTF(result.getException().getError().name());
+            writeNullableUTF(result.getException().getDetails(), out);
+        } else if (result.getState() == ResourceState.Done) {
+            writeResponse(result.getResponse(), out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static ResourceProcessingResult decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        ResourceState state = ResourceState.values()[in.readUnsignedByte()];
+        switch (state) {
+            case Failed:
+                ErrorMessage error = ErrorMessage.valueOf(in.readUTF());
+                return ResourceProcessingResult.failed(new APIException(error, readNullableUTF(in)));
+            case Done:
+                return ResourceProcessingResult.done(readResponse(in));
+            default:
+                return new ResourceProcessingResult();
+        }
+    }
+
+    private static void writeResponse(NoGoResponse response, DataOutputStream out) throws IOException {
+        JSonWarning warning = response.getWarning();
+        out.writeBoolean(warning != null);
+        if (warning != null) {
+            out.writeInt(warning.getId());
+            writeNullableUTF(warning.getMessage(), out);
+            writeNullableUTF(warning.getDetails(), out);
+        }
+        List<NoGoPolygon> polygons = response.getPolygons() != null ? response.getPolygons() : new ArrayList<>();
+        writeVarint(polygons.size(), out);
+        long lon = 0;
+        long lat = 0;
+        for (NoGoPolygon polygon : polygons) {
+            writeVarint(polygon.getPoints().size(), out);
+            for (GeoCoordinate point : polygon.getPoints()) {
+                long pointLon = Math.round(point.getLon() * SCALE);
+                long pointLat = Math.round(point.getLat() * SCALE);
+                writeVarint(zigZag(pointLon - lon), out);
+                writeVarint(zigZag(pointLat - lat), out);
+                lon = pointLon;
+                lat = pointLat;
+            }
+        }
+    }
+
+    private static NoGoResponse readResponse(DataInputStream in) throws IOException {
+        NoGoResponse response = new NoGoResponse();
+        if (in.readBoolean()) {
+            response.setWarning(new JSonWarning().setId(in.readInt()).setMessage(readNullableUTF(in)).setDetails(readNullableUTF(in)));
+        }
+        int polygonCount = (int) readVarint(in);
+        List<NoGoPolygon> polygons = new ArrayList<>(polygonCount);
+        long lon = 0;
+        long lat = 0;
+        for (int i = 0; i < polygonCount; i++) {
+            int pointCount = (int) readVarint(in);
+            List<GeoCoordinate> points = new ArrayList<>(pointCount);
+            for (int j = 0; j < pointCount; j++) {
+                lon += unZigZag(readVarint(in));
+                lat += unZigZag(readVarint(in));
+                points.add(new GeoCoordinate(lon / SCALE, lat / SCALE));
+            }
+            polygons.add(new NoGoPolygon().setPoints(points));
+        }
+        return response.setPolygons(polygons);
+    }
+
+    private static void writeNullableUTF(String value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static long zigZag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unZigZag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void writeVarint(long value, DataOutputStream out) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private SliceResultCodec() {
+    }
+}
@@ -0,0 +1,51 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.nogoservice.dto.NoGoPolygon;
+
+/**
+ * Stores the results of the slice calculations until the clients have fetched them. Which store is used is selected with the property
+ * nogo.slicing.store.type, 'memory' (default) or 'disk'.
+ */
+public interface SliceResultStore {
+
+    /**
+     * Results that have not been accessed for this long are removed
+     */
+    long EXPIRY_MINUTES = 10;
+
+    void put(String id, ResourceProcessingResult result);
+
+    /**
+     * @return the result, or null if there is no result with that id, or it has expired
+     */
+    ResourceProcessingResult get(String id);
+
+    void remove(String id);
+
+    /**
+     * The weight of a result is the number of vertices in it, since the coordinates are what takes up memory in a NoGo response
+     */
+    static int weight(ResourceProcessingResult result) {
+        int weight = 1;
+        if (result.getResponse() != null && result.getResponse().getPolygons() != null) {
+            for (NoGoPolygon polygon : result.getResponse().getPolygons()) {
+                weight += polygon.getPoints().size();
+            }
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,179 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs slice calculations on a small, fixed pool of threads, so slicing does not starve the interactive /area requests. The thread count is
+ * what limits slicing, thread priorities are ignored by the JVM on Linux unless it is started with extra flags.
+ * <ul>
+ *     <li>The queue is bounded by the number of slices, in total and per client. A request is either queued entirely or rejected with a
+ *     {@link SchedulerSaturatedException}, which includes an estimate of when to retry.</li>
+ *     <li>Tasks are ordered by the number of tasks the client had queued before it (so clients take turns), then by slice time (so the
+ *     first slices of a request are ready first), and then by the order they were submitted.</li>
+ *     <li>The queue depth and the time tasks wait in the queue are exported as the gauges slicing.queue.depth and slicing.queue.wait (ms),
+ *     and rejected requests are counted in slicing.rejected.</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class SliceScheduler {
+
+    private final int threads;
+    private final int capacity;
+    private final int clientCapacity;
+    private final GaugeService gaugeService;
+    private final CounterService counterService;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+    /**
+     * Average time a slice takes to calculate, used to estimate when to retry
+     */
+    private volatile double averageMillis = 1000;
+
+    // guarded by this, the number of queued slices
+    private int queued;
+    private final Map<String, Integer> queuedPerClient = new HashMap<>();
+
+    @Autowired
+    public SliceScheduler(@Value("${nogo.slicing.threads:2}") int threads, @Value("${nogo.slicing.capacity:200}") int capacity,
+                          @Value("${nogo.slicing.clientCapacity:60}") int clientCapacity, GaugeService gaugeService, CounterService counterService) {
+        this.threads = threads;
+        this.capacity = capacity;
+        this.clientCapacity = clientCapacity;
+        this.gaugeService = gaugeService;
+        this.counterService = counterService;
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "slicing-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), threadFactory);
+        // otherwise the first tasks are handed directly to new threads, and bypass the priority queue
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Queues all the tasks of a request, or none of them
+     * @param client identifies the client, used for fairness and the per client limit
+     * @param tasks the tasks to run
+     * @throws SchedulerSaturatedException if the queue does not have room for the slices of the tasks
+     */
+    public void submit(String client, List<Task> tasks) {
+        List<PrioritizedTask> prioritized = new ArrayList<>();
+        int slices = tasks.stream().mapToInt(t -> t.slices).sum();
+        synchronized (this) {
+            int clientQueued = queuedPerClient.getOrDefault(client, 0);
+            if (queued + slices > capacity || clientQueued + slices > clientCapacity) {
+                counterService.increment("slicing.rejected");
+                long retryAfter = Math.max(1, (long) Math.ceil(queued * averageMillis / threads / 1000));
+                throw new SchedulerSaturatedException(String.format("%d slices are queued (%d from this client), retry in %d seconds.", queued,
+                        clientQueued, retryAfter), retryAfter);
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                prioritized.add(new PrioritizedTask(client, clientQueued + i, task.time, task.slices, sequence.incrementAndGet(), System.nanoTime(), task.work));
+            }
+            queued += slices;
+            queuedPerClient.put(client, clientQueued + slices);
+            gaugeService.submit("slicing.queue.depth", queued);
+        }
+        prioritized.forEach(executor::execute);
+    }
+
+    private void started(PrioritizedTask task) {
+        synchronized (this) {
+            queued -= task.slices;
+            queuedPerClient.compute(task.client, (client, count) -> count == task.slices ? null : count - task.slices);
+            gaugeService.submit("slicing.queue.depth", queued);
+        }
+        gaugeService.submit("slicing.queue.wait", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - task.enqueued));
+    }
+
+    synchronized int getQueued() {
+        return queued;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A unit of work, the time of the first slice it calculates, and the number of slices it calculates
+     */
+    @AllArgsConstructor
+    public static class Task {
+        private final Instant time;
+        private final int slices;
+        private final Runnable work;
+
+        public Task(Instant time, Runnable work) {
+            this(time, 1, work);
+        }
+    }
+
+    @AllArgsConstructor
+    private class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final String client;
+        private final int rank;
+        private final Instant time;
+        private final int slices;
+        private final long sequence;
+        private final long enqueued;
+        private final Runnable work;
+
+        @Override
+        public void run() {
+            started(this);
+            long start = System.nanoTime();
+            try {
+                work.run();
+            } catch (RuntimeException e) {
+                log.error("Uncaught exception in slice task", e);
+            } finally {
+                double millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                averageMillis = averageMillis * 0.9 + millis / slices * 0.1;
+            }
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            int result = Integer.compare(rank, other.rank);
+            if (result == 0) {
+                result = time.compareTo(other.time);
+            }
+            if (result == 0) {
+                result = Long.compare(sequence, other.sequence);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Tracks the slices of a single slicing request, and publishes the results to the listeners in slice order. The slices may complete out of order
+ * when they are calculated in parallel, so a slice is published when it and all the slices before it are done.
+ * <p>
+ * The stream does not hold on to the results, they are looked up in the result store by resource id when they are published.
+ * <p>
+ * Listeners are called on the publisher executor, each listener has its own queue of slices, so a slow listener does not hold up the slicing
+ * workers or the other listeners.
+ */
+@Slf4j
+class SliceStream {
+
+    private final List<String> resourceIds;
+    private final Function<String, ResourceProcessingResult> results;
+    private final Executor publisher;
+    private final boolean[] done;
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    /**
+     * The number of slices that have been published, i.e. the first slice which is not done
+     */
+    private int published;
+
+    SliceStream(List<String> resourceIds, Function<String, ResourceProcessingResult> results, Executor publisher) {
+        this.resourceIds = resourceIds;
+        this.results = results;
+        this.publisher = publisher;
+        done = new boolean[resourceIds.size()];
+    }
+
+    int size() {
+        return resourceIds.size();
+    }
+
+    /**
+     * Marks the slice as done, and publishes it, and any following slices which were waiting for it
+     */
+    void completed(int slice) {
+        List<Subscription> started = new ArrayList<>();
+        synchronized (this) {
+            done[slice] = true;
+            while (published < done.length && done[published]) {
+                for (Subscription subscription : subscriptions) {
+                    if (subscription.queue(published)) {
+                        started.add(subscription);
+                    }
+                }
+                published++;
+            }
+            if (published == done.length) {
+                subscriptions.clear();
+            }
+        }
+        // the listeners are called outside the lock
+        started.forEach(subscription -> publisher.execute(subscription::drain));
+    }
+
+    /**
+     * Adds a listener, which first receives the slices that are already published, starting from fromSlice
+     * @param fromSlice the first slice the listener is interested in
+     * @param listener the listener
+     */
+    void subscribe(int fromSlice, SliceListener listener) {
+        Subscription subscription = new Subscription(listener);
+        boolean started = false;
+        synchronized (this) {
+            for (int slice = fromSlice; slice < published; slice++) {
+                started |= subscription.queue(slice);
+            }
+            if (published < done.length) {
+                subscriptions.add(subscription);
+            }
+        }
+        if (started) {
+            publisher.execute(subscription::drain);
+        }
+    }
+
+    /**
+     * Removes the listener, slices which are already queued for it are dropped
+     */
+    synchronized void unsubscribe(SliceListener listener) {
+        subscriptions.removeIf(subscription -> {
+            if (subscription.listener == listener) {
+                subscription.cancel();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private synchronized void remove(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    private ResourceProcessingResult result(int slice) {
+        return results.apply(resourceIds.get(slice));
+    }
+
+    /**
+     * @return false if the listener failed, and should be removed
+     */
+    private static boolean publish(SliceListener listener, int slice, ResourceProcessingResult result, boolean last) {
+        if (result == null) {
+            // the result has expired from the store, so the listener can't get any further
+            return false;
+        }
+        try {
+            listener.onSlice(slice, result, last);
+            return true;
+        } catch (Exception e) {
+            log.debug("Removing slice listener, {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * The slices waiting to be sent to a listener. At most one publisher task runs per subscription, so the listener gets the slices in order.
+     */
+    private class Subscription {
+        private final SliceListener listener;
+        // guarded by this
+        private final Deque<Integer> pending = new ArrayDeque<>();
+        private boolean running;
+        private boolean cancelled;
+
+        Subscription(SliceListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * @return true if the caller must start draining the queue on the publisher
+         */
+        synchronized boolean queue(int slice) {
+            if (cancelled) {
+                return false;
+            }
+            pending.add(slice);
+            if (running) {
+                return false;
+            }
+            running = true;
+            return true;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            pending.clear();
+        }
+
+        private void drain() {
+            while (true) {
+                Integer slice;
+                synchronized (this) {
+                    slice = pending.poll();
+                    if (slice == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                if (!publish(listener, slice, result(slice), slice == done.length - 1)) {
+                    cancel();
+                    synchronized (this) {
+                        running = false;
+                    }
+                    remove(this);
+                    return;
+                }
+            }
+        }
+    }
+}
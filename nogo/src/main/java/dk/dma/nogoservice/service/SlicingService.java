@@ -28,9 +28,11 @@ public interface SlicingService {
     /**
      * Queues a new async slice request, and returns the resource URLs for the work in progress
      * @param request the request
+     * @param client identifies the client, so clients can be given a fair share of the processing
      * @return the resource information
+     * @throws SchedulerSaturatedException if there is no room for the slices
      */
-    NoGoSliceResponse request(NoGoSliceRequest request);
+    NoGoSliceResponse request(NoGoSliceRequest request, String client);
 
     /**
      * returns the current state of the async processing
@@ -38,4 +40,21 @@ public interface SlicingService {
      * @return the current state of the async process
      */
     ResourceProcessingResult getStateAndData(String id);
+
+    /**
+     * Subscribes to the results of a slicing request. The listener receives each slice as soon as it, and all the slices before it, are done.
+     * Slices which are already done when subscribing are delivered immediately.
+     * @param streamId the stream id of the slicing request
+     * @param fromSlice the first slice to receive, slices before it are skipped
+     * @param listener the listener
+     * @return the number of slices in the request, or -1 if the stream is unknown or has expired
+     */
+    int subscribe(String streamId, int fromSlice, SliceListener listener);
+
+    /**
+     * Stops the listener from receiving more slices
+     * @param streamId the stream id of the slicing request
+     * @param listener the listener given to subscribe
+     */
+    void unsubscribe(String streamId, SliceListener listener);
 }
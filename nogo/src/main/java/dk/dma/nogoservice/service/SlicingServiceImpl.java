@@ -20,13 +20,15 @@ import dk.dma.common.exception.APIException;
 import dk.dma.common.exception.ErrorMessage;
 import dk.dma.nogoservice.dto.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -38,61 +40,120 @@ import java.util.concurrent.TimeUnit;
 public class SlicingServiceImpl implements SlicingService {
 
     private final NoGoService noGoService;
-    private final ExecutorService executorService;
-    private final Cache<String, ResourceProcessingResult> resultCache;
+    private final SliceScheduler scheduler;
+    private final SliceResultStore resultStore;
+    private final Executor streamExecutor;
+    private final Cache<String, SliceStream> streams;
 
     @Autowired
-    public SlicingServiceImpl(NoGoService noGoService, ExecutorService executorService) {
+    public SlicingServiceImpl(NoGoService noGoService, SliceScheduler scheduler, SliceResultStore resultStore,
+                              @Qualifier("streamExecutor") Executor streamExecutor) {
         this.noGoService = noGoService;
-        this.executorService = executorService;
-        resultCache = CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.MINUTES).build();
+        this.scheduler = scheduler;
+        this.resultStore = resultStore;
+        this.streamExecutor = streamExecutor;
+        streams = CacheBuilder.newBuilder().expireAfterAccess(SliceResultStore.EXPIRY_MINUTES, TimeUnit.MINUTES).build();
     }
 
     @Override
-    public NoGoSliceResponse request(NoGoSliceRequest request) {
+    public NoGoSliceResponse request(NoGoSliceRequest request, String client) {
 
-        ArrayList<SliceResource> slices = new ArrayList<>();
+        List<Instant> times = new ArrayList<>();
         for (int i= 0 ; i < request.getSlices(); i++) {
-            NoGoRequest noGoRequest = new NoGoRequest().setDraught(request.getDraught()).setNorthWest(request.getNorthWest()).setSouthEast(request.getSouthEast());
-            Instant start = request.getStart().plus(i * request.getInterval(), ChronoUnit.HOURS);
-            noGoRequest.setTime(start);
+            times.add(request.getStart().plus(i * request.getInterval(), ChronoUnit.HOURS));
+        }
+        // all slices have the same area and draught, so the tidal information for all slices is loaded once and shared by the workers
+        NoGoRequest noGoRequest = new NoGoRequest().setDraught(request.getDraught()).setNorthWest(request.getNorthWest()).setSouthEast(request.getSouthEast());
+        SliceCalculation calculation = noGoService.prepareSlices(noGoRequest, times, request.isIncremental());
+
+        ArrayList<SliceResource> slices = new ArrayList<>();
+        List<String> resourceIds = new ArrayList<>();
+        for (int i= 0 ; i < times.size(); i++) {
             String resourceId = UUID.randomUUID().toString();
-            executorService.submit(new NoGoWorker(resourceId, noGoRequest));
-            resultCache.put(resourceId, new ResourceProcessingResult());
-            slices.add(new SliceResource().setResourceURL(resourceId).setTime(start)); // in the controller layer we will create the correct URL
+            resourceIds.add(resourceId);
+            slices.add(new SliceResource().setResourceURL(resourceId).setTime(times.get(i))); // in the controller layer we will create the correct URL
+        }
+        String streamId = UUID.randomUUID().toString();
+        SliceStream stream = new SliceStream(resourceIds, resultStore::get, streamExecutor);
+        List<NoGoWorker> workers = new ArrayList<>();
+        for (int i= 0 ; i < times.size(); i++) {
+            workers.add(new NoGoWorker(resourceIds.get(i), calculation, i, stream));
+        }
+
+        List<SliceScheduler.Task> tasks = new ArrayList<>();
+        if (request.isIncremental()) {
+            // each slice depends on the previous, so they are calculated in order by a single task, which counts as all the slices
+            tasks.add(new SliceScheduler.Task(times.get(0), times.size(), () -> workers.forEach(NoGoWorker::run)));
+        } else {
+            for (int i= 0 ; i < times.size(); i++) {
+                tasks.add(new SliceScheduler.Task(times.get(i), workers.get(i)));
+            }
+        }
+        // the resources must exist before the workers can run, they are removed again if the scheduler rejects the request
+        workers.forEach(w -> resultStore.put(w.resourceId, new ResourceProcessingResult()));
+        streams.put(streamId, stream);
+        try {
+            scheduler.submit(client, tasks);
+        } catch (SchedulerSaturatedException e) {
+            workers.forEach(w -> resultStore.remove(w.resourceId));
+            streams.invalidate(streamId);
+            throw e;
         }
 
-        return new NoGoSliceResponse().setSlices(slices);
+        return new NoGoSliceResponse().setSlices(slices).setStreamURL(streamId);
+    }
+
+    @Override
+    public int subscribe(String streamId, int fromSlice, SliceListener listener) {
+        SliceStream stream = streams.getIfPresent(streamId);
+        if (stream == null) {
+            return -1;
+        }
+        stream.subscribe(fromSlice, listener);
+        return stream.size();
+    }
+
+    @Override
+    public void unsubscribe(String streamId, SliceListener listener) {
+        SliceStream stream = streams.getIfPresent(streamId);
+        if (stream != null) {
+            stream.unsubscribe(listener);
+        }
     }
 
 
     @Override
     public ResourceProcessingResult getStateAndData(String id) {
-        return resultCache.getIfPresent(id);
+        return resultStore.get(id);
     }
 
     /**
-     * Runnable that will call the NoGo service, and put the result into the cache
+     * Runnable that will call the NoGo service, and put the result into the result store
      */
     private class NoGoWorker implements Runnable {
         private final String resourceId;
-        private final NoGoRequest request;
+        private final SliceCalculation calculation;
+        private final int slice;
+        private final SliceStream stream;
 
-        NoGoWorker(String resourceId, NoGoRequest request) {
+        NoGoWorker(String resourceId, SliceCalculation calculation, int slice, SliceStream stream) {
             this.resourceId = resourceId;
-            this.request = request;
+            this.calculation = calculation;
+            this.slice = slice;
+            this.stream = stream;
         }
 
         @Override
         public void run() {
             try {
-                NoGoResponse noGoAreas = noGoService.getNoGoAreas(request);
-                resultCache.put(resourceId, ResourceProcessingResult.done(noGoAreas));
+                NoGoResponse noGoAreas = calculation.calculate(slice);
+                resultStore.put(resourceId, ResourceProcessingResult.done(noGoAreas));
             } catch (APIException e) {
-                resultCache.put(resourceId, ResourceProcessingResult.failed(e));
+                resultStore.put(resourceId, ResourceProcessingResult.failed(e));
             } catch (Exception e) {
-                resultCache.put(resourceId, ResourceProcessingResult.failed(new APIException(ErrorMessage.UNCAUGHT_EXCEPTION,e.getMessage())));
+                resultStore.put(resourceId, ResourceProcessingResult.failed(new APIException(ErrorMessage.UNCAUGHT_EXCEPTION,e.getMessage())));
             }
+            stream.completed(slice);
         }
     }
 }
@@ -0,0 +1,53 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.nogoservice.ApiProfiles;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Periodically refreshes the sea level cache of the query areas, see {@link GridDataQueryArea#setTidalCacheHours(int)}
+ */
+@Component
+@Profile(ApiProfiles.PRODUCTION)
+@Slf4j
+public class TidalCacheRefresher {
+
+    private final List<GridDataQueryArea> queryAreas;
+
+    @Autowired
+    public TidalCacheRefresher(List<GridDataQueryArea> queryAreas) {
+        this.queryAreas = queryAreas;
+    }
+
+    @Scheduled(initialDelay = 10 * 1000, fixedDelayString = "${nogo.tidal.cache.refreshMillis:300000}")
+    public void refresh() {
+        for (GridDataQueryArea area : queryAreas) {
+            try {
+                area.refreshTidalCache(Instant.now());
+            } catch (RuntimeException e) {
+                // the cached hours are kept, and requests for missing hours call the weather service
+                log.warn("Failed to refresh the sea level cache of {}: {}", area.getName(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.common.dto.JSonWarning;
+import dk.dma.dmiweather.dto.GridResponse;
+import dk.dma.nogoservice.dto.WarningMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The result of loading tidal information for a NoGo calculation, either the sea level grid, a warning if it could not be loaded, or nothing if
+ * the request did not include a time. A sea level grid from an earlier forecast also has a warning.
+ */
+class TidalInfo {
+
+    static final TidalInfo NONE = new TidalInfo(null, null);
+
+    private final TidalQueryObject tidal;
+    private final JSonWarning warning;
+
+    private TidalInfo(TidalQueryObject tidal, JSonWarning warning) {
+        this.tidal = tidal;
+        this.warning = warning;
+    }
+
+    static TidalInfo of(GridResponse weather) {
+        return new TidalInfo(new TidalQueryObject(weather), null);
+    }
+
+    static TidalInfo of(TidalQueryObject tidal) {
+        return new TidalInfo(tidal, null);
+    }
+
+    /**
+     * The lowest sea level over several times, see {@link TidalQueryObject#minimum(List)}
+     * @return the minimum with the first warning of the times, or the first tidal info without sea level, since the minimum is then unknown
+     */
+    static TidalInfo minimum(List<TidalInfo> infos) {
+        List<TidalQueryObject> fields = new ArrayList<>();
+        JSonWarning warning = null;
+        for (TidalInfo info : infos) {
+            if (info.tidal == null) {
+                return info;
+            }
+            fields.add(info.tidal);
+            warning = warning != null ? warning : info.warning;
+        }
+        return new TidalInfo(TidalQueryObject.minimum(fields), warning);
+    }
+
+    /**
+     * The sea level from an earlier forecast, used when the weather service is unavailable
+     * @param details which forecast the sea level is from
+     */
+    static TidalInfo stale(TidalQueryObject tidal, String details) {
+        WarningMessage warn = WarningMessage.STALE_TIDAL_INFO;
+        return new TidalInfo(tidal, new JSonWarning().setId(warn.getId()).setMessage(warn.getMessage()).setDetails(details));
+    }
+
+    /**
+     * @param details the reason the weather service could not provide the sea level
+     */
+    static TidalInfo missing(String details) {
+        WarningMessage warn = WarningMessage.MISSING_TIDAL_INFO;
+        return new TidalInfo(null, new JSonWarning().setId(warn.getId()).setMessage(warn.getMessage()).setDetails(details));
+    }
+
+    Optional<TidalQueryObject> getTidal() {
+        return Optional.ofNullable(tidal);
+    }
+
+    JSonWarning getWarning() {
+        return warning;
+    }
+}
@@ -15,35 +15,291 @@
 package dk.dma.nogoservice.service;
 
 import dk.dma.dmiweather.dto.GridDataPoint;
+import dk.dma.dmiweather.dto.GridParameterType;
 import dk.dma.dmiweather.dto.GridResponse;
-import dk.dma.nogoservice.entity.GeoCoordinateProvider;
+import dk.dma.nogoservice.entity.DepthPoint;
+
+import java.util.Arrays;
+import java.util.List;
 
 /**
- * wraps a weather response so we can easily query the weather at a give coordinate
+ * The sea level of a weather response, converted once to a primitive field, so the matcher does not touch the boxed JSON points for every depth point.
+ * <p>
+ * The field is row major with the southern row first, the same layout as the points of the response, and undefined values (land) are NaN.
+ * The sea level of a depth grid is looked up through a {@link Sampler}, which maps the columns and rows of the depth grid to the field once,
+ * so the lookup for a depth point is a few array reads.
+ *
  * @author Klaus Groenbaek
  *         Created 04/04/17.
  */
 class TidalQueryObject {
 
-    private final GridResponse response;
+    enum Interpolation {
+        /**
+         * the sea level of the nearest weather point, like the weather service does
+         */
+        NEAREST,
+        /**
+         * bilinear interpolation between the four surrounding weather points, undefined points are left out
+         */
+        BILINEAR
+    }
+
+    private final float[] seaLevel;
+    private final int nx;
+    private final int ny;
+    private final double lon0;
+    private final double lat0;
+    private final double dx;
+    private final double dy;
+    /**
+     * the range of the sea level of the depth points, which includes 0 since that is used where the sea level is undefined
+     */
+    private final float minimum;
+    private final float maximum;
 
     TidalQueryObject(GridResponse response) {
-        this.response = response;
+        this(seaLevel(response), response.getNx(), response.getNy(), response.getNorthWest().getLon(), response.getSouthEast().getLat(),
+                response.getDx(), response.getDy());
+    }
+
+    /**
+     * @param seaLevel the field, row major from the south west corner, NaN where the sea level is undefined
+     * @param lon0 the longitude of the western column
+     * @param lat0 the latitude of the southern row
+     */
+    TidalQueryObject(float[] seaLevel, int nx, int ny, double lon0, double lat0, double dx, double dy) {
+        this.seaLevel = seaLevel;
+        this.nx = nx;
+        this.ny = ny;
+        this.lon0 = lon0;
+        this.lat0 = lat0;
+        this.dx = dx;
+        this.dy = dy;
+        float min = 0;
+        float max = 0;
+        for (float value : seaLevel) {
+            // NaN fails both comparisons
+            min = value < min ? value : min;
+            max = value > max ? value : max;
+        }
+        minimum = min;
+        maximum = max;
+    }
+
+    /**
+     * @return the lowest sea level a depth point can get, from any interpolation
+     */
+    float getMinimum() {
+        return minimum;
+    }
+
+    /**
+     * @return the highest sea level a depth point can get, from any interpolation
+     */
+    float getMaximum() {
+        return maximum;
     }
 
-    float getTidalHeight(GeoCoordinateProvider coordinateProvider) {
+    /**
+     * @return true if the field covers the area, within a grid spacing, since the weather service aligns the field with the forecast
+     */
+    boolean covers(double west, double south, double east, double north) {
+        return lon0 - dx <= west && lon0 + nx * dx >= east && lat0 - dy <= south && lat0 + ny * dy >= north;
+    }
+
+    private static float[] seaLevel(GridResponse response) {
+        if (response.getData() != null) {
+            // the binary format, which is already a field
+            float[] field = response.getData().get(GridParameterType.SeaLevel);
+            if (field == null) {
+                field = new float[response.getNx() * response.getNy()];
+                Arrays.fill(field, Float.NaN);
+            }
+            return field;
+        }
+        List<GridDataPoint> points = response.getPoints();
+        float[] field = new float[points.size()];
+        for (int i = 0; i < field.length; i++) {
+            Float value = points.get(i).getSeaLevel();
+            field[i] = value != null ? value : Float.NaN;
+        }
+        return field;
+    }
 
-        double lon = coordinateProvider.getLon();
-        double lat = coordinateProvider.getLat();
+    /**
+     * The lowest sea level of several fields, in each point of the first field. Fields on a different grid are sampled at the nearest point.
+     * A point is only undefined if it is undefined in all the fields.
+     */
+    static TidalQueryObject minimum(List<TidalQueryObject> fields) {
+        TidalQueryObject first = fields.get(0);
+        float[] minimum = first.seaLevel.clone();
+        for (TidalQueryObject field : fields.subList(1, fields.size())) {
+            boolean sameGrid = field.nx == first.nx && field.ny == first.ny && field.lon0 == first.lon0 && field.lat0 == first.lat0
+                    && field.dx == first.dx && field.dy == first.dy;
+            for (int y = 0; y < first.ny; y++) {
+                for (int x = 0; x < first.nx; x++) {
+                    int index = y * first.nx + x;
+                    float value = sameGrid ? field.seaLevel[index] : field.nearestValue(first.lat0 + y * first.dy, first.lon0 + x * first.dx);
+                    // NaN != NaN, so an undefined minimum takes the value, and an undefined value is ignored
+                    if (value < minimum[index] || minimum[index] != minimum[index]) {
+                        minimum[index] = value;
+                    }
+                }
+            }
+        }
+        return new TidalQueryObject(minimum, first.nx, first.ny, first.lon0, first.lat0, first.dx, first.dy);
+    }
+
+    /**
+     * @return the sea level nearest to the coordinate, 0 if it is undefined
+     */
+    float getTidalHeight(double lat, double lon) {
+        float value = nearestValue(lat, lon);
+        return value == value ? value : 0f;
+    }
+
+    /**
+     * @return the sea level nearest to the coordinate, NaN if it is undefined
+     */
+    private float nearestValue(double lat, double lon) {
+        return seaLevel[row(nearest((lat - lat0) / dy, ny)) + nearest((lon - lon0) / dx, nx)];
+    }
+
+    /**
+     * Maps the columns and rows of the depth grid to the field
+     */
+    Sampler sampler(DepthGrid grid, Interpolation interpolation) {
+        List<List<DepthPoint>> rows = grid.getRows();
+        double[] lons = rows.get(0).stream().mapToDouble(DepthPoint::getLon).toArray();
+        double[] lats = rows.stream().mapToDouble(row -> row.get(0).getLat()).toArray();
+        return sampler(lons, lats, interpolation);
+    }
+
+    /**
+     * Maps the columns and rows of a grid to the field
+     * @param lons the longitude of each column
+     * @param lats the latitude of each row
+     */
+    Sampler sampler(double[] lons, double[] lats, Interpolation interpolation) {
+        int[] col0 = new int[lons.length];
+        int[] col1 = new int[lons.length];
+        float[] wx = new float[lons.length];
+        for (int x = 0; x < col0.length; x++) {
+            double position = (lons[x] - lon0) / dx;
+            if (interpolation == Interpolation.NEAREST) {
+                col0[x] = col1[x] = nearest(position, nx);
+            } else {
+                col0[x] = floor(position, nx);
+                col1[x] = Math.min(col0[x] + 1, nx - 1);
+                wx[x] = weight(position, col0[x]);
+            }
+        }
+        int[] row0 = new int[lats.length];
+        int[] row1 = new int[lats.length];
+        float[] wy = new float[lats.length];
+        for (int y = 0; y < row0.length; y++) {
+            double position = (lats[y] - lat0) / dy;
+            if (interpolation == Interpolation.NEAREST) {
+                row0[y] = row1[y] = row(nearest(position, ny));
+            } else {
+                int row = floor(position, ny);
+                row0[y] = row(row);
+                row1[y] = row(Math.min(row + 1, ny - 1));
+                wy[y] = weight(position, row);
+            }
+        }
+        return new Sampler(seaLevel, col0, col1, wx, row0, row1, wy);
+    }
+
+    /**
+     * @return the offset of the row in the field
+     */
+    private int row(int row) {
+        return row * nx;
+    }
+
+    private static int nearest(double position, int size) {
+        return clamp((int) Math.round(position), size);
+    }
+
+    private static int floor(double position, int size) {
+        return clamp((int) Math.floor(position), size);
+    }
+
+    private static int clamp(int index, int size) {
+        return Math.max(0, Math.min(index, size - 1));
+    }
+
+    /**
+     * @return the weight of the following point, outside the field the edge value is used
+     */
+    private static float weight(double position, int index) {
+        return (float) Math.max(0, Math.min(1, position - index));
+    }
+
+    /**
+     * The sea level for the points of a depth grid, the lookup allocates nothing, so it can be used for every depth point in the matcher
+     */
+    static final class Sampler {
+        private final float[] seaLevel;
+        private final int[] col0;
+        private final int[] col1;
+        private final float[] wx;
+        private final int[] row0;
+        private final int[] row1;
+        private final float[] wy;
+
+        private Sampler(float[] seaLevel, int[] col0, int[] col1, float[] wx, int[] row0, int[] row1, float[] wy) {
+            this.seaLevel = seaLevel;
+            this.col0 = col0;
+            this.col1 = col1;
+            this.wx = wx;
+            this.row0 = row0;
+            this.row1 = row1;
+            this.wy = wy;
+        }
+
+        /**
+         * @param x the column in the depth grid
+         * @param y the row in the depth grid
+         * @return the sea level, 0 if it is undefined
+         */
+        float getTidalHeight(int x, int y) {
+            float fx = wx[x];
+            float fy = wy[y];
+            float southWest = seaLevel[row0[y] + col0[x]];
+            float southEast = seaLevel[row0[y] + col1[x]];
+            float northWest = seaLevel[row1[y] + col0[x]];
+            float northEast = seaLevel[row1[y] + col1[x]];
+            float value = (southWest * (1 - fx) + southEast * fx) * (1 - fy) + (northWest * (1 - fx) + northEast * fx) * fy;
+            if (value == value) {
+                return value;
+            }
+            // near land some of the points are undefined, NaN != NaN
+            return partial(southWest, southEast, northWest, northEast, fx, fy);
+        }
 
-        int startY = (int) Math.round((lat - response.getSouthEast().getLat()) / response.getDy());
-        int startX = (int) Math.round((lon - response.getNorthWest().getLon()) / response.getDx());
-        int index = startY * response.getNx() + startX;
-        GridDataPoint dataPoint = response.getPoints().get(index);
-        Float seaLevel = dataPoint.getSeaLevel();
-        if (seaLevel == null) {
-            return 0f;
+        private static float partial(float southWest, float southEast, float northWest, float northEast, float fx, float fy) {
+            float sum = 0;
+            float weights = 0;
+            if (southWest == southWest) {
+                sum += southWest * (1 - fx) * (1 - fy);
+                weights += (1 - fx) * (1 - fy);
+            }
+            if (southEast == southEast) {
+                sum += southEast * fx * (1 - fy);
+                weights += fx * (1 - fy);
+            }
+            if (northWest == northWest) {
+                sum += northWest * (1 - fx) * fy;
+                weights += (1 - fx) * fy;
+            }
+            if (northEast == northEast) {
+                sum += northEast * fx * fy;
+                weights += fx * fy;
+            }
+            return weights > 0 ? sum / weights : 0f;
         }
-        return seaLevel;
     }
 }
@@ -0,0 +1,224 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.vividsolutions.jts.geom.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Minimal encoder for Mapbox Vector Tiles (https://github.com/mapbox/vector-tile-spec/tree/master/2.1). It only supports what we need for NoGo areas,
+ * a single layer of polygons where every feature has the same attribute. The protobuf wire format is written by hand, so we don't need the protobuf
+ * runtime and generated classes for three small messages.
+ * <p>
+ * The polygons must already be in tile coordinates (0 - EXTENT, with y pointing down).
+ */
+final class VectorTileEncoder {
+
+    static final int EXTENT = 4096;
+
+    // protobuf wire types
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+
+    // MVT geometry commands
+    private static final int MOVE_TO = 1;
+    private static final int LINE_TO = 2;
+    private static final int CLOSE_PATH = 7;
+    private static final int POLYGON = 3;
+
+    /**
+     * Encodes a tile with a single layer
+     * @param layerName the name of the layer
+     * @param polygons the polygons in tile coordinates
+     * @param key the name of the attribute all features have
+     * @param value the value of the attribute
+     * @return the encoded tile
+     */
+    static byte[] encode(String layerName, List<Polygon> polygons, String key, double value) {
+        ProtoWriter layer = new ProtoWriter();
+        layer.writeVarintField(15, 2);                          // version
+        layer.writeBytesField(1, utf8(layerName));             // name
+        long id = 1;
+        for (Polygon polygon : polygons) {
+            int[] geometry = encodeGeometry(polygon);
+            if (geometry.length == 0) {
+                continue;
+            }
+            ProtoWriter feature = new ProtoWriter();
+            feature.writeVarintField(1, id++);                   // id
+            feature.writePackedField(2, new int[]{0, 0});        // tags, key index 0, value index 0
+            feature.writeVarintField(3, POLYGON);                // type
+            feature.writePackedField(4, geometry);               // geometry
+            layer.writeBytesField(2, feature.toByteArray());
+        }
+        layer.writeBytesField(3, utf8(key));                   // keys
+
+        ProtoWriter doubleValue = new ProtoWriter();
+        doubleValue.writeDoubleField(3, value);
+        layer.writeBytesField(4, doubleValue.toByteArray());   // values
+        layer.writeVarintField(5, EXTENT);                     // extent
+
+        ProtoWriter tile = new ProtoWriter();
+        tile.writeBytesField(3, layer.toByteArray());
+        return tile.toByteArray();
+    }
+
+    /**
+     * Encodes the polygon as MoveTo, LineTo, ClosePath commands. The exterior ring must have a positive area (clockwise on screen) and holes a negative area.
+     * @return the command integers, or an empty array if the exterior ring collapsed when snapped to the integer grid
+     */
+    private static int[] encodeGeometry(Polygon polygon) {
+        IntList commands = new IntList();
+        int[] cursor = new int[2];
+        if (!encodeRing(polygon.getExteriorRing().getCoordinates(), true, commands, cursor)) {
+            return new int[0];
+        }
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            encodeRing(polygon.getInteriorRingN(i).getCoordinates(), false, commands, cursor);
+        }
+        return commands.toArray();
+    }
+
+    private static boolean encodeRing(Coordinate[] coordinates, boolean exterior, IntList commands, int[] cursor) {
+        // snap to the integer grid, and remove the duplicates this may produce, including the closing point
+        int[] xs = new int[coordinates.length];
+        int[] ys = new int[coordinates.length];
+        int count = 0;
+        for (Coordinate coordinate : coordinates) {
+            int x = (int) Math.round(coordinate.x);
+            int y = (int) Math.round(coordinate.y);
+            if (count == 0 || xs[count - 1] != x || ys[count - 1] != y) {
+                xs[count] = x;
+                ys[count] = y;
+                count++;
+            }
+        }
+        if (count > 1 && xs[0] == xs[count - 1] && ys[0] == ys[count - 1]) {
+            count--;
+        }
+        if (count < 3) {
+            return false;
+        }
+
+        long area = 0;
+        for (int i = 0; i < count; i++) {
+            int next = (i + 1) % count;
+            area += (long) xs[i] * ys[next] - (long) xs[next] * ys[i];
+        }
+        if (area == 0) {
+            return false;
+        }
+        boolean reverse = exterior ? area < 0 : area > 0;
+
+        commands.add(command(MOVE_TO, 1));
+        for (int i = 0; i < count; i++) {
+            int index = reverse ? count - 1 - i : i;
+            if (i == 1) {
+                commands.add(command(LINE_TO, count - 1));
+            }
+            commands.add(zigZag(xs[index] - cursor[0]));
+            commands.add(zigZag(ys[index] - cursor[1]));
+            cursor[0] = xs[index];
+            cursor[1] = ys[index];
+        }
+        commands.add(command(CLOSE_PATH, 1));
+        return true;
+    }
+
+    private static int command(int id, int count) {
+        return (id & 0x7) | (count << 3);
+    }
+
+    private static int zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the protobuf wire format
+     */
+    private static class ProtoWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void writeVarintField(int field, long value) {
+            writeVarint(field << 3 | VARINT);
+            writeVarint(value);
+        }
+
+        void writeDoubleField(int field, double value) {
+            writeVarint(field << 3 | FIXED64);
+            long bits = Double.doubleToLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                out.write((int) (bits >>> (8 * i)) & 0xFF);   // little endian
+            }
+        }
+
+        void writeBytesField(int field, byte[] bytes) {
+            writeVarint(field << 3 | LENGTH_DELIMITED);
+            writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        void writePackedField(int field, int[] values) {
+            ProtoWriter packed = new ProtoWriter();
+            for (int value : values) {
+                packed.writeVarint(value & 0xFFFFFFFFL);    // uint32
+            }
+            writeBytesField(field, packed.toByteArray());
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    private static class IntList {
+        private int[] values = new int[64];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                int[] copy = new int[size * 2];
+                System.arraycopy(values, 0, copy, 0, size);
+                values = copy;
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            int[] copy = new int[size];
+            System.arraycopy(values, 0, copy, 0, size);
+            return copy;
+        }
+    }
+
+    private VectorTileEncoder() {
+    }
+}
@@ -0,0 +1,198 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.common.exception.APIException;
+import dk.dma.common.exception.ErrorMessage;
+import dk.dma.nogoservice.dto.NoGoPolygon;
+import dk.dma.nogoservice.dto.NoGoRequest;
+import dk.dma.nogoservice.dto.NoGoResponse;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves NoGo areas as Mapbox Vector Tiles in the XYZ (Web Mercator) tiling scheme.
+ * <p>
+ * The NoGo areas are calculated for the tile bounds (plus a small buffer, so polygons don't end abruptly at the tile edge), projected into tile
+ * coordinates, clipped to the buffered tile and simplified to the tile resolution. Tiles are cached by (z, x, y, draught bucket, forecast hour).
+ * The draught is rounded up to the bucket size, which is conservative since a larger draught can only give more NoGo area, and the time is rounded
+ * to the nearest hour, which is the resolution of the tidal forecast.
+ */
+@Component
+public class VectorTileService {
+
+    static final String LAYER = "nogo";
+    private static final int MAX_ZOOM = 22;
+    /**
+     * Number of tile units per screen pixel, for a tile rendered at 256x256 pixels
+     */
+    private static final int UNITS_PER_PIXEL = VectorTileEncoder.EXTENT / 256;
+    private static final int BUFFER = 8 * UNITS_PER_PIXEL;
+
+    private final NoGoService noGoService;
+    private final int minZoom;
+    private final double draughtBucket;
+    private final Cache<TileKey, byte[]> cache;
+    private final GeometryFactory factory = new GeometryFactory();
+
+    @Autowired
+    public VectorTileService(NoGoService noGoService,
+                             @Value("${nogo.tiles.minZoom:9}") int minZoom,
+                             @Value("${nogo.tiles.draughtBucket:0.5}") double draughtBucket,
+                             @Value("${nogo.tiles.cacheSizeMB:64}") long cacheSizeMB) {
+        this.noGoService = noGoService;
+        this.minZoom = minZoom;
+        this.draughtBucket = draughtBucket;
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(cacheSizeMB * 1024 * 1024)
+                .weigher((TileKey key, byte[] tile) -> tile.length)
+                .expireAfterWrite(1, TimeUnit.HOURS)
+                .build();
+    }
+
+    /**
+     * @param z the zoom level
+     * @param x the tile column, from the west
+     * @param y the tile row, from the north
+     * @param draught the draught of the vessel
+     * @param time optional, if included tidal information is used
+     * @return the encoded tile, an empty array if there are no NoGo areas in the tile
+     */
+    public byte[] getTile(int z, int x, int y, double draught, Instant time) {
+        if (z < minZoom || z > MAX_ZOOM || x < 0 || y < 0 || x >= 1 << z || y >= 1 << z) {
+            throw new APIException(ErrorMessage.INVALID_TILE, String.format("Tile %d/%d/%d is outside the tile grid, or outside the supported zoom levels %d - %d",
+                    z, x, y, minZoom, MAX_ZOOM));
+        }
+        double bucketDraught = Math.ceil(draught / draughtBucket) * draughtBucket;
+        Instant forecastTime = time != null ? time.plus(30, ChronoUnit.MINUTES).truncatedTo(ChronoUnit.HOURS) : null;
+        TileKey key = new TileKey(z, x, y, bucketDraught, forecastTime);
+
+        byte[] tile = cache.getIfPresent(key);
+        if (tile == null) {
+            NoGoResponse response = calculate(key);
+            tile = encode(key, response);
+            // a response with a warning is missing tidal information, so it may change when the weather service is available again
+            if (response.getWarning() == null) {
+                cache.put(key, tile);
+            }
+        }
+        return tile;
+    }
+
+    private NoGoResponse calculate(TileKey key) {
+        double buffer = (double) BUFFER / VectorTileEncoder.EXTENT;
+        NoGoRequest request = new NoGoRequest().setDraught(key.draught).setTime(key.time)
+                .setNorthWest(new GeoCoordinate(tileToLon(key.x - buffer, key.z), tileToLat(key.y - buffer, key.z)))
+                .setSouthEast(new GeoCoordinate(tileToLon(key.x + 1 + buffer, key.z), tileToLat(key.y + 1 + buffer, key.z)));
+        try {
+            return noGoService.getNoGoAreas(request);
+        } catch (APIException e) {
+            if (e.getError() == ErrorMessage.OUTSIDE_GRID) {
+                return new NoGoResponse().setPolygons(new ArrayList<>());
+            }
+            throw e;
+        }
+    }
+
+    private byte[] encode(TileKey key, NoGoResponse response) {
+        Geometry clip = factory.toGeometry(new Envelope(-BUFFER, VectorTileEncoder.EXTENT + BUFFER, -BUFFER, VectorTileEncoder.EXTENT + BUFFER));
+        List<Polygon> polygons = new ArrayList<>();
+        for (NoGoPolygon noGoPolygon : response.getPolygons()) {
+            List<GeoCoordinate> points = noGoPolygon.getPoints();
+            if (points.size() < 4) {
+                continue;
+            }
+            // the ring must be closed, but don't depend on the producer doing that
+            boolean closed = points.get(0).equals(points.get(points.size() - 1));
+            Coordinate[] coordinates = new Coordinate[closed ? points.size() : points.size() + 1];
+            for (int i = 0; i < points.size(); i++) {
+                GeoCoordinate point = points.get(i);
+                coordinates[i] = new Coordinate((lonToTile(point.getLon(), key.z) - key.x) * VectorTileEncoder.EXTENT,
+                        (latToTile(point.getLat(), key.z) - key.y) * VectorTileEncoder.EXTENT);
+            }
+            if (!closed) {
+                coordinates[points.size()] = new Coordinate(coordinates[0]);
+            }
+            Geometry polygon = factory.createPolygon(coordinates);
+            if (!clip.intersects(polygon)) {
+                continue;
+            }
+            if (!polygon.isValid()) {
+                polygon = polygon.buffer(0);
+            }
+            Geometry clipped = clip.contains(polygon) ? polygon : clip.intersection(polygon);
+            addPolygons(TopologyPreservingSimplifier.simplify(clipped, UNITS_PER_PIXEL / 2.0), polygons);
+        }
+        if (polygons.isEmpty()) {
+            return new byte[0];
+        }
+        return VectorTileEncoder.encode(LAYER, polygons, "draught", key.draught);
+    }
+
+    private void addPolygons(Geometry geometry, List<Polygon> polygons) {
+        if (geometry instanceof Polygon) {
+            if (!geometry.isEmpty()) {
+                polygons.add((Polygon) geometry);
+            }
+        } else if (geometry instanceof GeometryCollection) {
+            // MultiPolygon, or a mix of polygons and lines/points from touching edges
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                addPolygons(geometry.getGeometryN(i), polygons);
+            }
+        }
+    }
+
+    static double tileToLon(double x, int z) {
+        return x / (1 << z) * 360.0 - 180.0;
+    }
+
+    static double tileToLat(double y, int z) {
+        double n = Math.PI - 2.0 * Math.PI * y / (1 << z);
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+
+    static double lonToTile(double lon, int z) {
+        return (lon + 180.0) / 360.0 * (1 << z);
+    }
+
+    static double latToTile(double lat, int z) {
+        double radians = Math.toRadians(lat);
+        return (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2 * (1 << z);
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static final class TileKey {
+        private final int z;
+        private final int x;
+        private final int y;
+        private final double draught;
+        private final Instant time;
+    }
+}
@@ -16,6 +16,10 @@ package dk.dma.nogoservice.service;
 
 import dk.dma.dmiweather.dto.GridRequest;
 import dk.dma.dmiweather.dto.GridResponse;
+import dk.dma.dmiweather.dto.GridSeriesRequest;
+import dk.dma.dmiweather.dto.GridSeriesResponse;
+
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Klaus Groenbaek
@@ -23,4 +27,40 @@ import dk.dma.dmiweather.dto.GridResponse;
  */
 public interface WeatherService {
     GridResponse getWeather(GridRequest request);
+
+    /**
+     * Weather for the same grid at several times in a single call
+     * @return a grid for each requested time, in the same order
+     */
+    GridSeriesResponse getWeatherSeries(GridSeriesRequest request);
+
+    /**
+     * Weather for a grid, without blocking the calling thread. The default implementation calls {@link #getWeather(GridRequest)} directly.
+     * @return a future which is completed with the weather, or exceptionally with the same exceptions as {@link #getWeather(GridRequest)}
+     */
+    default CompletableFuture<GridResponse> getWeatherAsync(GridRequest request) {
+        CompletableFuture<GridResponse> future = new CompletableFuture<>();
+        try {
+            future.complete(getWeather(request));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Weather for the same grid at several times, without blocking the calling thread. The default implementation calls
+     * {@link #getWeatherSeries(GridSeriesRequest)} directly.
+     * @return a future which is completed with a grid for each requested time, or exceptionally with the same exceptions as
+     * {@link #getWeatherSeries(GridSeriesRequest)}
+     */
+    default CompletableFuture<GridSeriesResponse> getWeatherSeriesAsync(GridSeriesRequest request) {
+        CompletableFuture<GridSeriesResponse> future = new CompletableFuture<>();
+        try {
+            future.complete(getWeatherSeries(request));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 }
@@ -15,8 +15,11 @@
 package dk.dma.nogoservice;
 
 import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBReader;
 import dk.dma.Asserts;
 import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.nogoservice.controller.MultiPolygonResponses;
 import dk.dma.nogoservice.dto.*;
 import dk.dma.nogoservice.service.TestNoGoService;
 import dk.dma.nogoservice.service.TestTokenProvider;
@@ -111,13 +114,50 @@ public class NoGoServiceTest {
     }
 
 
+    @Test
+    public void plainWkt() throws Exception {
+        NoGoRequest request = new NoGoRequest().setNorthWest(new GeoCoordinate(12.645173535741588, 55.64053813461296))
+                .setSouthEast(new GeoCoordinate(12.704356943619615, 55.61035686376758));
+        request.setDraught(4d);
+
+        String wkt = makeDepthRequest(request, squareResponse(), "/area/wkt", String.class, MediaType.TEXT_PLAIN);
+        assertEquals("wkt result",
+                "MULTIPOLYGON (((9.419409 54.36294, 13.149009 54.36294, 13.149009 56.36316, 9.419409 56.36316, 9.419409 54.36294)))", wkt);
+    }
+
+    @Test
+    public void wkb() throws Exception {
+        NoGoRequest request = new NoGoRequest().setNorthWest(new GeoCoordinate(12.645173535741588, 55.64053813461296))
+                .setSouthEast(new GeoCoordinate(12.704356943619615, 55.61035686376758));
+        request.setDraught(5d);
+
+        byte[] wkb = makeDepthRequest(request, squareResponse(), "/area/wkt", byte[].class, MultiPolygonResponses.WKB);
+        Geometry geometry = new WKBReader().read(wkb);
+        assertEquals("wkb result",
+                "MULTIPOLYGON (((9.419409 54.36294, 13.149009 54.36294, 13.149009 56.36316, 9.419409 56.36316, 9.419409 54.36294)))", geometry.toText());
+    }
+
+    private NoGoResponse squareResponse() {
+        ArrayList<GeoCoordinate> points = new ArrayList<>();
+        points.add(new GeoCoordinate(9.419409, 54.36294));
+        points.add(new GeoCoordinate(13.149009, 54.36294));
+        points.add(new GeoCoordinate(13.149009, 56.36316));
+        points.add(new GeoCoordinate(9.419409, 56.36316));
+        points.add(new GeoCoordinate(9.419409, 54.36294));
+        return new NoGoResponse().setPolygons(Lists.newArrayList(new NoGoPolygon().setPoints(points)));
+    }
+
     private <T> T makeDepthRequest(NoGoRequest request, NoGoResponse response, String path, Class<T> responseClass) {
+        return makeDepthRequest(request, response, path, responseClass, MediaType.APPLICATION_JSON);
+    }
+
+    private <T> T makeDepthRequest(NoGoRequest request, NoGoResponse response, String path, Class<T> responseClass, MediaType accept) {
         testService.addRequestResponseMapping(request, response);
 
         RestTemplate template = new RestTemplate();
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setAccept(Lists.newArrayList(MediaType.APPLICATION_JSON));
+        headers.setAccept(Lists.newArrayList(accept));
         headers.add("Authorization", "Bearer " + tokenProvider.getToken());
 
         RequestEntity<NoGoRequest> requestEntity = new RequestEntity<>(request, headers, HttpMethod.POST, getURI(path));
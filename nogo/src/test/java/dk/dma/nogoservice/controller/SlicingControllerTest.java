@@ -0,0 +1,63 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.controller;
+
+import dk.dma.nogoservice.dto.NoGoResponse;
+import dk.dma.nogoservice.service.ResourceProcessingResult;
+import dk.dma.nogoservice.service.ResourceState;
+import dk.dma.nogoservice.service.SliceListener;
+import org.junit.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SlicingControllerTest {
+
+    @Test
+    public void failedSendCompletesTheStream() throws Exception {
+        FailingEmitter emitter = new FailingEmitter();
+        SliceListener listener = SlicingController.sender(emitter, response -> response);
+        ResourceProcessingResult result = mock(ResourceProcessingResult.class);
+        when(result.getState()).thenReturn(ResourceState.Done);
+        when(result.getResponse()).thenReturn(new NoGoResponse());
+
+        try {
+            listener.onSlice(0, result, false);
+            fail("the listener must throw, so it is removed");
+        } catch (IOException e) {
+            assertSame(emitter.failure, e);
+        }
+        assertSame("the emitter is completed with the error", emitter.failure, emitter.completedWith);
+    }
+
+    private static class FailingEmitter extends SseEmitter {
+        private final IOException failure = new IOException("Broken pipe");
+        private Throwable completedWith;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            throw failure;
+        }
+
+        @Override
+        public synchronized void completeWithError(Throwable ex) {
+            completedWith = ex;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final CircuitBreaker breaker = new CircuitBreaker("test", 3, 1000, now::get);
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        breaker.failure();
+        breaker.failure();
+        breaker.success();
+        breaker.failure();
+        breaker.failure();
+        assertTrue("failures are not consecutive", breaker.allowRequest());
+        breaker.failure();
+        assertTrue(breaker.isOpen());
+        assertFalse("rejected while open", breaker.allowRequest());
+    }
+
+    @Test
+    public void trialAfterOpenPeriod() {
+        for (int i = 0; i < 3; i++) {
+            breaker.failure();
+        }
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertTrue("trial call", breaker.allowRequest());
+        assertFalse("only a single trial call", breaker.allowRequest());
+        breaker.failure();
+        assertFalse("failed trial opens the circuit again", breaker.allowRequest());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertTrue(breaker.allowRequest());
+        breaker.success();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+    }
+}
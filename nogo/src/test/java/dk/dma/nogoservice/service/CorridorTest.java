@@ -0,0 +1,107 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.nogoservice.RequestProfile;
+import dk.dma.nogoservice.dto.GridData;
+import dk.dma.nogoservice.dto.NoGoProfile;
+import dk.dma.nogoservice.dto.NoGoResponse;
+import dk.dma.nogoservice.dto.NoGoRouteRequest;
+import org.junit.Test;
+
+import java.util.List;
+
+import static dk.dma.nogoservice.service.TestAreas.*;
+import static org.junit.Assert.*;
+
+public class CorridorTest {
+
+    /**
+     * 60x60 cells of 1/300 degree
+     */
+    private final GridData gridData = new GridData().setLo1(12.0).setLo2(12.2).setLa1(56.0).setLa2(56.2).setNx(60).setNy(60);
+
+    @Test
+    public void rowSpans() {
+        // 100 meters wide along row 30 from column 10 to 20, a cell is about 370 x 210 meters
+        Corridor corridor = Corridor.of(Lists.newArrayList(new GeoCoordinate(12.0 + 10 / 300.0, 56.1), new GeoCoordinate(12.0 + 20 / 300.0, 56.1)), 100);
+        int[][] spans = corridor.rowSpans(new GridWindow(0, 0, 60, 60), gridData);
+        assertArrayEquals("widened by a cell diagonal", new int[]{8, 22}, spans[30]);
+        assertArrayEquals(new int[]{9, 21}, spans[29]);
+        assertArrayEquals(new int[]{9, 21}, spans[31]);
+        assertEquals(0, spans[28].length);
+        assertEquals(0, spans[32].length);
+        assertEquals(15, Corridor.cells(spans[30]));
+
+        int[][] window = corridor.rowSpans(new GridWindow(15, 30, 20, 1), gridData);
+        assertArrayEquals("relative to the window", new int[]{0, 7}, window[0]);
+    }
+
+    @Test
+    public void contains() {
+        int[] spans = {2, 4, 8, 8};
+        assertFalse(Corridor.contains(spans, 1));
+        assertTrue(Corridor.contains(spans, 2));
+        assertTrue(Corridor.contains(spans, 4));
+        assertFalse(Corridor.contains(spans, 5));
+        assertTrue(Corridor.contains(spans, 8));
+        assertFalse(Corridor.contains(spans, 9));
+        assertFalse(Corridor.contains(new int[0], 0));
+    }
+    @Test
+    public void routeCorridor() {
+        DefaultNoGoService service = createService(new StubWeatherService());
+        NoGoRouteRequest diagonal = new NoGoRouteRequest().setRoute(Lists.newArrayList(new GeoCoordinate(12.0, 56.0), new GeoCoordinate(12.2, 56.2)))
+                .setCorridorWidth(1000.0).setDraught(5.0);
+        RequestProfile profile = RequestProfile.start();
+        NoGoResponse route = profile.call(() -> service.getNoGoAreasAsync(diagonal, Runnable::run).join());
+        assertEquals("both shallow areas are on the route", 2, route.getPolygons().size());
+        NoGoProfile.AreaProfile areaProfile = profile.finish(10, route).getAreas().get(0);
+        assertTrue("stages without a field of their own are profiled", areaProfile.getStages().containsKey(NoGoStage.CORRIDOR.getMetricName()));
+        assertTrue(areaProfile.getStages().containsKey(NoGoStage.CORRIDOR_CLIP.getMetricName()));
+
+        Geometry corridor = Corridor.of(diagonal.getRoute(), 1000).getGeometry();
+        assertTrue(corridor.buffer(0.00001).contains(geometry(route)));
+        Geometry boundingBox = geometry(service.getNoGoAreas(request())).intersection(corridor);
+        assertEquals("the bounding box clipped to the corridor", boundingBox.getArea(), geometry(route).getArea(), boundingBox.getArea() * 0.02);
+
+        NoGoRouteRequest south = new NoGoRouteRequest().setRoute(Lists.newArrayList(new GeoCoordinate(12.0, 56.005), new GeoCoordinate(12.2, 56.005)))
+                .setCorridorWidth(500.0).setDraught(5.0);
+        assertEquals("no shallow areas along the route", 0, service.getNoGoAreasAsync(south, Runnable::run).join().getPolygons().size());
+    }
+
+    @Test
+    public void landInCorridor() {
+        float[] data = depths();
+        // land along the west edge
+        for (int y = 20; y < 40; y++) {
+            for (int x = 0; x < 10; x++) {
+                data[y * SIZE + x] = GridData.NO_DATA;
+            }
+        }
+        GridDataQueryArea area = createArea(new StubWeatherService(), NoGoMetrics.NONE, data);
+        Corridor corridor = Corridor.of(Lists.newArrayList(new GeoCoordinate(12.0, 56.1), new GeoCoordinate(12.2, 56.1)), 500);
+        List<Geometry> nogoAreas = area.getNogoAreas(request().setDraught(2.0), corridor, TidalInfo.NONE).getNogoAreas();
+        assertEquals("only the land", 1, nogoAreas.size());
+        assertTrue(corridor.getGeometry().buffer(0.00001).contains(nogoAreas.get(0)));
+        assertTrue(nogoAreas.get(0).contains(new GeometryFactory().createPoint(new Coordinate(12.01, 56.1))));
+    }
+
+}
@@ -0,0 +1,198 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.collect.Lists;
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.nogoservice.ComputationCancelledException;
+import dk.dma.nogoservice.Deadline;
+import dk.dma.nogoservice.RequestProfile;
+import dk.dma.nogoservice.dto.NoGoProfile;
+import dk.dma.nogoservice.dto.NoGoResponse;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static dk.dma.nogoservice.service.TestAreas.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the NoGo service with a small in memory grid, and a weather service which returns a constant sea level
+ */
+public class DefaultNoGoServiceTest {
+
+    @Test
+    public void slicesLoadWeatherOnce() {
+        StubWeatherService weatherService = new StubWeatherService();
+        DefaultNoGoService service = createService(weatherService);
+
+        SliceCalculation calculation = service.prepareSlices(request(), Lists.newArrayList(LOW_TIDE, HIGH_TIDE), false);
+        NoGoResponse low = calculation.calculate(0);
+        NoGoResponse high = calculation.calculate(1);
+
+        assertEquals("one series request", 1, weatherService.seriesRequests);
+        assertEquals("no single requests", 0, weatherService.requests);
+        assertEquals("shallow areas are NoGo at low tide", 2, low.getPolygons().size());
+        assertEquals("shallow areas are Go at high tide", 0, high.getPolygons().size());
+    }
+
+    @Test
+    public void slicesSameAsSingleRequests() {
+        StubWeatherService weatherService = new StubWeatherService();
+        DefaultNoGoService service = createService(weatherService);
+
+        SliceCalculation calculation = service.prepareSlices(request(), Lists.newArrayList(LOW_TIDE, HIGH_TIDE), false);
+        assertEquals(service.getNoGoAreas(request().setTime(LOW_TIDE)), calculation.calculate(0));
+        assertEquals(service.getNoGoAreas(request().setTime(HIGH_TIDE)), calculation.calculate(1));
+    }
+
+    @Test
+    public void concurrentRequestsAreCoalesced() throws Exception {
+        StubWeatherService weatherService = new StubWeatherService();
+        weatherService.gate = new CountDownLatch(1);
+        DefaultNoGoService service = createService(weatherService);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<NoGoResponse> first = executor.submit(() -> service.getNoGoAreas(request().setTime(LOW_TIDE)));
+            while (weatherService.requests == 0) {
+                Thread.sleep(5);
+            }
+            // a slightly different area which snaps to the same depth cells, at a time which resolves to the same forecast
+            Future<NoGoResponse> second = executor.submit(() -> service.getNoGoAreas(request().setTime(LOW_TIDE.plusSeconds(600))
+                    .setNorthWest(new GeoCoordinate(12.00001, 56.2))));
+            while (service.getCoalesced() == 0) {
+                Thread.sleep(5);
+            }
+            weatherService.gate.countDown();
+
+            assertEquals(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+            assertEquals("one calculation", 1, weatherService.requests);
+            assertEquals("shallow areas are NoGo at low tide", 2, first.get().getPolygons().size());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // nothing is cached once the calculation is done
+        service.getNoGoAreas(request().setTime(LOW_TIDE));
+        assertEquals(2, weatherService.requests);
+    }
+
+    @Test
+    public void asyncSameAsBlocking() throws Exception {
+        DefaultNoGoService service = createService(new StubWeatherService());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (Instant time : Lists.newArrayList(LOW_TIDE, HIGH_TIDE)) {
+                NoGoResponse async = service.getNoGoAreasAsync(request().setTime(time), executor).get(10, TimeUnit.SECONDS);
+                assertEquals(service.getNoGoAreas(request().setTime(time)), async);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void expiredDeadlineCancelsCalculation() throws Exception {
+        DefaultNoGoService service = createService(new StubWeatherService());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Deadline deadline = Deadline.after(0);
+            service.getNoGoAreasAsync(request().setTime(LOW_TIDE), deadline.bind(executor)).get(10, TimeUnit.SECONDS);
+            fail("deadline has passed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ComputationCancelledException);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitingCallerRecalculatesWhenSharedCalculationIsCancelled() throws Exception {
+        StubWeatherService weatherService = new StubWeatherService();
+        weatherService.gate = new CountDownLatch(1);
+        DefaultNoGoService service = createService(weatherService);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Deadline deadline = Deadline.after(60000);
+            Future<NoGoResponse> cancelled = executor.submit(() -> deadline.call(() -> service.getNoGoAreas(request().setTime(LOW_TIDE))));
+            while (weatherService.requests == 0) {
+                Thread.sleep(5);
+            }
+            Future<NoGoResponse> waiting = executor.submit(() -> service.getNoGoAreas(request().setTime(LOW_TIDE)));
+            while (service.getCoalesced() == 0) {
+                Thread.sleep(5);
+            }
+            deadline.cancel();
+            weatherService.gate.countDown();
+
+            try {
+                cancelled.get(10, TimeUnit.SECONDS);
+                fail("calculation was cancelled");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ComputationCancelledException);
+            }
+            assertEquals(2, waiting.get(10, TimeUnit.SECONDS).getPolygons().size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void forecastHour() {
+        assertEquals(LOW_TIDE, DefaultNoGoService.forecastHour(LOW_TIDE.plusSeconds(30 * 60)));
+        assertEquals(LOW_TIDE, DefaultNoGoService.forecastHour(LOW_TIDE.minusSeconds(29 * 60)));
+        assertEquals(LOW_TIDE.plusSeconds(3600), DefaultNoGoService.forecastHour(LOW_TIDE.plusSeconds(31 * 60)));
+    }
+
+    @Test
+    public void stageMetrics() {
+        Map<String, Double> metrics = new ConcurrentHashMap<>();
+        DefaultNoGoService service = createService(new StubWeatherService(), new NoGoMetrics(metrics::put));
+        NoGoResponse response = service.getNoGoAreas(request().setTime(LOW_TIDE));
+
+        assertTrue(metrics.containsKey("timer.nogo.tidal.test"));
+        assertTrue(metrics.containsKey("timer.nogo.grid.test"));
+        assertTrue(metrics.containsKey("timer.nogo.grouping.vector.test"));
+        assertTrue(metrics.containsKey("timer.nogo.geo.vector.test"));
+        assertTrue(metrics.containsKey("timer.nogo.merge"));
+        assertEquals("60x60 grid", 3600, metrics.get("histogram.nogo.cells.test"), 0.0);
+        int vertices = response.getPolygons().stream().mapToInt(p -> p.getPoints().size()).sum();
+        assertEquals(vertices, metrics.get("histogram.nogo.vertices.test"), 0.0);
+    }
+
+    @Test
+    public void profiledRequest() {
+        DefaultNoGoService service = createService(new StubWeatherService());
+        RequestProfile profile = RequestProfile.start();
+        NoGoResponse response = profile.call(() -> service.getNoGoAreas(request().setTime(LOW_TIDE)));
+        NoGoProfile breakdown = profile.finish(10, response);
+
+        assertEquals(1, breakdown.getAreas().size());
+        NoGoProfile.AreaProfile area = breakdown.getAreas().get(0);
+        assertEquals("test", area.getName());
+        assertEquals("vector", area.getAlgorithm());
+        assertNotNull(area.getTidalMillis());
+        assertNotNull(area.getGridMillis());
+        assertNotNull(area.getGroupingMillis());
+        assertNotNull(area.getGeoMillis());
+        assertNotNull(breakdown.getMergeMillis());
+        assertEquals(3600L, (long) area.getCells());
+        assertEquals(2L, (long) area.getPolygons());
+        assertEquals(2, (int) breakdown.getPolygons());
+        assertNull("not profiled", RequestProfile.current());
+    }
+}
@@ -0,0 +1,65 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.nogoservice.dto.GridData;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DepthQuadtreeTest {
+
+    private static final int NX = 70;
+    private static final int NY = 50;
+
+    @Test
+    public void shallowPart() {
+        float[] data = new float[NX * NY];
+        Arrays.fill(data, -20f);
+        data[5 * NX + 40] = -4f;                // shoal
+        data[33 * NX + 61] = GridData.NO_DATA;  // land
+        DepthQuadtree tree = new DepthQuadtree(new GridData().setNx(NX).setNy(NY).setData(data));
+        GridWindow all = new GridWindow(0, 0, NX, NY);
+
+        assertNull("deep enough everywhere", tree.shallowPart(new GridWindow(0, 0, 50, NY), 4));
+        assertNull("land is not water", tree.shallowPart(all, 4));
+        assertEquals(new GridWindow(40, 5, 1, 1), tree.shallowPart(all, 5));
+        assertEquals(new GridWindow(40, 5, 1, 1), tree.shallowPart(new GridWindow(30, 0, 30, 50), 5));
+        assertNull("exactly deep enough", tree.shallowPart(new GridWindow(0, 10, 40, 40), 20));
+        assertEquals(new GridWindow(0, 10, 40, 40), tree.shallowPart(new GridWindow(0, 10, 40, 40), 21));
+    }
+
+    @Test
+    public void shallowLeaves() {
+        float[] data = new float[NX * NY];
+        Arrays.fill(data, -20f);
+        data[5 * NX + 40] = -4f;                // shoal
+        data[40 * NX + 3] = -4f;                // shoal
+        data[33 * NX + 61] = GridData.NO_DATA;  // land
+        DepthQuadtree tree = new DepthQuadtree(new GridData().setNx(NX).setNy(NY).setData(data));
+        GridWindow all = new GridWindow(0, 0, NX, NY);
+
+        assertTrue("deep enough everywhere", tree.shallowLeaves(all, 4).isEmpty());
+        assertEquals(Arrays.asList(new GridWindow(32, 0, 16, 16), new GridWindow(0, 32, 16, 16)), tree.shallowLeaves(all, 5));
+        assertEquals("clipped to the window", Collections.singletonList(new GridWindow(35, 2, 13, 14)), tree.shallowLeaves(new GridWindow(35, 2, 30, 20), 5));
+        assertEquals("the last leaves are cut by the grid", 5 * 4, tree.shallowLeaves(all, 21).size());
+        assertTrue(tree.shallowLeaves(all, 21).contains(new GridWindow(64, 48, 6, 2)));
+    }
+}
@@ -0,0 +1,43 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.common.dto.JsonErrorException;
+import dk.dma.common.exception.ErrorMessage;
+import dk.dma.dmiweather.dto.GridParameters;
+import dk.dma.dmiweather.dto.GridRequest;
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class EmbeddedWeatherServiceTest {
+
+    @Test
+    public void errorsAreThrownAsJsonErrors() {
+        EmbeddedWeatherService service = new EmbeddedWeatherService(new dk.dma.dmiweather.service.WeatherService(2, 6, null));
+        GridRequest request = new GridRequest().setNorthWest(new GeoCoordinate(12.0, 56.2)).setSouthEast(new GeoCoordinate(12.2, 56.0))
+                .setTime(Instant.parse("2017-04-01T12:00:00Z")).setParameters(new GridParameters().setSeaLevel(true));
+        try {
+            service.getWeather(request);
+            fail("no forecasts have been loaded");
+        } catch (JsonErrorException e) {
+            assertEquals(ErrorMessage.DATA_NOT_LOADED.getId(), e.getJSonError().getId());
+        }
+    }
+}
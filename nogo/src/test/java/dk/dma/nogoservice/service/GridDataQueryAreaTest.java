@@ -0,0 +1,116 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.nogoservice.dto.GridData;
+import dk.dma.nogoservice.dto.NoGoRequest;
+import org.junit.Test;
+
+import java.util.List;
+
+import static dk.dma.nogoservice.service.TestAreas.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the NoGo calculation of a single area
+ */
+public class GridDataQueryAreaTest {
+
+    @Test
+    public void coarseTidalResolution() {
+        StubWeatherService weatherService = new StubWeatherService();
+        GridDataQueryArea area = createArea(weatherService, NoGoMetrics.NONE);
+        NoGoRequest request = request().setTime(LOW_TIDE);
+        CalculatedNoGoArea nativeResolution = area.getNogoAreas(request);
+        assertNull("native resolution", weatherService.lastRequest.getNx());
+
+        area.setTidalResolution(0.1);
+        CalculatedNoGoArea coarse = area.getNogoAreas(request);
+        assertEquals(3, (int) weatherService.lastRequest.getNx());
+        assertEquals(3, (int) weatherService.lastRequest.getNy());
+        assertEquals(nativeResolution.getNogoAreas().size(), coarse.getNogoAreas().size());
+    }
+
+    @Test
+    public void timeWindow() {
+        StubWeatherService weatherService = new StubWeatherService();
+        GridDataQueryArea area = createArea(weatherService, NoGoMetrics.NONE);
+        CalculatedNoGoArea lowTide = area.getNogoAreas(request().setTime(LOW_TIDE));
+        CalculatedNoGoArea highTide = area.getNogoAreas(request().setTime(HIGH_TIDE));
+        assertNotEquals(lowTide.getNogoAreas().size(), highTide.getNogoAreas().size());
+
+        CalculatedNoGoArea window = area.getNogoAreas(request().setTime(MID_TIDE).setEndTime(HIGH_TIDE));
+        assertEquals("hours with low tide in the window", lowTide.getNogoAreas().size(), window.getNogoAreas().size());
+        assertEquals(1, weatherService.seriesRequests);
+        assertEquals(4, weatherService.lastSeriesRequest.getTimes().size());
+        assertEquals(highTide.getNogoAreas().size(), area.getNogoAreas(request().setTime(HIGH_TIDE).setEndTime(HIGH_TIDE)).getNogoAreas().size());
+
+        CalculatedNoGoArea asyncWindow = area.getNogoAreasAsync(request().setTime(MID_TIDE).setEndTime(HIGH_TIDE), Runnable::run).join();
+        assertEquals("the async call loads the same series", 1, weatherService.asyncSeriesRequests);
+        assertEquals(window.getNogoAreas().size(), asyncWindow.getNogoAreas().size());
+
+        assertFalse(request().setEndTime(HIGH_TIDE).isValidTimeWindow());
+        assertFalse(request().setTime(HIGH_TIDE).setEndTime(LOW_TIDE).isValidTimeWindow());
+        assertFalse(request().setTime(LOW_TIDE).setEndTime(LOW_TIDE.plusSeconds(25 * 3600)).isValidTimeWindow());
+    }
+
+    @Test
+    public void onlyShallowPartIsTraced() {
+        GridDataQueryArea area = createArea(new StubWeatherService(), NoGoMetrics.NONE);
+        NoGoRequest request = request().setTime(MID_TIDE);
+        DepthGrid grid = area.createGrid(request);
+        TidalInfo tidal = area.getTidalInfo(request);
+        Geometry traced = new GeometryFactory().buildGeometry(area.getNogoAreas(request, grid, tidal).getNogoAreas()).union();
+        Geometry full = new GeometryFactory().buildGeometry(area.trace(grid.getRows(), area.createMatcher(grid, 5.0, tidal))).union();
+        assertTrue("same NoGo areas as a trace of the whole grid", traced.equalsExact(full, 0.0000001));
+
+        assertEquals("deep enough everywhere", 0, area.getNogoAreas(request().setDraught(2.0)).getNogoAreas().size());
+    }
+
+    @Test
+    public void landIsTracedOnce() {
+        float[] data = depths();
+        // land along the west edge, with a shoal off the coast
+        for (int y = 20; y < 40; y++) {
+            for (int x = 0; x < 10; x++) {
+                data[y * SIZE + x] = GridData.NO_DATA;
+            }
+        }
+        fill(data, 25, 30, 10, 13, -3f);
+        GridDataQueryArea area = createArea(new StubWeatherService(), NoGoMetrics.NONE, data);
+        GeometryFactory factory = new GeometryFactory();
+        Geometry land = factory.createPoint(new Coordinate(12.01, 56.1));
+        Geometry shoal = factory.createPoint(new Coordinate(12.038, 56.092));
+
+        List<Geometry> coast = area.getNogoAreas(request()).getNogoAreas();
+        assertEquals("the coast and the two shallow areas", 3, coast.size());
+        assertTrue("the shoal is joined to the land", coast.stream().anyMatch(g -> g.contains(land) && g.contains(shoal)));
+
+        List<Geometry> landOnly = area.getNogoAreas(request().setDraught(2.0)).getNogoAreas();
+        assertEquals("land is NoGo for any draught", 1, landOnly.size());
+        assertTrue(landOnly.get(0).contains(land));
+        assertFalse(landOnly.get(0).contains(shoal));
+
+        NoGoRequest east = request().setDraught(2.0).setNorthWest(new GeoCoordinate(12.1, 56.2));
+        assertEquals("no land in the request", 0, area.getNogoAreas(east).getNogoAreas().size());
+        NoGoRequest south = request().setDraught(2.0).setNorthWest(new GeoCoordinate(12.0, 56.1));
+        Geometry clipped = area.getNogoAreas(south).getNogoAreas().get(0);
+        assertTrue("land is clipped to the request", clipped.getEnvelopeInternal().getMaxY() < 56.105);
+    }
+}
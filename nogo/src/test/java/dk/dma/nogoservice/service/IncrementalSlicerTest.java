@@ -0,0 +1,85 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import dk.dma.nogoservice.dto.GridData;
+import dk.dma.nogoservice.dto.NoGoRequest;
+import dk.dma.nogoservice.dto.NoGoResponse;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static dk.dma.nogoservice.service.TestAreas.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that patching the previous slice gives the same NoGo areas as tracing each slice
+ */
+public class IncrementalSlicerTest {
+
+    @Test
+    public void incrementalSlices() {
+        DefaultNoGoService service = createService(new StubWeatherService());
+        List<Instant> times = Lists.newArrayList(LOW_TIDE, MID_TIDE, HIGH_TIDE, LOW_TIDE);
+
+        SliceCalculation incremental = service.prepareSlices(request(), times, true);
+        SliceCalculation full = service.prepareSlices(request(), times, false);
+        int[] expectedAreas = {2, 1, 0, 2};
+        for (int i = 0; i < times.size(); i++) {
+            NoGoResponse patched = incremental.calculate(i);
+            NoGoResponse traced = full.calculate(i);
+            assertEquals("NoGo areas in slice " + i, expectedAreas[i], patched.getPolygons().size());
+            assertEquals("NoGo areas in slice " + i, traced.getPolygons().size(), patched.getPolygons().size());
+            assertEquals("Area of slice " + i, area(traced), area(patched), area(traced) * 0.05);
+        }
+    }
+
+    @Test
+    public void incrementalSlicesWithLand() {
+        float[] data = depths();
+        for (int y = 20; y < 40; y++) {
+            for (int x = 0; x < 10; x++) {
+                data[y * SIZE + x] = GridData.NO_DATA;
+            }
+        }
+        StubWeatherService weatherService = new StubWeatherService();
+        GridDataQueryArea area = createArea(weatherService, NoGoMetrics.NONE, data);
+        IncrementalSlicer slicer = area.incrementalSlicer(area.createGrid(request()));
+        List<Instant> times = Lists.newArrayList(LOW_TIDE, MID_TIDE, HIGH_TIDE, LOW_TIDE);
+        for (int i = 0; i < times.size(); i++) {
+            NoGoRequest request = request().setTime(times.get(i));
+            TidalInfo tidal = area.getTidalInfo(request);
+            Geometry patched = union(slicer.next(i, request, tidal).getNogoAreas());
+            Geometry traced = union(area.getNogoAreas(request, tidal).getNogoAreas());
+            assertTrue("the land is in slice " + i, patched.contains(new GeometryFactory().createPoint(new Coordinate(12.01, 56.1))));
+            assertEquals("Area of slice " + i, traced.getArea(), patched.getArea(), traced.getArea() * 0.05);
+        }
+    }
+
+    private static Geometry union(List<Geometry> polygons) {
+        return new GeometryFactory().buildGeometry(polygons).union();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void incrementalSlicesInOrder() {
+        DefaultNoGoService service = createService(new StubWeatherService());
+        service.prepareSlices(request(), Lists.newArrayList(LOW_TIDE, HIGH_TIDE), true).calculate(1);
+    }
+}
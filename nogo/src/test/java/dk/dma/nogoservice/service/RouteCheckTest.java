@@ -0,0 +1,143 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.collect.Lists;
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.common.exception.APIException;
+import dk.dma.common.exception.ErrorMessage;
+import dk.dma.nogoservice.dto.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import static dk.dma.nogoservice.service.TestAreas.*;
+import static org.junit.Assert.*;
+
+public class RouteCheckTest {
+
+    private final List<GeoCoordinate> route = Lists.newArrayList(new GeoCoordinate(0, 0), new GeoCoordinate(1, 0));
+
+    @Test
+    public void goWinsWhereAreasOverlap() {
+        // the first area reports its edge as NoGo, the second area has depth data there
+        RouteCheck first = new RouteCheck(new double[][]{{0, 0.6}}, legs(intervals(0.5, 0.6)), null);
+        RouteCheck second = new RouteCheck(new double[][]{{0.4, 1}}, legs(intervals(0.8, 0.9)), null);
+
+        RouteCheckResponse response = RouteCheck.combine(route, Lists.newArrayList(first, second));
+        assertFalse(response.isSafe());
+        assertNull(response.getWarning());
+        assertEquals(1, response.getViolations().size());
+        RouteViolation violation = response.getViolations().get(0);
+        assertEquals(0, violation.getLeg());
+        assertEquals(0.8, violation.getFrom().getLon(), 0.0000001);
+        assertEquals(0.9, violation.getTo().getLon(), 0.0000001);
+    }
+
+    @Test
+    public void notCovered() {
+        RouteCheck first = new RouteCheck(new double[][]{{0, 0.6}}, legs(new ArrayList<>()), null);
+        RouteCheckResponse response = RouteCheck.combine(route, Lists.newArrayList(first));
+        assertTrue(response.isSafe());
+        assertEquals(WarningMessage.ROUTE_NOT_COVERED.getId(), response.getWarning().getId());
+    }
+
+    @Test
+    public void intervals() {
+        List<double[]> union = RouteCheck.union(intervals(0.1, 0.2, 0.5, 0.6), intervals(0.2, 0.3, 0.7, 0.8));
+        assertArrayEquals(new double[]{0.1, 0.3, 0.5, 0.6, 0.7, 0.8}, flatten(union), 0);
+        List<double[]> intersection = RouteCheck.intersection(union, intervals(0.3, 0.55, 0.75, 1));
+        assertArrayEquals("touching intervals are left out", new double[]{0.5, 0.55, 0.75, 0.8}, flatten(intersection), 0);
+    }
+
+    private List<List<double[]>> legs(List<double[]> intervals) {
+        List<List<double[]>> legs = new ArrayList<>();
+        legs.add(intervals);
+        return legs;
+    }
+
+    private List<double[]> intervals(double... bounds) {
+        List<double[]> intervals = new ArrayList<>();
+        for (int i = 0; i < bounds.length; i += 2) {
+            intervals.add(new double[]{bounds[i], bounds[i + 1]});
+        }
+        return intervals;
+    }
+
+    private double[] flatten(List<double[]> intervals) {
+        return intervals.stream().flatMapToDouble(java.util.Arrays::stream).toArray();
+    }
+
+    @Test
+    public void routeCheck() {
+        DefaultNoGoService service = createService(new StubWeatherService());
+        RouteCheckRequest diagonal = new RouteCheckRequest().setRoute(Lists.newArrayList(new GeoCoordinate(12.0, 56.0), new GeoCoordinate(12.2, 56.2)))
+                .setDraught(5.0);
+        RouteCheckResponse response = check(service, diagonal);
+        assertFalse(response.isSafe());
+        assertEquals("both shallow areas are on the route", 2, response.getViolations().size());
+        RouteViolation first = response.getViolations().get(0);
+        assertEquals("enters cell 10", 12.0 + 9.5 / 300, first.getFrom().getLon(), 0.000001);
+        assertEquals("leaves cell 16, the NoGo polygons reach a cell east and north of the shallow cells", 12.0 + 16.5 / 300, first.getTo().getLon(), 0.000001);
+
+        assertTrue("deep enough", check(service, diagonal.setDraught(2.0)).isSafe());
+        assertEquals(2, check(service, diagonal.setDraught(5.0).setTime(LOW_TIDE)).getViolations().size());
+        assertTrue("deep enough at high tide", check(service, diagonal.setTime(HIGH_TIDE)).isSafe());
+
+        RouteCheckRequest west = new RouteCheckRequest().setRoute(Lists.newArrayList(new GeoCoordinate(11.9, 56.1), new GeoCoordinate(12.1, 56.1)))
+                .setDraught(5.0);
+        assertEquals(WarningMessage.ROUTE_NOT_COVERED.getId(), check(service, west).getWarning().getId());
+        try {
+            check(service, west.setRoute(Lists.newArrayList(new GeoCoordinate(11.0, 56.1), new GeoCoordinate(11.5, 56.1))));
+            fail("route outside the areas");
+        } catch (CompletionException e) {
+            assertEquals(ErrorMessage.OUTSIDE_GRID, ((APIException) e.getCause()).getError());
+        }
+    }
+
+    @Test
+    public void sameAsThePolygons() {
+        DefaultNoGoService service = createService(new StubWeatherService());
+        // only the methods without a default, so the route check is made with the NoGo polygons
+        NoGoService polygons = new NoGoService() {
+            @Override
+            public NoGoResponse getNoGoAreas(NoGoRequest request) {
+                return service.getNoGoAreas(request);
+            }
+
+            @Override
+            public AreaInfos getInfo() {
+                return service.getInfo();
+            }
+        };
+        RouteCheckRequest diagonal = new RouteCheckRequest().setRoute(Lists.newArrayList(new GeoCoordinate(12.0, 56.0), new GeoCoordinate(12.2, 56.2)))
+                .setDraught(5.0);
+        List<RouteViolation> walked = check(service, diagonal).getViolations();
+        List<RouteViolation> crossing = check(polygons, diagonal).getViolations();
+        assertEquals(2, crossing.size());
+        for (int i = 0; i < walked.size(); i++) {
+            // the buffer has rounded corners, and the diagonal passes the corners
+            assertEquals(walked.get(i).getFrom().getLon(), crossing.get(i).getFrom().getLon(), 1 / 300.0);
+            assertEquals(walked.get(i).getTo().getLon(), crossing.get(i).getTo().getLon(), 1 / 300.0);
+        }
+    }
+
+    private static RouteCheckResponse check(NoGoService service, RouteCheckRequest request) {
+        return service.checkRouteAsync(request, Runnable::run).join();
+    }
+
+}
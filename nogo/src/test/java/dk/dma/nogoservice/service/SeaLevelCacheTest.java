@@ -0,0 +1,110 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.nogoservice.dto.WarningMessage;
+import org.junit.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Instant;
+
+import static dk.dma.nogoservice.service.TestAreas.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the cached sea level of an area, and the fallback to the stale cache, or the last loaded sea level, when the weather service is unavailable
+ */
+public class SeaLevelCacheTest {
+
+    @Test
+    public void tidalCache() {
+        StubWeatherService weatherService = new StubWeatherService();
+        weatherService.creationDate = Instant.parse("2017-04-01T06:00:00Z");
+        GridDataQueryArea area = createArea(weatherService, NoGoMetrics.NONE);
+        CalculatedNoGoArea uncached = area.getNogoAreas(request().setTime(MID_TIDE));
+        assertEquals(1, weatherService.requests);
+
+        area.setTidalCacheHours(6);
+        area.refreshTidalCache(LOW_TIDE.plusSeconds(600));
+        assertEquals(1, weatherService.seriesRequests);
+        CalculatedNoGoArea cached = area.getNogoAreas(request().setTime(MID_TIDE.plusSeconds(600)));
+        assertEquals("sea level from the cache", 1, weatherService.requests);
+        assertEquals(uncached.getNogoAreas().size(), cached.getNogoAreas().size());
+        area.getNogoAreas(request().setTime(HIGH_TIDE));
+        assertEquals("outside the cached hours", 2, weatherService.requests);
+
+        area.refreshTidalCache(LOW_TIDE.plusSeconds(1200));
+        assertEquals("only checks for a new forecast", 1, weatherService.lastSeriesRequest.getTimes().size());
+        weatherService.creationDate = Instant.parse("2017-04-01T12:00:00Z");
+        area.refreshTidalCache(LOW_TIDE.plusSeconds(1800));
+        assertEquals("new forecast", 4, weatherService.seriesRequests);
+        assertEquals(6, weatherService.lastSeriesRequest.getTimes().size());
+    }
+
+    @Test
+    public void tidalCacheLoadsAtMost48Hours() {
+        StubWeatherService weatherService = new StubWeatherService();
+        GridDataQueryArea area = createArea(weatherService, NoGoMetrics.NONE);
+        area.setTidalCacheHours(60);
+        area.refreshTidalCache(LOW_TIDE);
+        assertEquals("two series requests", 2, weatherService.seriesRequests);
+        assertEquals(12, weatherService.lastSeriesRequest.getTimes().size());
+        assertNull("sea level from the second request", area.getNogoAreas(request().setTime(LOW_TIDE.plusSeconds(55 * 3600))).getWarning());
+        assertEquals(0, weatherService.requests);
+    }
+
+    @Test
+    public void staleTidalCache() {
+        StubWeatherService weatherService = new StubWeatherService();
+        weatherService.creationDate = Instant.parse("2017-04-01T06:00:00Z");
+        GridDataQueryArea area = createArea(weatherService, NoGoMetrics.NONE);
+        area.setTidalCacheHours(6);
+        area.refreshTidalCache(LOW_TIDE);
+        CalculatedNoGoArea current = area.getNogoAreas(request().setTime(MID_TIDE));
+        assertNull(current.getWarning());
+
+        weatherService.offline = true;
+        try {
+            area.refreshTidalCache(LOW_TIDE.plusSeconds(600));
+            fail("weather service is offline");
+        } catch (ResourceAccessException e) {
+            // expected
+        }
+        CalculatedNoGoArea stale = area.getNogoAreas(request().setTime(MID_TIDE));
+        assertEquals(WarningMessage.STALE_TIDAL_INFO.getId(), stale.getWarning().getId());
+        assertEquals("sea level from the cache", current.getNogoAreas().size(), stale.getNogoAreas().size());
+        assertEquals("nearest cached hour", WarningMessage.STALE_TIDAL_INFO.getId(), area.getNogoAreas(request().setTime(HIGH_TIDE)).getWarning().getId());
+
+        weatherService.offline = false;
+        area.refreshTidalCache(LOW_TIDE.plusSeconds(1200));
+        assertNull(area.getNogoAreas(request().setTime(MID_TIDE)).getWarning());
+    }
+
+    @Test
+    public void lastGoodSeaLevelWithoutCache() {
+        StubWeatherService weatherService = new StubWeatherService();
+        GridDataQueryArea area = createArea(weatherService, NoGoMetrics.NONE);
+        CalculatedNoGoArea current = area.getNogoAreas(request().setTime(MID_TIDE));
+        assertNull(current.getWarning());
+
+        weatherService.offline = true;
+        CalculatedNoGoArea stale = area.getNogoAreas(request().setTime(HIGH_TIDE));
+        assertEquals(WarningMessage.STALE_TIDAL_INFO.getId(), stale.getWarning().getId());
+        assertEquals("sea level of the nearest hour", current.getNogoAreas().size(), stale.getNogoAreas().size());
+
+        CalculatedNoGoArea envelope = area.getNogoAreasAsync(request().setTime(LOW_TIDE).setEndTime(HIGH_TIDE), Runnable::run).join();
+        assertEquals("the time window falls back as well", WarningMessage.STALE_TIDAL_INFO.getId(), envelope.getWarning().getId());
+    }
+}
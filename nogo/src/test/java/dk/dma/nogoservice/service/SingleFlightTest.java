@@ -0,0 +1,60 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.nogoservice.ComputationCancelledException;
+import dk.dma.nogoservice.Deadline;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    @Test
+    public void followerWaitsUntilItsDeadline() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> flight.execute("key", () -> {
+            started.countDown();
+            await(release);
+            return "value";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        try {
+            Deadline.after(50).call(() -> flight.execute("key", () -> "follower"));
+            fail("the follower must give up at its deadline");
+        } catch (ComputationCancelledException e) {
+            assertEquals(1, flight.getCoalesced());
+        }
+
+        release.countDown();
+        assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("the next caller calculates again", "next", Deadline.after(1000).call(() -> flight.execute("key", () -> "next")));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.common.dto.JSonWarning;
+import dk.dma.common.exception.APIException;
+import dk.dma.common.exception.ErrorMessage;
+import dk.dma.nogoservice.dto.NoGoPolygon;
+import dk.dma.nogoservice.dto.NoGoResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the vertex weighted result stores, and the binary encoding used when results are spilled to disk
+ */
+public class SliceResultStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void codecRoundTrip() throws Exception {
+        NoGoResponse response = response(0, 100).setWarning(new JSonWarning().setId(1).setMessage("No tidal information"));
+        ResourceProcessingResult decoded = SliceResultCodec.decode(SliceResultCodec.encode(ResourceProcessingResult.done(response)));
+        assertEquals(ResourceState.Done, decoded.getState());
+        assertEquals(response.getWarning(), decoded.getResponse().getWarning());
+        List<GeoCoordinate> expected = response.getPolygons().get(0).getPoints();
+        List<GeoCoordinate> actual = decoded.getResponse().getPolygons().get(0).getPoints();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getLon(), actual.get(i).getLon(), 0.0000001);
+            assertEquals(expected.get(i).getLat(), actual.get(i).getLat(), 0.0000001);
+        }
+
+        ResourceProcessingResult failed = SliceResultCodec.decode(SliceResultCodec.encode(
+                ResourceProcessingResult.failed(new APIException(ErrorMessage.OUTSIDE_GRID, "details"))));
+        assertEquals(ResourceState.Failed, failed.getState());
+        assertEquals(ErrorMessage.OUTSIDE_GRID, failed.getException().getError());
+        assertEquals("details", failed.getException().getDetails());
+    }
+
+    @Test
+    public void memoryStoreIsBoundedByVertices() {
+        MemorySliceResultStore store = new MemorySliceResultStore(2000);
+        int retained = 0;
+        for (int i = 0; i < 50; i++) {
+            store.put("slice" + i, ResourceProcessingResult.done(response(i, 100)));
+        }
+        for (int i = 0; i < 50; i++) {
+            retained += store.get("slice" + i) != null ? 1 : 0;
+        }
+        assertTrue("at most 2000 vertices are retained", retained <= 20);
+        assertNotNull("most recently used result is retained", store.get("slice49"));
+    }
+
+    @Test
+    public void memoryStoreRetainsALargeResult() {
+        MemorySliceResultStore store = new MemorySliceResultStore(2000);
+        store.put("large", ResourceProcessingResult.done(response(0, 1500)));
+        assertNotNull("a result larger than a quarter of the bound is retained", store.get("large"));
+        store.put("small", ResourceProcessingResult.done(response(1, 600)));
+        assertNull("the least recently used result is evicted", store.get("large"));
+        assertNotNull(store.get("small"));
+    }
+
+    @Test
+    public void diskStoreSpillsColdResults() throws Exception {
+        DiskSliceResultStore store = new DiskSliceResultStore(250, folder.getRoot().getAbsolutePath());
+        for (int i = 0; i < 5; i++) {
+            store.put("slice" + i, ResourceProcessingResult.done(response(i, 100)));
+        }
+        assertTrue("results have been written to disk", store.getSpilled() > 0);
+        assertEquals(1, folder.getRoot().listFiles().length);
+        for (int i = 0; i < 5; i++) {
+            ResourceProcessingResult result = store.get("slice" + i);
+            assertEquals(ResourceState.Done, result.getState());
+            assertEquals(i + 55.0, result.getResponse().getPolygons().get(0).getPoints().get(0).getLat(), 0.0000001);
+        }
+        store.remove("slice0");
+        assertNull(store.get("slice0"));
+
+        store.deleteExpired(System.currentTimeMillis());
+        assertEquals("not expired yet", 1, folder.getRoot().listFiles().length);
+        store.deleteExpired(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(DiskSliceResultStore.SEGMENT_MINUTES + SliceResultStore.EXPIRY_MINUTES));
+        assertEquals("expired segments are deleted without new results", 0, folder.getRoot().listFiles().length);
+        assertEquals(0, store.getSpilled());
+
+        store.shutdown();
+        assertEquals("segments are deleted", 0, folder.getRoot().listFiles().length);
+    }
+
+    /**
+     * A response with a single polygon with the given number of points
+     */
+    private static NoGoResponse response(int offset, int points) {
+        List<GeoCoordinate> coordinates = new ArrayList<>();
+        for (int i = 0; i < points; i++) {
+            double angle = 2 * Math.PI * i / points;
+            coordinates.add(new GeoCoordinate(12 + 0.01 * Math.cos(angle), offset + 55 + 0.01 * Math.sin(angle)));
+        }
+        return new NoGoResponse().setPolygons(new ArrayList<>(Collections.singletonList(new NoGoPolygon().setPoints(coordinates))));
+    }
+}
@@ -0,0 +1,137 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.repository.InMemoryMetricRepository;
+import org.springframework.boot.actuate.metrics.writer.DefaultCounterService;
+import org.springframework.boot.actuate.metrics.writer.DefaultGaugeService;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the ordering and the bounds of the slicing scheduler
+ */
+public class SliceSchedulerTest {
+
+    private static final Instant START = Instant.parse("2017-04-01T12:00:00Z");
+
+    static SliceScheduler createScheduler(int threads, int capacity, int clientCapacity) {
+        InMemoryMetricRepository repository = new InMemoryMetricRepository();
+        return new SliceScheduler(threads, capacity, clientCapacity, new DefaultGaugeService(repository), new DefaultCounterService(repository));
+    }
+
+    static void awaitIdle(SliceScheduler scheduler) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10_000;
+        while (scheduler.getQueued() > 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(5);
+        }
+        // the scheduler has a single thread in the tests, so this task runs when the last task has completed
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.submit("await-idle", Collections.singletonList(new SliceScheduler.Task(Instant.MAX, done::countDown)));
+        assertTrue("scheduler did not finish", done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void clientsTakeTurns() throws Exception {
+        SliceScheduler scheduler = createScheduler(1, 20, 10);
+        CountDownLatch blocked = new CountDownLatch(1);
+        scheduler.submit("blocker", Collections.singletonList(new SliceScheduler.Task(START, () -> await(blocked))));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        scheduler.submit("a", tasks("a", 3, order));
+        scheduler.submit("b", tasks("b", 2, order));
+        blocked.countDown();
+        awaitIdle(scheduler);
+        scheduler.shutdown();
+
+        assertEquals(Arrays.asList("a0", "b0", "a1", "b1", "a2"), order);
+    }
+
+    @Test
+    public void rejectWhenSaturated() throws Exception {
+        SliceScheduler scheduler = createScheduler(1, 5, 3);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit("blocker", Collections.singletonList(new SliceScheduler.Task(START, () -> {
+            started.countDown();
+            await(blocked);
+        })));
+        await(started);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        scheduler.submit("a", tasks("a", 3, order));
+        try {
+            scheduler.submit("a", tasks("a", 1, order));
+            fail("client capacity exceeded");
+        } catch (SchedulerSaturatedException e) {
+            assertTrue("retry hint", e.getRetryAfterSeconds() >= 1);
+        }
+        scheduler.submit("b", tasks("b", 2, order));
+        try {
+            scheduler.submit("c", tasks("c", 1, order));
+            fail("capacity exceeded");
+        } catch (SchedulerSaturatedException e) {
+            assertEquals("rejected requests are not queued", 5, scheduler.getQueued());
+        }
+        blocked.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void tasksCountAsTheirSlices() throws Exception {
+        SliceScheduler scheduler = createScheduler(1, 10, 3);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit("blocker", Collections.singletonList(new SliceScheduler.Task(START, () -> {
+            started.countDown();
+            await(blocked);
+        })));
+        await(started);
+        try {
+            scheduler.submit("a", Collections.singletonList(new SliceScheduler.Task(START, 4, () -> {})));
+            fail("an incremental task with 4 slices exceeds the client capacity");
+        } catch (SchedulerSaturatedException e) {
+            assertEquals(0, scheduler.getQueued());
+        }
+        scheduler.submit("a", Collections.singletonList(new SliceScheduler.Task(START, 3, () -> {})));
+        assertEquals(3, scheduler.getQueued());
+        blocked.countDown();
+        awaitIdle(scheduler);
+        assertEquals(0, scheduler.getQueued());
+        scheduler.shutdown();
+    }
+
+    private List<SliceScheduler.Task> tasks(String client, int count, List<String> order) {
+        List<SliceScheduler.Task> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = client + i;
+            tasks.add(new SliceScheduler.Task(START.plusSeconds(3600 * i), () -> order.add(name)));
+        }
+        return tasks;
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.collect.Lists;
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.nogoservice.dto.*;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the slicing service prepares the calculation once, calculates each slice with the shared calculation, and streams the results in order
+ */
+public class SlicingServiceImplTest {
+
+    private static final Instant START = Instant.parse("2017-04-01T12:00:00Z");
+
+    @Test
+    public void slicesShareCalculation() throws Exception {
+        List<List<Instant>> prepared = new ArrayList<>();
+        List<Integer> calculated = new ArrayList<>();
+        NoGoService noGoService = noGoService((times, incremental) -> prepared.add(times), slice -> {
+            calculated.add(slice);
+            return new NoGoResponse().setPolygons(new ArrayList<>());
+        });
+
+        SliceScheduler scheduler = SliceSchedulerTest.createScheduler(1, 10, 10);
+        SlicingServiceImpl service = new SlicingServiceImpl(noGoService, scheduler, new MemorySliceResultStore(100_000), Runnable::run);
+        NoGoSliceResponse response = service.request(sliceRequest(3), "client");
+        SliceSchedulerTest.awaitIdle(scheduler);
+        scheduler.shutdown();
+
+        assertEquals("prepared once", 1, prepared.size());
+        assertEquals(START.plusSeconds(4 * 3600), prepared.get(0).get(2));
+        assertEquals("all slices calculated", Lists.newArrayList(0, 1, 2), calculated);
+        for (SliceResource slice : response.getSlices()) {
+            assertEquals(ResourceState.Done, service.getStateAndData(slice.getResourceURL()).getState());
+        }
+    }
+
+    @Test
+    public void streamInSliceOrder() throws Exception {
+        CountDownLatch firstSlice = new CountDownLatch(1);
+        NoGoService noGoService = noGoService((times, incremental) -> {}, slice -> {
+            if (slice == 0) {
+                firstSlice.await();
+            }
+            if (slice == 2) {
+                throw new IllegalStateException("failed slice");
+            }
+            return new NoGoResponse().setPolygons(new ArrayList<>());
+        });
+
+        SliceScheduler scheduler = SliceSchedulerTest.createScheduler(2, 10, 10);
+        SlicingServiceImpl service = new SlicingServiceImpl(noGoService, scheduler, new MemorySliceResultStore(100_000), Runnable::run);
+        NoGoSliceResponse response = service.request(sliceRequest(3), "client");
+        // wait until the second thread has calculated the slices after the blocked first slice
+        for (SliceResource slice : response.getSlices().subList(1, 3)) {
+            while (service.getStateAndData(slice.getResourceURL()).getState() == ResourceState.Working) {
+                Thread.sleep(5);
+            }
+        }
+
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch last = new CountDownLatch(1);
+        assertEquals(3, service.subscribe(response.getStreamURL(), 0, (slice, result, isLast) -> {
+            received.add(slice + ":" + result.getState());
+            if (isLast) {
+                last.countDown();
+            }
+        }));
+        assertTrue("later slices wait for the first slice", received.isEmpty());
+        firstSlice.countDown();
+        assertTrue(last.await(10, TimeUnit.SECONDS));
+        assertEquals(Lists.newArrayList("0:Done", "1:Done", "2:Failed"), received);
+
+        List<Integer> resumed = new ArrayList<>();
+        service.subscribe(response.getStreamURL(), 1, (slice, result, isLast) -> resumed.add(slice));
+        assertEquals("a late subscriber gets the completed slices", Lists.newArrayList(1, 2), resumed);
+        assertEquals("unknown stream", -1, service.subscribe("unknown", 0, (slice, result, isLast) -> fail()));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void slowListenerDoesNotBlockTheStream() throws Exception {
+        CountDownLatch subscribed = new CountDownLatch(1);
+        NoGoService noGoService = noGoService((times, incremental) -> {}, slice -> {
+            subscribed.await();
+            return new NoGoResponse().setPolygons(new ArrayList<>());
+        });
+        SliceScheduler scheduler = SliceSchedulerTest.createScheduler(1, 10, 10);
+        ExecutorService streamExecutor = Executors.newCachedThreadPool();
+        try {
+            SlicingServiceImpl service = new SlicingServiceImpl(noGoService, scheduler, new MemorySliceResultStore(100_000), streamExecutor);
+            CountDownLatch slowClient = new CountDownLatch(1);
+            CountDownLatch last = new CountDownLatch(1);
+            List<Integer> slow = Collections.synchronizedList(new ArrayList<>());
+            List<Integer> removed = Collections.synchronizedList(new ArrayList<>());
+
+            NoGoSliceResponse response = service.request(sliceRequest(3), "client");
+            String stream = response.getStreamURL();
+            service.subscribe(stream, 0, (slice, result, isLast) -> {
+                slowClient.await();
+                slow.add(slice);
+            });
+            SliceListener unsubscribed = (slice, result, isLast) -> removed.add(slice);
+            service.subscribe(stream, 0, unsubscribed);
+            service.unsubscribe(stream, unsubscribed);
+            service.subscribe(stream, 0, (slice, result, isLast) -> {
+                if (isLast) {
+                    last.countDown();
+                }
+            });
+            subscribed.countDown();
+            SliceSchedulerTest.awaitIdle(scheduler);
+            assertTrue("the other listener gets all slices", last.await(10, TimeUnit.SECONDS));
+            assertTrue(slow.isEmpty());
+            slowClient.countDown();
+            long timeout = System.currentTimeMillis() + 10_000;
+            while (slow.size() < 3 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(5);
+            }
+            assertEquals("in slice order", Lists.newArrayList(0, 1, 2), slow);
+            assertTrue("unsubscribed", removed.isEmpty());
+        } finally {
+            scheduler.shutdown();
+            streamExecutor.shutdownNow();
+        }
+    }
+
+    private static NoGoSliceRequest sliceRequest(int slices) {
+        return new NoGoSliceRequest().setNorthWest(new GeoCoordinate(12.0, 56.0)).setSouthEast(new GeoCoordinate(12.1, 55.9)).setDraught(5.0)
+                .setStart(START).setSlices(slices).setInterval(2);
+    }
+
+    /**
+     * A NoGo service which only supports slicing, with the given calculation
+     */
+    private static NoGoService noGoService(BiConsumer<List<Instant>, Boolean> prepared, TestCalculation calculation) {
+        return new NoGoService() {
+            @Override
+            public NoGoResponse getNoGoAreas(NoGoRequest request) {
+                throw new IllegalStateException("slices should use the prepared calculation");
+            }
+
+            @Override
+            public AreaInfos getInfo() {
+                return new AreaInfos();
+            }
+
+            @Override
+            public SliceCalculation prepareSlices(NoGoRequest request, List<Instant> times, boolean incremental) {
+                prepared.accept(times, incremental);
+                return slice -> {
+                    try {
+                        return calculation.calculate(slice);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                };
+            }
+        };
+    }
+
+    @FunctionalInterface
+    private interface TestCalculation {
+        NoGoResponse calculate(int slice) throws InterruptedException;
+    }
+}
@@ -0,0 +1,169 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.dmiweather.dto.*;
+import dk.dma.nogoservice.dto.GridData;
+import dk.dma.nogoservice.dto.NoGoPolygon;
+import dk.dma.nogoservice.dto.NoGoRequest;
+import dk.dma.nogoservice.dto.NoGoResponse;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Shared fixture for the service tests, a small in memory grid, and a weather service which returns a constant sea level
+ */
+final class TestAreas {
+
+    static final int SIZE = 60;
+    static final Instant LOW_TIDE = Instant.parse("2017-04-01T12:00:00Z");
+    static final Instant MID_TIDE = Instant.parse("2017-04-01T15:00:00Z");
+    static final Instant HIGH_TIDE = Instant.parse("2017-04-01T18:00:00Z");
+
+    static NoGoRequest request() {
+        return new NoGoRequest().setNorthWest(new GeoCoordinate(12.0, 56.2)).setSouthEast(new GeoCoordinate(12.2, 56.0)).setDraught(5.0);
+    }
+
+    /**
+     * A 60x60 grid with 10m depth, except for a 6x6 area with 3m depth and a 8x8 area with 4.5m depth
+     */
+    static DefaultNoGoService createService(WeatherService weatherService) {
+        return createService(weatherService, NoGoMetrics.NONE);
+    }
+
+    static DefaultNoGoService createService(WeatherService weatherService, NoGoMetrics metrics) {
+        return new DefaultNoGoService(Lists.newArrayList(createArea(weatherService, metrics)), new NoGoResponseMerger(), metrics);
+    }
+
+    static GridDataQueryArea createArea(WeatherService weatherService, NoGoMetrics metrics) {
+        return createArea(weatherService, metrics, depths());
+    }
+
+    static GridDataQueryArea createArea(WeatherService weatherService, NoGoMetrics metrics, float[] data) {
+        GridData gridData = new GridData().setName("test").setLo1(12.0).setLo2(12.2).setLa1(56.0).setLa2(56.2).setNx(SIZE).setNy(SIZE).setData(data);
+        return new GridDataQueryArea(weatherService, new NoGoAlgorithmFacade(new FigureTransformer(), metrics), gridData, metrics) {};
+    }
+
+    static float[] depths() {
+        float[] data = new float[SIZE * SIZE];
+        Arrays.fill(data, -10f);
+        fill(data, 10, 16, 10, 16, -3f);
+        fill(data, 36, 44, 36, 44, -4.5f);
+        return data;
+    }
+
+    static void fill(float[] data, int fromY, int toY, int fromX, int toX, float depth) {
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                data[y * SIZE + x] = depth;
+            }
+        }
+    }
+
+    static Geometry geometry(NoGoResponse response) {
+        GeometryFactory factory = new GeometryFactory();
+        List<Geometry> polygons = new ArrayList<>();
+        for (NoGoPolygon polygon : response.getPolygons()) {
+            polygons.add(factory.createPolygon(polygon.getPoints().stream().map(p -> new Coordinate(p.getLon(), p.getLat())).toArray(Coordinate[]::new)));
+        }
+        return factory.buildGeometry(polygons).union();
+    }
+
+    static double area(NoGoResponse response) {
+        GeometryFactory factory = new GeometryFactory();
+        double area = 0;
+        for (NoGoPolygon polygon : response.getPolygons()) {
+            area += factory.createPolygon(polygon.getPoints().stream().map(p -> new Coordinate(p.getLon(), p.getLat())).toArray(Coordinate[]::new)).getArea();
+        }
+        return area;
+    }
+
+    /**
+     * Sea level is 0 at low tide, 1 meter at mid tide, and 3 meter at high tide
+     */
+    static class StubWeatherService implements WeatherService {
+        volatile int requests;
+        volatile int seriesRequests;
+        volatile int asyncSeriesRequests;
+        /**
+         * if set, requests wait for the gate to open
+         */
+        volatile CountDownLatch gate;
+        volatile GridRequest lastRequest;
+        volatile GridSeriesRequest lastSeriesRequest;
+        volatile Instant creationDate;
+        volatile boolean offline;
+
+        @Override
+        public GridResponse getWeather(GridRequest request) {
+            requests++;
+            lastRequest = request;
+            if (offline) {
+                throw new ResourceAccessException("offline");
+            }
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return seaLevel(request.getNorthWest(), request.getSouthEast(), request.getTime());
+        }
+
+        @Override
+        public GridSeriesResponse getWeatherSeries(GridSeriesRequest request) {
+            seriesRequests++;
+            lastSeriesRequest = request;
+            if (offline) {
+                throw new ResourceAccessException("offline");
+            }
+            List<GridResponse> grids = new ArrayList<>();
+            for (Instant time : request.getTimes()) {
+                grids.add(seaLevel(request.getNorthWest(), request.getSouthEast(), time));
+            }
+            return new GridSeriesResponse().setGrids(grids);
+        }
+
+        @Override
+        public CompletableFuture<GridSeriesResponse> getWeatherSeriesAsync(GridSeriesRequest request) {
+            asyncSeriesRequests++;
+            return WeatherService.super.getWeatherSeriesAsync(request);
+        }
+
+        private GridResponse seaLevel(GeoCoordinate northWest, GeoCoordinate southEast, Instant time) {
+            float level = time.equals(HIGH_TIDE) ? 3f : time.equals(MID_TIDE) ? 1f : 0f;
+            GridDataPoint point = new GridDataPoint().setSeaLevel(level).setCoordinate(northWest);
+            // a single point, which covers the entire area
+            List<ForecastInfo> forecasts = Lists.newArrayList(new ForecastInfo().setCreationDate(creationDate));
+            return new GridResponse().setQueryTime(time).setForecasts(forecasts).setPoints(Lists.newArrayList(point)).setNx(1).setNy(1).setDx(10.0).setDy(10.0)
+                    .setNorthWest(northWest).setSouthEast(new GeoCoordinate(northWest.getLon(), southEast.getLat()));
+        }
+    }
+
+    private TestAreas() {
+    }
+}
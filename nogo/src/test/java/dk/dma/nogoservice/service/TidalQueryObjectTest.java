@@ -0,0 +1,95 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.collect.Lists;
+import dk.dma.nogoservice.entity.DepthPoint;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the sea level lookup for the points of a depth grid
+ */
+public class TidalQueryObjectTest {
+
+    /**
+     * A 2x2 weather grid with 1 degree spacing, the north east point is land
+     */
+    private final TidalQueryObject tidal = new TidalQueryObject(new float[]{0f, 1f, 2f, Float.NaN}, 2, 2, 10, 50, 1, 1);
+
+    @Test
+    public void nearest() {
+        TidalQueryObject.Sampler sampler = tidal.sampler(grid(5), TidalQueryObject.Interpolation.NEAREST);
+        assertEquals(0f, sampler.getTidalHeight(0, 0), 0f);
+        assertEquals("rounds to the east", 1f, sampler.getTidalHeight(3, 0), 0f);
+        assertEquals(2f, sampler.getTidalHeight(0, 4), 0f);
+        assertEquals("land", 0f, sampler.getTidalHeight(4, 4), 0f);
+        assertEquals(1f, tidal.getTidalHeight(50.2, 10.8), 0f);
+        assertEquals("northern row", 2f, tidal.getTidalHeight(50.9, 10.2), 0f);
+
+        TidalQueryObject wide = new TidalQueryObject(new float[]{0f, 1f, 2f, 3f, 4f, 5f}, 3, 2, 10, 50, 1, 1);
+        assertEquals("the row is only multiplied by nx once", 5f, wide.getTidalHeight(51, 12), 0f);
+    }
+
+    @Test
+    public void bilinear() {
+        TidalQueryObject.Sampler sampler = tidal.sampler(grid(5), TidalQueryObject.Interpolation.BILINEAR);
+        assertEquals(0f, sampler.getTidalHeight(0, 0), 0f);
+        assertEquals(0.5f, sampler.getTidalHeight(2, 0), 0.0001f);
+        assertEquals(1f, sampler.getTidalHeight(0, 2), 0.0001f);
+        assertEquals("the land point is left out", 1f, sampler.getTidalHeight(2, 2), 0.0001f);
+        assertEquals("eastern edge", 1f, sampler.getTidalHeight(4, 2), 0.0001f);
+    }
+
+    @Test
+    public void range() {
+        assertEquals(0f, tidal.getMinimum(), 0f);
+        assertEquals(2f, tidal.getMaximum(), 0f);
+        TidalQueryObject falling = new TidalQueryObject(new float[]{-0.5f, -1.5f, Float.NaN}, 3, 1, 10, 50, 1, 1);
+        assertEquals(-1.5f, falling.getMinimum(), 0f);
+        assertEquals("undefined points have sea level 0", 0f, falling.getMaximum(), 0f);
+    }
+
+    @Test
+    public void minimum() {
+        TidalQueryObject later = new TidalQueryObject(new float[]{1f, -1f, Float.NaN, 3f}, 2, 2, 10, 50, 1, 1);
+        // a single point covering the grid
+        TidalQueryObject coarse = new TidalQueryObject(new float[]{0.5f}, 1, 1, 10, 50, 2, 2);
+        TidalQueryObject minimum = TidalQueryObject.minimum(Lists.newArrayList(tidal, later, coarse));
+        assertEquals(0f, minimum.getTidalHeight(50, 10), 0f);
+        assertEquals(-1f, minimum.getTidalHeight(50, 11), 0f);
+        assertEquals("undefined in one field", 0.5f, minimum.getTidalHeight(51, 10), 0f);
+        assertEquals(0.5f, minimum.getTidalHeight(51, 11), 0f);
+    }
+
+    /**
+     * A grid with quarter degree spacing, which covers the weather grid
+     */
+    private DepthGrid grid(int size) {
+        List<List<DepthPoint>> rows = new ArrayList<>();
+        for (int y = 0; y < size; y++) {
+            List<DepthPoint> row = new ArrayList<>();
+            for (int x = 0; x < size; x++) {
+                row.add(new DepthPoint(50 + y * 0.25, 10 + x * 0.25, -5d, x, y));
+            }
+            rows.add(row);
+        }
+        return new DepthGrid(rows);
+    }
+}
@@ -0,0 +1,224 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.nogoservice.service;
+
+import com.google.common.collect.Lists;
+import dk.dma.common.dto.GeoCoordinate;
+import dk.dma.common.exception.APIException;
+import dk.dma.common.exception.ErrorMessage;
+import dk.dma.nogoservice.dto.*;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the tile projection, caching and encoding of the vector tile service
+ */
+public class VectorTileServiceTest {
+
+    private static final int Z = 12;
+
+    @Test
+    public void projectionRoundTrip() {
+        double x = VectorTileService.lonToTile(12.6, Z);
+        double y = VectorTileService.latToTile(55.7, Z);
+        assertEquals(12.6, VectorTileService.tileToLon(x, Z), 0.0000001);
+        assertEquals(55.7, VectorTileService.tileToLat(y, Z), 0.0000001);
+        assertEquals(0, VectorTileService.lonToTile(-180, 0), 0.0000001);
+        assertEquals(0.5, VectorTileService.latToTile(0, 0), 0.0000001);
+    }
+
+    @Test
+    public void tileIsCachedPerDraughtBucketAndHour() {
+        RecordingNoGoService noGoService = new RecordingNoGoService(squareInTile(2183, 1280));
+        VectorTileService service = new VectorTileService(noGoService, 9, 0.5, 1);
+
+        byte[] tile = service.getTile(Z, 2183, 1280, 5.1, Instant.parse("2017-04-01T12:10:00Z"));
+        assertTrue("tile contains layer", new String(tile, StandardCharsets.ISO_8859_1).contains(VectorTileService.LAYER));
+        service.getTile(Z, 2183, 1280, 5.4, Instant.parse("2017-04-01T11:45:00Z"));
+        assertEquals("same draught bucket and forecast hour", 1, noGoService.requests.size());
+        assertEquals("draught is rounded up", 5.5, noGoService.requests.get(0).getDraught(), 0.0);
+        assertEquals(Instant.parse("2017-04-01T12:00:00Z"), noGoService.requests.get(0).getTime());
+
+        service.getTile(Z, 2183, 1280, 5.6, Instant.parse("2017-04-01T12:10:00Z"));
+        assertEquals("new draught bucket", 2, noGoService.requests.size());
+    }
+
+    @Test
+    public void tileGeometry() {
+        List<List<int[]>> rings = decodeRings(new VectorTileService(new RecordingNoGoService(squareInTile(2183, 1280)), 9, 0.5, 1)
+                .getTile(Z, 2183, 1280, 5, null));
+        assertEquals(1, rings.size());
+        assertSquare(rings.get(0));
+
+        // the winding order of the input must not matter, the exterior ring is always clockwise on screen
+        NoGoResponse reversed = squareInTile(2183, 1280);
+        Collections.reverse(reversed.getPolygons().get(0).getPoints());
+        rings = decodeRings(new VectorTileService(new RecordingNoGoService(reversed), 9, 0.5, 1).getTile(Z, 2183, 1280, 5, null));
+        assertEquals(1, rings.size());
+        assertSquare(rings.get(0));
+    }
+
+    @Test
+    public void emptyTile() {
+        RecordingNoGoService noGoService = new RecordingNoGoService(squareInTile(2183, 1280));
+        VectorTileService service = new VectorTileService(noGoService, 9, 0.5, 1);
+        assertEquals("polygon is in another tile", 0, service.getTile(Z, 2190, 1280, 5, null).length);
+    }
+
+    @Test
+    public void invalidZoom() {
+        VectorTileService service = new VectorTileService(new RecordingNoGoService(), 9, 0.5, 1);
+        try {
+            service.getTile(5, 1, 1, 5, null);
+            fail("zoom level below minimum");
+        } catch (APIException e) {
+            assertEquals(ErrorMessage.INVALID_TILE, e.getError());
+        }
+    }
+
+    private void assertSquare(List<int[]> ring) {
+        assertEquals("MVT rings are not closed explicitly", 4, ring.size());
+        long area = 0;
+        for (int i = 0; i < ring.size(); i++) {
+            int[] point = ring.get(i);
+            int[] next = ring.get((i + 1) % ring.size());
+            area += (long) point[0] * next[1] - (long) next[0] * point[1];
+            assertTrue("x in tile coordinates " + point[0], point[0] == 1024 || point[0] == 3072);
+            assertTrue("y in tile coordinates " + point[1], point[1] == 1024 || point[1] == 3072);
+        }
+        assertEquals("exterior ring has positive area", 2 * 2048L * 2048L, area);
+    }
+
+    /**
+     * Decodes the polygon rings of the first layer, see https://github.com/mapbox/vector-tile-spec/tree/master/2.1
+     */
+    private List<List<int[]>> decodeRings(byte[] tile) {
+        List<List<int[]>> rings = new ArrayList<>();
+        for (ByteBuffer layer : fields(ByteBuffer.wrap(tile), 3)) {
+            for (ByteBuffer feature : fields(layer, 2)) {
+                for (ByteBuffer geometry : fields(feature, 4)) {
+                    int x = 0;
+                    int y = 0;
+                    List<int[]> ring = null;
+                    while (geometry.hasRemaining()) {
+                        int command = (int) varint(geometry);
+                        int id = command & 0x7;
+                        int count = command >>> 3;
+                        if (id == 7) {
+                            rings.add(ring);
+                            continue;
+                        }
+                        if (id == 1) {
+                            ring = new ArrayList<>();
+                        }
+                        for (int i = 0; i < count; i++) {
+                            x += zigZag(varint(geometry));
+                            y += zigZag(varint(geometry));
+                            ring.add(new int[]{x, y});
+                        }
+                    }
+                }
+            }
+        }
+        return rings;
+    }
+
+    /**
+     * @return the length delimited fields with the given number
+     */
+    private List<ByteBuffer> fields(ByteBuffer message, int number) {
+        List<ByteBuffer> fields = new ArrayList<>();
+        while (message.hasRemaining()) {
+            long key = varint(message);
+            int wireType = (int) (key & 0x7);
+            if (wireType == 0) {
+                varint(message);
+            } else if (wireType == 1) {
+                message.position(message.position() + 8);
+            } else if (wireType == 2) {
+                int length = (int) varint(message);
+                ByteBuffer field = message.slice();
+                field.limit(length);
+                message.position(message.position() + length);
+                if (key >>> 3 == number) {
+                    fields.add(field);
+                }
+            } else {
+                fail("unexpected wire type " + wireType);
+            }
+        }
+        return fields;
+    }
+
+    private long varint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private int zigZag(long n) {
+        return (int) (n >>> 1) ^ -(int) (n & 1);
+    }
+
+    /**
+     * A polygon covering the middle of the tile
+     */
+    private NoGoResponse squareInTile(int x, int y) {
+        double west = VectorTileService.tileToLon(x + 0.25, Z);
+        double east = VectorTileService.tileToLon(x + 0.75, Z);
+        double north = VectorTileService.tileToLat(y + 0.25, Z);
+        double south = VectorTileService.tileToLat(y + 0.75, Z);
+        NoGoPolygon polygon = new NoGoPolygon().setPoints(Lists.newArrayList(new GeoCoordinate(west, north), new GeoCoordinate(east, north),
+                new GeoCoordinate(east, south), new GeoCoordinate(west, south), new GeoCoordinate(west, north)));
+        return new NoGoResponse().setPolygons(Lists.newArrayList(polygon));
+    }
+
+    private static class RecordingNoGoService implements NoGoService {
+        private final List<NoGoRequest> requests = new ArrayList<>();
+        private final NoGoResponse response;
+
+        RecordingNoGoService() {
+            this(new NoGoResponse().setPolygons(new ArrayList<>()));
+        }
+
+        RecordingNoGoService(NoGoResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public NoGoResponse getNoGoAreas(NoGoRequest request) {
+            requests.add(request);
+            return response;
+        }
+
+        @Override
+        public AreaInfos getInfo() {
+            return new AreaInfos();
+        }
+    }
+}